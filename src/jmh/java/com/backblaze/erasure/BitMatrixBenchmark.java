@@ -0,0 +1,98 @@
+/**
+ * JMH benchmark of bit matrix coding against the table loops.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark of BitMatrixReedSolomon against the table loops.
+ *
+ * All of the codecs use the same Cauchy matrix, with coefficients
+ * chosen to minimize XORs, so the only difference is the coding.
+ * Each operation encodes dataShardCount * shardSize bytes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Thread)
+public class BitMatrixBenchmark {
+
+    /**
+     * The number of data and parity shards, as "data+parity".
+     */
+    @Param({"17+3", "10+4", "6+3"})
+    public String layout;
+
+    /**
+     * The number of bytes in each shard.  Must be a multiple of eight
+     * times the packet size.
+     */
+    @Param({"65536", "1048576"})
+    public int shardSize;
+
+    /**
+     * The number of bytes in each packet.
+     */
+    @Param({"1024", "4096"})
+    public int packetSize;
+
+    private byte [] [] shards;
+    private ReedSolomon tableCodec;
+    private BitMatrixReedSolomon bitMatrixCodec;
+    private BitMatrixReedSolomon unscheduledCodec;
+
+    @Setup
+    public void setUp() {
+        int plus = layout.indexOf('+');
+        int dataShardCount = Integer.parseInt(layout.substring(0, plus));
+        int parityShardCount = Integer.parseInt(layout.substring(plus + 1));
+        MatrixGenerator generator = new CauchyMatrixGenerator(true);
+        tableCodec = new ReedSolomon(dataShardCount, parityShardCount,
+                new InputOutputByteTableCodingLoop(), generator);
+        bitMatrixCodec = new BitMatrixReedSolomon(tableCodec, new BitMatrixCodingLoop(true), packetSize);
+        unscheduledCodec = new BitMatrixReedSolomon(tableCodec, new BitMatrixCodingLoop(false), packetSize);
+
+        Random random = new Random(0);
+        shards = new byte [dataShardCount + parityShardCount] [shardSize];
+        for (int i = 0; i < dataShardCount; i++) {
+            random.nextBytes(shards[i]);
+        }
+    }
+
+    @Benchmark
+    public byte [] [] tableEncode() {
+        tableCodec.encodeParity(shards, 0, shardSize);
+        return shards;
+    }
+
+    @Benchmark
+    public byte [] [] bitMatrixEncode() {
+        bitMatrixCodec.encodeParity(shards, 0, shardSize);
+        return shards;
+    }
+
+    @Benchmark
+    public byte [] [] bitMatrixEncodeUnscheduled() {
+        unscheduledCodec.encodeParity(shards, 0, shardSize);
+        return shards;
+    }
+}
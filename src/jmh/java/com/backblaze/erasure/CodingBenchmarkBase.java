@@ -0,0 +1,146 @@
+/**
+ * Common setup for the JMH benchmarks.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Common setup for the JMH benchmarks.
+ *
+ * The parameters pick the coding loop, the shard layout, the shard size,
+ * and whether the buffers are hot or cold.  Hot benchmarks use the same
+ * set of shards every time, so they stay in the processor cache if they
+ * fit.  Cold benchmarks rotate through enough sets of shards to be much
+ * bigger than the processor cache, which is closer to the case where the
+ * data has just been read from a socket or a disk.
+ *
+ * Each benchmark operation processes dataShardCount * shardSize bytes
+ * of data, so to get bytes per second, multiply the score by that.
+ */
+@State(Scope.Thread)
+public abstract class CodingBenchmarkBase {
+
+    /**
+     * Cold benchmarks use at least this many bytes of shards.
+     */
+    private static final long COLD_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * The simple class name of the coding loop to use.  Loops that are
+     * not available in this JVM, like VectorCodingLoop without the
+     * jdk.incubator.vector module, fail in setup and are skipped.
+     */
+    @Param({
+            "ByteInputOutputExpCodingLoop",
+            "ByteInputOutputTableCodingLoop",
+            "ByteOutputInputExpCodingLoop",
+            "ByteOutputInputTableCodingLoop",
+            "InputByteOutputExpCodingLoop",
+            "InputByteOutputTableCodingLoop",
+            "InputOutputByteExpCodingLoop",
+            "InputOutputByteTableCodingLoop",
+            "OutputByteInputExpCodingLoop",
+            "OutputByteInputTableCodingLoop",
+            "OutputInputByteExpCodingLoop",
+            "OutputInputByteTableCodingLoop",
+            "InputOutputLongSwarCodingLoop",
+            "VectorCodingLoop"
+    })
+    public String codingLoop;
+
+    /**
+     * The number of data and parity shards, as "data+parity".
+     */
+    @Param({"17+3", "10+4", "6+3"})
+    public String layout;
+
+    /**
+     * The number of bytes in each shard.
+     */
+    @Param({"4096", "65536", "1048576", "16777216"})
+    public int shardSize;
+
+    /**
+     * "hot" to reuse one set of shards, or "cold" to rotate through
+     * many of them.
+     */
+    @Param({"hot", "cold"})
+    public String buffers;
+
+    protected ReedSolomon codec;
+    protected int dataShardCount;
+    protected int parityShardCount;
+    protected int totalShardCount;
+
+    private byte [] [] [] shardSets;
+    private int nextShardSet;
+
+    @Setup
+    public void setUpShards() {
+        int plus = layout.indexOf('+');
+        if (plus < 0) {
+            throw new IllegalArgumentException("layout should be data+parity: " + layout);
+        }
+        dataShardCount = Integer.parseInt(layout.substring(0, plus));
+        parityShardCount = Integer.parseInt(layout.substring(plus + 1));
+        totalShardCount = dataShardCount + parityShardCount;
+        codec = new ReedSolomon(dataShardCount, parityShardCount, findCodingLoop(codingLoop));
+
+        final long setBytes = (long) totalShardCount * shardSize;
+        int setCount = 1;
+        if (buffers.equals("cold")) {
+            setCount = (int) Math.max(2, (COLD_BYTES + setBytes - 1) / setBytes);
+        }
+        else if (!buffers.equals("hot")) {
+            throw new IllegalArgumentException("buffers should be hot or cold: " + buffers);
+        }
+
+        Random random = new Random(0);
+        shardSets = new byte [setCount] [totalShardCount] [shardSize];
+        for (byte [] [] shards : shardSets) {
+            for (int i = 0; i < dataShardCount; i++) {
+                random.nextBytes(shards[i]);
+            }
+            codec.encodeParity(shards, 0, shardSize);
+        }
+        nextShardSet = 0;
+        setUpBenchmark();
+    }
+
+    /**
+     * Called at the end of setup, so subclasses can do their own setup
+     * after the codec and shards are ready.
+     */
+    protected void setUpBenchmark() {
+    }
+
+    /**
+     * Returns the set of shards to use for the next operation.
+     */
+    protected byte [] [] nextShards() {
+        byte [] [] result = shardSets[nextShardSet];
+        nextShardSet += 1;
+        if (nextShardSet == shardSets.length) {
+            nextShardSet = 0;
+        }
+        return result;
+    }
+
+    private static CodingLoop findCodingLoop(String name) {
+        for (CodingLoop loop : CodingLoop.ALL_CODING_LOOPS) {
+            if (loop.getClass().getSimpleName().equals(name)) {
+                return loop;
+            }
+        }
+        throw new IllegalStateException("coding loop not available: " + name);
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * JMH benchmark of decoding.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark of decodeMissing().
+ *
+ * The first lostShards data shards are treated as missing, which is the
+ * most work for a given number of losses, because nothing can be copied
+ * from the data that's present.  The decode matrix is cached by the
+ * codec after the first call, as it would be in a long-running server.
+ *
+ * The number of lost shards is capped at the number of parity shards,
+ * so with small layouts some of the results are repeats.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class DecodeBenchmark extends CodingBenchmarkBase {
+
+    /**
+     * The number of shards to rebuild.
+     */
+    @Param({"1", "2", "3", "4"})
+    public int lostShards;
+
+    private boolean [] shardPresent;
+
+    @Override
+    protected void setUpBenchmark() {
+        shardPresent = new boolean [totalShardCount];
+        int lostCount = Math.min(lostShards, parityShardCount);
+        for (int i = 0; i < totalShardCount; i++) {
+            shardPresent[i] = (lostCount <= i);
+        }
+    }
+
+    @Benchmark
+    public byte [] [] decodeMissing() {
+        byte [] [] shards = nextShards();
+        codec.decodeMissing(shards, shardPresent, 0, shardSize);
+        return shards;
+    }
+}
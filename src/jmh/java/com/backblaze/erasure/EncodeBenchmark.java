@@ -0,0 +1,43 @@
+/**
+ * JMH benchmark of encoding and checking parity.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark of encodeParity() and isParityCorrect().
+ *
+ * Run it with "gradle jmh".  The parity in every set of shards is
+ * correct, so isParityCorrect() always checks all of the bytes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class EncodeBenchmark extends CodingBenchmarkBase {
+
+    @Benchmark
+    public byte [] [] encodeParity() {
+        byte [] [] shards = nextShards();
+        codec.encodeParity(shards, 0, shardSize);
+        return shards;
+    }
+
+    @Benchmark
+    public boolean isParityCorrect() {
+        return codec.isParityCorrect(nextShards(), 0, shardSize);
+    }
+}
@@ -0,0 +1,344 @@
+/**
+ * A coding loop that uses only XORs, on packets of bits.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * A coding loop that uses only XORs, on packets of bits, like the
+ * Cauchy Reed-Solomon coding in Jerasure.
+ *
+ * Each coefficient in the matrix rows is expanded into an 8x8 matrix
+ * of bits, and each output packet is the XOR of the input packets
+ * that have a one in its row of the bit matrix.  The list of XORs is
+ * worked out once for a set of matrix rows, and then run over each
+ * group of packets, eight bytes at a time.
+ *
+ * With smart scheduling, an output packet can start as a copy of an
+ * output packet that's already been computed, when that takes fewer
+ * XORs than starting from scratch.  This is the "smart scheduling"
+ * from Plank's "Uber-CSHR and X-Sets" paper.
+ *
+ * Fewer ones in the bit matrices means fewer XORs, so this works best
+ * with a ReedSolomon built with new CauchyMatrixGenerator(true).
+ */
+public class BitMatrixCodingLoop implements PacketCodingLoop {
+
+    /**
+     * Reads and writes longs at any byte offset in a byte array.
+     */
+    private static final VarHandle LONG_VIEW =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final int COPY_INPUT = 0;
+    private static final int XOR_INPUT = 1;
+    private static final int COPY_OUTPUT = 2;
+    private static final int ZERO = 3;
+
+    private final boolean smartScheduling;
+
+    /**
+     * The schedule used most recently, which is usually the one needed
+     * next, because a codec encodes with the same rows every time.
+     */
+    private volatile Schedule lastSchedule;
+
+    /**
+     * Uses smart scheduling.
+     */
+    public BitMatrixCodingLoop() {
+        this(true);
+    }
+
+    /**
+     * Uses smart scheduling or not.  Without it, each output packet is
+     * computed from scratch.
+     */
+    public BitMatrixCodingLoop(boolean smartScheduling) {
+        this.smartScheduling = smartScheduling;
+    }
+
+    @Override
+    public void codeSomeShards(
+            byte[][] matrixRows,
+            byte[][] inputs, int inputCount,
+            byte[][] outputs, int outputCount,
+            int offset, int byteCount,
+            int packetSize) {
+
+        checkPacketSize(byteCount, packetSize);
+        final Schedule schedule = getSchedule(matrixRows, inputCount, outputCount);
+        final int groupSize = 8 * packetSize;
+        for (int group = offset; group < offset + byteCount; group += groupSize) {
+            schedule.run(inputs, group, outputs, group, packetSize);
+        }
+    }
+
+    @Override
+    public boolean checkSomeShards(
+            byte[][] matrixRows,
+            byte[][] inputs, int inputCount,
+            byte[][] toCheck, int checkCount,
+            int offset, int byteCount,
+            int packetSize) {
+
+        checkPacketSize(byteCount, packetSize);
+        final Schedule schedule = getSchedule(matrixRows, inputCount, checkCount);
+        final int groupSize = 8 * packetSize;
+
+        // Compute one group of packets at a time, and compare it.
+        final byte [] [] temp = new byte [checkCount] [groupSize];
+        for (int group = offset; group < offset + byteCount; group += groupSize) {
+            schedule.run(inputs, group, temp, 0, packetSize);
+            for (int iOutput = 0; iOutput < checkCount; iOutput++) {
+                final byte [] expected = toCheck[iOutput];
+                final byte [] computed = temp[iOutput];
+                for (int i = 0; i < groupSize; i++) {
+                    if (computed[i] != expected[group + i]) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of XORs and copies in the schedule for the
+     * given rows, for comparing schedules.
+     */
+    int getOperationCount(byte [] [] matrixRows, int inputCount, int outputCount) {
+        return getSchedule(matrixRows, inputCount, outputCount).opCount;
+    }
+
+    private static void checkPacketSize(int byteCount, int packetSize) {
+        if (packetSize <= 0 || packetSize % 8 != 0) {
+            throw new IllegalArgumentException("packetSize must be a positive multiple of 8: " + packetSize);
+        }
+        if (byteCount % (8 * packetSize) != 0) {
+            throw new IllegalArgumentException("byteCount must be a multiple of 8 * packetSize: " + byteCount);
+        }
+    }
+
+    private Schedule getSchedule(byte [] [] matrixRows, int inputCount, int outputCount) {
+        Schedule schedule = lastSchedule;
+        if (schedule == null || !schedule.matches(matrixRows, inputCount, outputCount)) {
+            schedule = new Schedule(matrixRows, inputCount, outputCount, smartScheduling);
+            lastSchedule = schedule;
+        }
+        return schedule;
+    }
+
+    /**
+     * The list of copies and XORs that computes one group of output
+     * packets from one group of input packets.
+     */
+    private static final class Schedule {
+
+        private final byte [] [] rows;
+        private final int inputCount;
+        private final int outputCount;
+
+        private int opCount;
+        private int [] opType;
+        private int [] opSource;
+        private int [] opSourcePacket;
+        private int [] opDest;
+        private int [] opDestPacket;
+
+        Schedule(byte [] [] matrixRows, int inputCount, int outputCount, boolean smart) {
+            this.rows = new byte [outputCount] [];
+            for (int i = 0; i < outputCount; i++) {
+                this.rows[i] = Arrays.copyOf(matrixRows[i], inputCount);
+            }
+            this.inputCount = inputCount;
+            this.outputCount = outputCount;
+            opType = new int [16];
+            opSource = new int [16];
+            opSourcePacket = new int [16];
+            opDest = new int [16];
+            opDestPacket = new int [16];
+            build(smart);
+        }
+
+        boolean matches(byte [] [] matrixRows, int inputCount, int outputCount) {
+            if (this.inputCount != inputCount || this.outputCount != outputCount) {
+                return false;
+            }
+            for (int i = 0; i < outputCount; i++) {
+                for (int j = 0; j < inputCount; j++) {
+                    if (rows[i][j] != matrixRows[i][j]) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Expands the rows into bit matrix rows, one for each output
+         * packet, and turns them into operations.
+         */
+        private void build(boolean smart) {
+            final int bitRowCount = outputCount * 8;
+            final int bitColumnCount = inputCount * 8;
+            final int wordCount = (bitColumnCount + 63) / 64;
+
+            // Row (8 * iOutput + i) has a one in column (8 * iInput + k)
+            // when bit i of the coefficient times 2^k is set.
+            final long [] [] bitRows = new long [bitRowCount] [wordCount];
+            for (int iOutput = 0; iOutput < outputCount; iOutput++) {
+                for (int iInput = 0; iInput < inputCount; iInput++) {
+                    byte coefficient = rows[iOutput][iInput];
+                    for (int k = 0; k < 8; k++) {
+                        int product = Galois.multiply(coefficient, (byte) (1 << k)) & 0xFF;
+                        for (int i = 0; i < 8; i++) {
+                            if ((product & (1 << i)) != 0) {
+                                int column = 8 * iInput + k;
+                                bitRows[8 * iOutput + i][column >>> 6] |= 1L << (column & 63);
+                            }
+                        }
+                    }
+                }
+            }
+
+            // For each row, the cheapest way to start it found so far:
+            // from scratch (-1), or from a row that's already done.
+            final int [] bestCost = new int [bitRowCount];
+            final int [] bestStart = new int [bitRowCount];
+            final boolean [] done = new boolean [bitRowCount];
+            for (int r = 0; r < bitRowCount; r++) {
+                bestCost[r] = Math.max(0, popCount(bitRows[r]) - 1);
+                bestStart[r] = -1;
+            }
+
+            for (int step = 0; step < bitRowCount; step++) {
+                // Without smart scheduling, rows go in order.  With it,
+                // the cheapest row goes next.
+                int next = -1;
+                for (int r = 0; r < bitRowCount; r++) {
+                    if (!done[r] && (next == -1 || (smart && bestCost[r] < bestCost[next]))) {
+                        next = r;
+                        if (!smart) {
+                            break;
+                        }
+                    }
+                }
+                emitRow(next, bitRows, bestStart[next]);
+                done[next] = true;
+
+                if (smart) {
+                    for (int r = 0; r < bitRowCount; r++) {
+                        if (!done[r]) {
+                            int cost = popCountXor(bitRows[r], bitRows[next]);
+                            if (cost < bestCost[r]) {
+                                bestCost[r] = cost;
+                                bestStart[r] = next;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Adds the operations that compute one output packet.
+         */
+        private void emitRow(int row, long [] [] bitRows, int start) {
+            final int dest = row >>> 3;
+            final int destPacket = row & 7;
+            final long [] bits = bitRows[row];
+            boolean started = false;
+            if (start >= 0) {
+                addOp(COPY_OUTPUT, start >>> 3, start & 7, dest, destPacket);
+                started = true;
+            }
+            for (int column = 0; column < inputCount * 8; column++) {
+                boolean set = (bits[column >>> 6] & (1L << (column & 63))) != 0;
+                boolean inStart = start >= 0 && (bitRows[start][column >>> 6] & (1L << (column & 63))) != 0;
+                if (set != inStart) {
+                    addOp(started ? XOR_INPUT : COPY_INPUT, column >>> 3, column & 7, dest, destPacket);
+                    started = true;
+                }
+            }
+            if (!started) {
+                addOp(ZERO, 0, 0, dest, destPacket);
+            }
+        }
+
+        private void addOp(int type, int source, int sourcePacket, int dest, int destPacket) {
+            if (opCount == opType.length) {
+                int newLength = opCount * 2;
+                opType = Arrays.copyOf(opType, newLength);
+                opSource = Arrays.copyOf(opSource, newLength);
+                opSourcePacket = Arrays.copyOf(opSourcePacket, newLength);
+                opDest = Arrays.copyOf(opDest, newLength);
+                opDestPacket = Arrays.copyOf(opDestPacket, newLength);
+            }
+            opType[opCount] = type;
+            opSource[opCount] = source;
+            opSourcePacket[opCount] = sourcePacket;
+            opDest[opCount] = dest;
+            opDestPacket[opCount] = destPacket;
+            opCount += 1;
+        }
+
+        /**
+         * Runs the operations on one group of packets.
+         */
+        void run(byte [] [] inputs, int inputGroup, byte [] [] outputs, int outputGroup, int packetSize) {
+            for (int iOp = 0; iOp < opCount; iOp++) {
+                final byte [] dest = outputs[opDest[iOp]];
+                final int destStart = outputGroup + opDestPacket[iOp] * packetSize;
+                final int type = opType[iOp];
+                if (type == ZERO) {
+                    Arrays.fill(dest, destStart, destStart + packetSize, (byte) 0);
+                    continue;
+                }
+                final byte [] source;
+                final int sourceStart;
+                if (type == COPY_OUTPUT) {
+                    source = outputs[opSource[iOp]];
+                    sourceStart = outputGroup + opSourcePacket[iOp] * packetSize;
+                }
+                else {
+                    source = inputs[opSource[iOp]];
+                    sourceStart = inputGroup + opSourcePacket[iOp] * packetSize;
+                }
+                if (type == XOR_INPUT) {
+                    for (int i = 0; i < packetSize; i += 8) {
+                        long value = (long) LONG_VIEW.get(source, sourceStart + i)
+                                ^ (long) LONG_VIEW.get(dest, destStart + i);
+                        LONG_VIEW.set(dest, destStart + i, value);
+                    }
+                }
+                else {
+                    System.arraycopy(source, sourceStart, dest, destStart, packetSize);
+                }
+            }
+        }
+
+        private static int popCount(long [] bits) {
+            int result = 0;
+            for (long word : bits) {
+                result += Long.bitCount(word);
+            }
+            return result;
+        }
+
+        private static int popCountXor(long [] a, long [] b) {
+            int result = 0;
+            for (int i = 0; i < a.length; i++) {
+                result += Long.bitCount(a[i] ^ b[i]);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/**
+ * Cauchy Reed-Solomon coding with bit matrices.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+/**
+ * Encodes, checks, and decodes shards with a PacketCodingLoop, using
+ * the matrix of a ReedSolomon codec.
+ *
+ * The shards are laid out in packets, as described in PacketCodingLoop,
+ * so the parity is not the same as the parity from ReedSolomon.  Shards
+ * must be decoded by a BitMatrixReedSolomon with the same matrix and
+ * packet size as they were encoded with.
+ *
+ * The coding only uses XORs, so the fewer ones there are in the bit
+ * matrices of the coefficients, the faster it is.  For that, build the
+ * ReedSolomon with new CauchyMatrixGenerator(true).
+ *
+ * Decoding shares the decoding matrix cache of the ReedSolomon codec.
+ */
+public class BitMatrixReedSolomon {
+
+    private final ReedSolomon codec;
+    private final PacketCodingLoop codingLoop;
+    private final int packetSize;
+
+    /**
+     * Uses the matrix from the given codec, with BitMatrixCodingLoop.
+     */
+    public BitMatrixReedSolomon(ReedSolomon codec, int packetSize) {
+        this(codec, new BitMatrixCodingLoop(), packetSize);
+    }
+
+    /**
+     * Uses the matrix from the given codec, with a chosen coding loop.
+     *
+     * @param packetSize The number of bytes in each packet.  Must be a
+     *                   positive multiple of 8.
+     */
+    public BitMatrixReedSolomon(ReedSolomon codec, PacketCodingLoop codingLoop, int packetSize) {
+        if (packetSize <= 0 || packetSize % 8 != 0) {
+            throw new IllegalArgumentException("packetSize must be a positive multiple of 8: " + packetSize);
+        }
+        this.codec = codec;
+        this.codingLoop = codingLoop;
+        this.packetSize = packetSize;
+    }
+
+    /**
+     * Returns the codec whose matrix is used.
+     */
+    public ReedSolomon getCodec() {
+        return codec;
+    }
+
+    /**
+     * Returns the number of bytes in each packet.  Byte counts must be
+     * a multiple of eight times this.
+     */
+    public int getPacketSize() {
+        return packetSize;
+    }
+
+    /**
+     * Encodes parity for a set of data shards.
+     *
+     * @param shards An array containing data shards followed by parity shards.
+     *               Each shard is a byte array, and they must all be the same
+     *               size.
+     * @param offset The index of the first byte in each shard to encode.
+     * @param byteCount The number of bytes to encode in each shard.
+     *                  Must be a multiple of 8 * packetSize.
+     */
+    public void encodeParity(byte [] [] shards, int offset, int byteCount) {
+        checkBuffersAndSizes(shards, offset, byteCount);
+
+        final int dataShardCount = codec.getDataShardCount();
+        final int parityShardCount = codec.getParityShardCount();
+        byte [] [] outputs = new byte [parityShardCount] [];
+        System.arraycopy(shards, dataShardCount, outputs, 0, parityShardCount);
+
+        codingLoop.codeSomeShards(
+                codec.getParityRows(),
+                shards, dataShardCount,
+                outputs, parityShardCount,
+                offset, byteCount, packetSize);
+    }
+
+    /**
+     * Returns true if the parity shards contain the right data.
+     *
+     * @param shards An array containing data shards followed by parity shards.
+     *               Each shard is a byte array, and they must all be the same
+     *               size.
+     * @param offset The index of the first byte in each shard to check.
+     * @param byteCount The number of bytes to check in each shard.
+     *                  Must be a multiple of 8 * packetSize.
+     */
+    public boolean isParityCorrect(byte [] [] shards, int offset, int byteCount) {
+        checkBuffersAndSizes(shards, offset, byteCount);
+
+        final int dataShardCount = codec.getDataShardCount();
+        final int parityShardCount = codec.getParityShardCount();
+        byte [] [] toCheck = new byte [parityShardCount] [];
+        System.arraycopy(shards, dataShardCount, toCheck, 0, parityShardCount);
+
+        return codingLoop.checkSomeShards(
+                codec.getParityRows(),
+                shards, dataShardCount,
+                toCheck, parityShardCount,
+                offset, byteCount, packetSize);
+    }
+
+    /**
+     * Given a list of shards, some of which contain data, fills in the
+     * ones that don't have data.
+     *
+     * Quickly does nothing if all of the shards are present.
+     */
+    public void decodeMissing(byte [] [] shards,
+                              boolean [] shardPresent,
+                              int offset,
+                              int byteCount) {
+        checkBuffersAndSizes(shards, offset, byteCount);
+
+        final int dataShardCount = codec.getDataShardCount();
+        final int parityShardCount = codec.getParityShardCount();
+        final int totalShardCount = codec.getTotalShardCount();
+
+        // Quick check: are all of the shards present?
+        int numberPresent = 0;
+        for (int i = 0; i < totalShardCount; i++) {
+            if (shardPresent[i]) {
+                numberPresent += 1;
+            }
+        }
+        if (numberPresent == totalShardCount) {
+            return;
+        }
+        if (numberPresent < dataShardCount) {
+            throw new IllegalArgumentException("Not enough shards present");
+        }
+
+        // The inputs for rebuilding the missing shards are the first
+        // dataShardCount shards that are present.
+        byte [] [] subShards = new byte [dataShardCount] [];
+        {
+            int subMatrixRow = 0;
+            for (int matrixRow = 0; matrixRow < totalShardCount && subMatrixRow < dataShardCount; matrixRow++) {
+                if (shardPresent[matrixRow]) {
+                    subShards[subMatrixRow] = shards[matrixRow];
+                    subMatrixRow += 1;
+                }
+            }
+        }
+
+        // Re-create all of the missing shards, data and parity, in
+        // one pass.  The bit matrix of a product is the product of the
+        // bit matrices, so the decode rows work packet by packet too.
+        byte [] [] matrixRows = codec.getDecodeRows(shardPresent);
+        byte [] [] outputs = new byte [parityShardCount] [];
+        int outputCount = 0;
+        for (int iShard = 0; iShard < totalShardCount; iShard++) {
+            if (!shardPresent[iShard]) {
+                outputs[outputCount] = shards[iShard];
+                outputCount += 1;
+            }
+        }
+        codingLoop.codeSomeShards(
+                matrixRows,
+                subShards, dataShardCount,
+                outputs, outputCount,
+                offset, byteCount, packetSize);
+    }
+
+    /**
+     * Checks the consistency of arguments passed to public methods.
+     */
+    private void checkBuffersAndSizes(byte [] [] shards, int offset, int byteCount) {
+        if (shards.length != codec.getTotalShardCount()) {
+            throw new IllegalArgumentException("wrong number of shards: " + shards.length);
+        }
+        int shardLength = shards[0].length;
+        for (int i = 1; i < shards.length; i++) {
+            if (shards[i].length != shardLength) {
+                throw new IllegalArgumentException("Shards are different sizes");
+            }
+        }
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset is negative: " + offset);
+        }
+        if (byteCount < 0) {
+            throw new IllegalArgumentException("byteCount is negative: " + byteCount);
+        }
+        if (byteCount % (8 * packetSize) != 0) {
+            throw new IllegalArgumentException("byteCount must be a multiple of 8 * packetSize: " + byteCount);
+        }
+        if (shardLength < offset + byteCount) {
+            throw new IllegalArgumentException("buffers too small: " + (offset + byteCount));
+        }
+    }
+}
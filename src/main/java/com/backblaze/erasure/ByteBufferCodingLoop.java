@@ -0,0 +1,68 @@
+/**
+ * Interface for a method of looping over inputs held in ByteBuffers
+ * and encoding them.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The same operations as CodingLoop, on shards held in ByteBuffers
+ * instead of byte arrays.
+ *
+ * The buffers may be heap or direct buffers, and the data is read and
+ * written in place.  Each buffer's data starts at its own position, so
+ * the shards don't all need to start at the same index.  Byte offsets
+ * passed to these methods are relative to each buffer's position.  The
+ * position, limit, and byte order of the buffers are not changed.
+ */
+public interface ByteBufferCodingLoop {
+
+    /**
+     * Multiplies a subset of rows from a coding matrix by a full set of
+     * input shards to produce some output shards.
+     *
+     * @param matrixRows The rows from the matrix to use.
+     * @param inputs The input shards.  Extra buffers at the end are
+     *               ignored.
+     * @param inputCount The number of input buffers.
+     * @param outputs Buffers where the computed shards are stored.
+     * @param outputCount The number of outputs to compute.
+     * @param offset The index, relative to the position of each buffer,
+     *               of the first byte to process.
+     * @param byteCount The number of bytes to process.
+     */
+    void codeSomeShards(final byte [] [] matrixRows,
+                        final ByteBuffer [] inputs,
+                        final int inputCount,
+                        final ByteBuffer [] outputs,
+                        final int outputCount,
+                        final int offset,
+                        final int byteCount);
+
+    /**
+     * Multiplies a subset of rows from a coding matrix by a full set of
+     * input shards, and checks that the results match the shards in
+     * toCheck.
+     *
+     * @param matrixRows The rows from the matrix to use.
+     * @param inputs The input shards.  Extra buffers at the end are
+     *               ignored.
+     * @param inputCount The number of input buffers.
+     * @param toCheck Buffers holding the shards to check.
+     * @param checkCount The number of shards to check.
+     * @param offset The index, relative to the position of each buffer,
+     *               of the first byte to process.
+     * @param byteCount The number of bytes to process.
+     */
+    boolean checkSomeShards(final byte [] [] matrixRows,
+                            final ByteBuffer [] inputs,
+                            final int inputCount,
+                            final ByteBuffer [] toCheck,
+                            final int checkCount,
+                            final int offset,
+                            final int byteCount);
+}
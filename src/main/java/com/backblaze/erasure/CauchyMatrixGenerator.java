@@ -0,0 +1,149 @@
+/**
+ * Builds the encoding matrix from a Cauchy matrix.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+/**
+ * Builds the encoding matrix from a Cauchy matrix.
+ *
+ * The top square is the identity matrix, and the parity rows are a
+ * Cauchy matrix: the element in parity row r, column c is
+ * 1 / (x[r] + y[c]), where x[r] = dataShards + r and y[c] = c are all
+ * different.  Every square submatrix of a Cauchy matrix is invertible,
+ * so every square matrix made of rows from the result is invertible
+ * too.  Building it takes time proportional to the number of elements,
+ * instead of the cube of the number of data shards.
+ *
+ * Multiplying a parity row or a column of the parity rows by a non-zero
+ * constant keeps that property.  With minimizeXors, that's used to
+ * pick coefficients that are cheap for XOR-based coding: each column
+ * is divided by its element in the first parity row, which makes that
+ * row all ones, and each of the other parity rows is divided by
+ * whichever of its elements leaves the fewest ones in the bit matrices
+ * of the row.  This is the "good Cauchy" heuristic from Plank and Xu.
+ * It makes no difference to the table-based coding loops.
+ */
+public class CauchyMatrixGenerator implements MatrixGenerator {
+
+    private final boolean minimizeXors;
+
+    /**
+     * Uses a plain Cauchy matrix.
+     */
+    public CauchyMatrixGenerator() {
+        this(false);
+    }
+
+    /**
+     * Uses a Cauchy matrix, optionally scaled to minimize the number of
+     * XORs needed to multiply by its elements.
+     */
+    public CauchyMatrixGenerator(boolean minimizeXors) {
+        this.minimizeXors = minimizeXors;
+    }
+
+    /**
+     * Returns true if the coefficients are chosen to minimize XORs.
+     */
+    public boolean isMinimizeXors() {
+        return minimizeXors;
+    }
+
+    @Override
+    public Matrix buildMatrix(int dataShards, int totalShards) {
+        if (Galois.FIELD_SIZE < totalShards) {
+            throw new IllegalArgumentException("too many shards - max is " + Galois.FIELD_SIZE);
+        }
+        Matrix result = new Matrix(totalShards, dataShards);
+        for (int i = 0; i < dataShards; i++) {
+            result.set(i, i, (byte) 1);
+        }
+
+        // In GF(2^8), x[r] + y[c] is r XOR c, which is never zero
+        // because r is always at least dataShards, and c is less.
+        for (int r = dataShards; r < totalShards; r++) {
+            for (int c = 0; c < dataShards; c++) {
+                result.set(r, c, Galois.divide((byte) 1, (byte) (r ^ c)));
+            }
+        }
+
+        if (minimizeXors && dataShards < totalShards) {
+            minimizeXors(result, dataShards, totalShards);
+        }
+        return result;
+    }
+
+    /**
+     * Scales the columns and rows of the parity part of the matrix to
+     * reduce the number of ones in the bit matrices of its elements.
+     */
+    private static void minimizeXors(Matrix matrix, int dataShards, int totalShards) {
+        // Make the first parity row all ones.
+        for (int c = 0; c < dataShards; c++) {
+            byte scale = Galois.divide((byte) 1, matrix.get(dataShards, c));
+            for (int r = dataShards; r < totalShards; r++) {
+                matrix.set(r, c, Galois.multiply(matrix.get(r, c), scale));
+            }
+        }
+
+        // Divide each of the other rows by the element that leaves the
+        // lightest row.
+        for (int r = dataShards + 1; r < totalShards; r++) {
+            byte bestDivisor = 1;
+            int bestWeight = rowWeight(matrix, r, (byte) 1);
+            for (int c = 0; c < dataShards; c++) {
+                byte divisor = matrix.get(r, c);
+                int weight = rowWeight(matrix, r, divisor);
+                if (weight < bestWeight) {
+                    bestDivisor = divisor;
+                    bestWeight = weight;
+                }
+            }
+            if (bestDivisor != 1) {
+                for (int c = 0; c < dataShards; c++) {
+                    matrix.set(r, c, Galois.divide(matrix.get(r, c), bestDivisor));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the total bit matrix weight of a row after dividing it by
+     * a divisor.
+     */
+    private static int rowWeight(Matrix matrix, int r, byte divisor) {
+        int result = 0;
+        for (int c = 0; c < matrix.getColumns(); c++) {
+            result += bitMatrixWeight(Galois.divide(matrix.get(r, c), divisor));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the total bit matrix weight of the parity rows of an
+     * encoding matrix, which is the number of XORs, plus one per output
+     * bit, needed to encode with it bit by bit.
+     */
+    static int parityWeight(Matrix matrix, int dataShards) {
+        int result = 0;
+        for (int r = dataShards; r < matrix.getRows(); r++) {
+            result += rowWeight(matrix, r, (byte) 1);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of ones in the 8x8 bit matrix for multiplying
+     * by a: column k of the bit matrix is a times 2^k.
+     */
+    static int bitMatrixWeight(byte a) {
+        int result = 0;
+        for (int k = 0; k < 8; k++) {
+            result += Integer.bitCount(Galois.multiply(a, (byte) (1 << k)) & 0xFF);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,533 @@
+/**
+ * Clay codes: a repair-bandwidth-optimal layer over Reed-Solomon.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import java.util.Arrays;
+
+/**
+ * A Clay code: a minimum-storage regenerating (MSR) code built by
+ * coupling the layers of a scalar Reed-Solomon code, as described in
+ * "Clay Codes: Moulding MDS Codes to Yield an MSR Code" by Vajha et al.
+ *
+ * It stores the same amount as ReedSolomon with the same shard counts,
+ * and can rebuild any parityShardCount lost shards, but one lost shard
+ * is rebuilt from just 1 / parityShardCount of each of the other
+ * shards, instead of all of dataShardCount shards.  For 10 + 4 that's
+ * 3.25 shards' worth of reads instead of 10.
+ *
+ * Each shard is split into subPacketization sub-chunks, one for each
+ * layer, so the byte count coded must be a multiple of it.  Within a
+ * layer, the "uncoupled" sub-chunks of all of the shards are a
+ * codeword of ReedSolomon.  What's stored is a coupled version, where
+ * pairs of sub-chunks in different layers are mixed with a 2x2
+ * transform, so that the sub-chunks a repair needs come from a few
+ * layers of every shard.
+ *
+ * In the paper's terms, q = parityShardCount, and shards are nodes
+ * (x, y) in a q by t grid, with node y * q + x.  Layers are numbered
+ * by t digits base q.  If the number of shards isn't a multiple of q,
+ * the grid is filled with extra data shards that are always zero, and
+ * are never stored or read.
+ *
+ * Parity shards from a ClayCode are not the same as from ReedSolomon.
+ */
+public class ClayCode {
+
+    /**
+     * The largest sub-packetization allowed.  It grows as
+     * parityShardCount to the power of totalShardCount / parityShardCount.
+     */
+    public static final int MAX_SUB_PACKETIZATION = 1 << 16;
+
+    /**
+     * The coupling coefficient.  It must not be zero or one.
+     */
+    private static final byte GAMMA = 2;
+
+    private static final byte [] MULTIPLY_BY_GAMMA = Galois.MULTIPLICATION_TABLE[GAMMA];
+    private static final byte [] DIVIDE_BY_GAMMA = Galois.MULTIPLICATION_TABLE[Galois.divide((byte) 1, GAMMA) & 0xFF];
+    private static final byte ONE_PLUS_GAMMA_SQUARED = (byte) (1 ^ Galois.multiply(GAMMA, GAMMA));
+    private static final byte [] MULTIPLY_BY_ONE_PLUS_GAMMA_SQUARED = Galois.MULTIPLICATION_TABLE[ONE_PLUS_GAMMA_SQUARED & 0xFF];
+    private static final byte [] DIVIDE_BY_ONE_PLUS_GAMMA_SQUARED =
+            Galois.MULTIPLICATION_TABLE[Galois.divide((byte) 1, ONE_PLUS_GAMMA_SQUARED) & 0xFF];
+
+    private final int dataShardCount;
+    private final int parityShardCount;
+    private final int totalShardCount;
+
+    /**
+     * The number of always-zero data shards added to fill the grid.
+     */
+    private final int virtualShardCount;
+
+    /**
+     * The number of nodes in the grid: totalShardCount plus the
+     * virtual shards.
+     */
+    private final int nodeCount;
+
+    private final int subPacketization;
+
+    /**
+     * powers[i] is q to the i.
+     */
+    private final int [] powers;
+
+    /**
+     * The scalar code for each layer, over all of the nodes.
+     */
+    private final ReedSolomon scalarCode;
+
+    /**
+     * Makes a Clay code with the default coding loop.
+     */
+    public ClayCode(int dataShardCount, int parityShardCount) {
+        this(dataShardCount, parityShardCount, CodingLoops.DEFAULT_CODING_LOOP);
+    }
+
+    /**
+     * Makes a Clay code whose layers are coded with the given coding
+     * loop.
+     */
+    public ClayCode(int dataShardCount, int parityShardCount, CodingLoop codingLoop) {
+        if (dataShardCount <= 0 || parityShardCount <= 0) {
+            throw new IllegalArgumentException("bad shard counts: " + dataShardCount + "+" + parityShardCount);
+        }
+        this.dataShardCount = dataShardCount;
+        this.parityShardCount = parityShardCount;
+        this.totalShardCount = dataShardCount + parityShardCount;
+        this.virtualShardCount = (parityShardCount - totalShardCount % parityShardCount) % parityShardCount;
+        this.nodeCount = totalShardCount + virtualShardCount;
+
+        int columns = nodeCount / parityShardCount;
+        powers = new int [columns + 1];
+        powers[0] = 1;
+        for (int i = 1; i <= columns; i++) {
+            if (MAX_SUB_PACKETIZATION / parityShardCount < powers[i - 1]) {
+                throw new IllegalArgumentException("sub-packetization is too large for " +
+                        dataShardCount + "+" + parityShardCount);
+            }
+            powers[i] = powers[i - 1] * parityShardCount;
+        }
+        this.subPacketization = powers[columns];
+        this.scalarCode = new ReedSolomon(dataShardCount + virtualShardCount, parityShardCount, codingLoop);
+    }
+
+    /**
+     * Returns the number of data shards.
+     */
+    public int getDataShardCount() {
+        return dataShardCount;
+    }
+
+    /**
+     * Returns the number of parity shards.
+     */
+    public int getParityShardCount() {
+        return parityShardCount;
+    }
+
+    /**
+     * Returns the total number of shards.
+     */
+    public int getTotalShardCount() {
+        return totalShardCount;
+    }
+
+    /**
+     * Returns the number of sub-chunks each shard is split into.  Byte
+     * counts must be a multiple of this.
+     */
+    public int getSubPacketization() {
+        return subPacketization;
+    }
+
+    /**
+     * Encodes parity for a set of data shards.
+     *
+     * @param shards An array containing data shards followed by parity shards.
+     *               Each shard is a byte array, and they must all be the same
+     *               size.
+     * @param offset The index of the first byte in each shard to encode.
+     * @param byteCount The number of bytes to encode in each shard.  Must
+     *                  be a multiple of getSubPacketization().
+     */
+    public void encodeParity(byte [] [] shards, int offset, int byteCount) {
+        checkBuffersAndSizes(shards, offset, byteCount);
+        boolean [] shardPresent = new boolean [totalShardCount];
+        Arrays.fill(shardPresent, 0, dataShardCount, true);
+        decode(shards, shardPresent, offset, byteCount);
+    }
+
+    /**
+     * Given a list of shards, some of which contain data, fills in the
+     * ones that don't have data.
+     *
+     * Quickly does nothing if all of the shards are present.  Every
+     * byte of dataShardCount shards is needed; for one lost shard,
+     * repair needs much less.
+     */
+    public void decodeMissing(byte [] [] shards,
+                              boolean [] shardPresent,
+                              int offset,
+                              int byteCount) {
+        checkBuffersAndSizes(shards, offset, byteCount);
+        int missingCount = 0;
+        for (int i = 0; i < totalShardCount; i++) {
+            if (!shardPresent[i]) {
+                missingCount += 1;
+            }
+        }
+        if (missingCount == 0) {
+            return;
+        }
+        if (parityShardCount < missingCount) {
+            throw new IllegalArgumentException("Not enough shards present");
+        }
+        decode(shards, shardPresent, offset, byteCount);
+    }
+
+    /**
+     * Returns the shards that help rebuild a lost one: all of the
+     * others.
+     */
+    public int [] getRepairHelpers(int lostShard) {
+        checkShardIndex(lostShard);
+        int [] result = new int [totalShardCount - 1];
+        int next = 0;
+        for (int i = 0; i < totalShardCount; i++) {
+            if (i != lostShard) {
+                result[next++] = i;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the byte ranges that each helper has to send to rebuild
+     * a lost shard.  The ranges are the same for every helper, and add
+     * up to byteCount / parityShardCount bytes.
+     *
+     * @param lostShard The index of the shard being rebuilt.
+     * @param offset The index of the first byte coded in each shard.
+     * @param byteCount The number of bytes coded in each shard.
+     * @return An array of { start, length } pairs, in order.
+     */
+    public int [] [] getRepairRanges(int lostShard, int offset, int byteCount) {
+        checkShardIndex(lostShard);
+        checkByteCount(byteCount);
+        int node = node(lostShard);
+        int x0 = node % parityShardCount;
+        int y0 = node / parityShardCount;
+        int subChunkSize = byteCount / subPacketization;
+
+        // The layers needed are the ones whose digit y0 is x0.  Those
+        // come in runs of q^y0 layers.
+        int runLength = powers[y0] * subChunkSize;
+        int runCount = subPacketization / powers[y0 + 1];
+        int [] [] result = new int [runCount] [];
+        for (int r = 0; r < runCount; r++) {
+            int layer = r * powers[y0 + 1] + x0 * powers[y0];
+            result[r] = new int [] { offset + layer * subChunkSize, runLength };
+        }
+        return result;
+    }
+
+    /**
+     * Rebuilds one lost shard from the byte ranges of the helpers given
+     * by getRepairRanges.
+     *
+     * @param lostShard The index of the shard being rebuilt.
+     * @param helperData For each shard index, the bytes of that shard's
+     *                   repair ranges, one after the other.  Each is
+     *                   byteCount / parityShardCount bytes long.  The
+     *                   entry for the lost shard is ignored.
+     * @param output Where to put the rebuilt shard.
+     * @param offset The index of the first byte coded in each shard.
+     * @param byteCount The number of bytes coded in each shard.
+     */
+    public void repair(int lostShard, byte [] [] helperData, byte [] output, int offset, int byteCount) {
+        checkShardIndex(lostShard);
+        checkByteCount(byteCount);
+        if (helperData.length != totalShardCount) {
+            throw new IllegalArgumentException("wrong number of helpers: " + helperData.length);
+        }
+        if (offset < 0 || output.length < offset + byteCount) {
+            throw new IllegalArgumentException("output is too small: " + output.length);
+        }
+        final int subChunkSize = byteCount / subPacketization;
+        final int repairLayerCount = subPacketization / parityShardCount;
+        final int helperSize = repairLayerCount * subChunkSize;
+        for (int i = 0; i < totalShardCount; i++) {
+            if (i != lostShard && (helperData[i] == null || helperData[i].length < helperSize)) {
+                throw new IllegalArgumentException("helper " + i + " needs " + helperSize + " bytes");
+            }
+        }
+
+        final int lost = node(lostShard);
+        final int x0 = lost % parityShardCount;
+        final int y0 = lost / parityShardCount;
+
+        // The helpers' sub-chunks, indexed by node.  Layer z is at
+        // repairRank(z, y0) in each.
+        byte [] [] coupled = new byte [nodeCount] [];
+        for (int i = 0; i < totalShardCount; i++) {
+            coupled[node(i)] = helperData[i];
+        }
+        for (int v = 0; v < virtualShardCount; v++) {
+            coupled[dataShardCount + v] = new byte [helperSize];
+        }
+
+        // In each repair layer, the nodes in column y0 are unknown:
+        // the lost one, and the ones coupled with it in other layers.
+        byte [] [] uncoupled = new byte [nodeCount] [helperSize];
+        boolean [] present = new boolean [nodeCount];
+        for (int j = 0; j < nodeCount; j++) {
+            present[j] = (j / parityShardCount != y0);
+        }
+
+        for (int rank = 0; rank < repairLayerCount; rank++) {
+            int layer = (rank % powers[y0]) + x0 * powers[y0] + (rank / powers[y0]) * powers[y0 + 1];
+            int pos = rank * subChunkSize;
+
+            // The partners of nodes outside column y0 are in repair
+            // layers too, so both halves of each pair were sent.
+            for (int j = 0; j < nodeCount; j++) {
+                if (!present[j]) {
+                    continue;
+                }
+                int x = j % parityShardCount;
+                int y = j / parityShardCount;
+                int zy = digit(layer, y);
+                if (x == zy) {
+                    System.arraycopy(coupled[j], pos, uncoupled[j], pos, subChunkSize);
+                }
+                else {
+                    int partner = y * parityShardCount + zy;
+                    int partnerPos = repairRank(layer + (x - zy) * powers[y], y0) * subChunkSize;
+                    uncouple(coupled[j], pos, coupled[partner], partnerPos, uncoupled[j], pos, subChunkSize);
+                }
+            }
+            scalarCode.decodeMissing(uncoupled, present, pos, subChunkSize);
+
+            // The lost node isn't coupled in this layer.
+            System.arraycopy(uncoupled[lost], pos, output, offset + layer * subChunkSize, subChunkSize);
+
+            // Each other node in column y0 is coupled with the lost node
+            // in the layer with digit y0 set to its own x.
+            for (int x = 0; x < parityShardCount; x++) {
+                if (x == x0) {
+                    continue;
+                }
+                int helper = y0 * parityShardCount + x;
+                int otherLayer = layer + (x - x0) * powers[y0];
+                byte [] c = coupled[helper];
+                byte [] u = uncoupled[helper];
+                int outPos = offset + otherLayer * subChunkSize;
+                for (int b = 0; b < subChunkSize; b++) {
+                    byte lostUncoupled = DIVIDE_BY_GAMMA[(c[pos + b] ^ u[pos + b]) & 0xFF];
+                    output[outPos + b] = (byte) (lostUncoupled ^ MULTIPLY_BY_GAMMA[u[pos + b] & 0xFF]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fills in the shards that aren't present, of which there are at
+     * most parityShardCount.
+     *
+     * The decoding needs exactly parityShardCount erased nodes, so if
+     * fewer are missing, some present parity shards are treated as
+     * erased too, and decoded into scratch buffers.
+     */
+    private void decode(byte [] [] shards, boolean [] shardPresent, int offset, int byteCount) {
+        final int subChunkSize = byteCount / subPacketization;
+
+        byte [] [] coupled = new byte [nodeCount] [];
+        boolean [] erased = new boolean [nodeCount];
+        int erasedCount = 0;
+        for (int i = 0; i < totalShardCount; i++) {
+            coupled[node(i)] = shards[i];
+            if (!shardPresent[i]) {
+                erased[node(i)] = true;
+                erasedCount += 1;
+            }
+        }
+        for (int i = totalShardCount - 1; erasedCount < parityShardCount; i--) {
+            if (!erased[node(i)]) {
+                erased[node(i)] = true;
+                coupled[node(i)] = new byte [offset + byteCount];
+                erasedCount += 1;
+            }
+        }
+        for (int v = 0; v < virtualShardCount; v++) {
+            coupled[dataShardCount + v] = new byte [offset + byteCount];
+        }
+        boolean [] present = new boolean [nodeCount];
+        for (int j = 0; j < nodeCount; j++) {
+            present[j] = !erased[j];
+        }
+
+        // The score of a layer is the number of erased nodes that aren't
+        // coupled in it.  An erased node coupled with a present one in a
+        // layer is uncoupled in its partner's layer, which has a score
+        // one lower, so doing the layers in order of score means the
+        // uncoupled value is always known when it's needed.
+        int [] score = new int [subPacketization];
+        int maxScore = 0;
+        for (int z = 0; z < subPacketization; z++) {
+            for (int j = 0; j < nodeCount; j++) {
+                if (erased[j] && digit(z, j / parityShardCount) == j % parityShardCount) {
+                    score[z] += 1;
+                }
+            }
+            maxScore = Math.max(maxScore, score[z]);
+        }
+
+        byte [] [] uncoupled = new byte [nodeCount] [byteCount];
+        for (int s = 0; s <= maxScore; s++) {
+            for (int z = 0; z < subPacketization; z++) {
+                if (score[z] != s) {
+                    continue;
+                }
+                int pos = z * subChunkSize;
+                for (int j = 0; j < nodeCount; j++) {
+                    if (erased[j]) {
+                        continue;
+                    }
+                    int x = j % parityShardCount;
+                    int y = j / parityShardCount;
+                    int zy = digit(z, y);
+                    if (x == zy) {
+                        System.arraycopy(coupled[j], offset + pos, uncoupled[j], pos, subChunkSize);
+                        continue;
+                    }
+                    int partner = y * parityShardCount + zy;
+                    int partnerPos = (z + (x - zy) * powers[y]) * subChunkSize;
+                    if (!erased[partner]) {
+                        uncouple(coupled[j], offset + pos, coupled[partner], offset + partnerPos,
+                                uncoupled[j], pos, subChunkSize);
+                    }
+                    else {
+                        // C = U + gamma * U(partner), and U(partner) is
+                        // from a layer with a lower score.
+                        byte [] c = coupled[j];
+                        byte [] u = uncoupled[j];
+                        byte [] partnerU = uncoupled[partner];
+                        for (int b = 0; b < subChunkSize; b++) {
+                            u[pos + b] = (byte) (c[offset + pos + b] ^ MULTIPLY_BY_GAMMA[partnerU[partnerPos + b] & 0xFF]);
+                        }
+                    }
+                }
+                scalarCode.decodeMissing(uncoupled, present, pos, subChunkSize);
+            }
+        }
+
+        // Couple the erased nodes.
+        for (int j = 0; j < nodeCount; j++) {
+            if (!erased[j]) {
+                continue;
+            }
+            int x = j % parityShardCount;
+            int y = j / parityShardCount;
+            byte [] c = coupled[j];
+            byte [] u = uncoupled[j];
+            for (int z = 0; z < subPacketization; z++) {
+                int pos = z * subChunkSize;
+                int zy = digit(z, y);
+                if (x == zy) {
+                    System.arraycopy(u, pos, c, offset + pos, subChunkSize);
+                    continue;
+                }
+                int partner = y * parityShardCount + zy;
+                int partnerPos = (z + (x - zy) * powers[y]) * subChunkSize;
+                if (erased[partner]) {
+                    byte [] partnerU = uncoupled[partner];
+                    for (int b = 0; b < subChunkSize; b++) {
+                        c[offset + pos + b] = (byte) (u[pos + b] ^ MULTIPLY_BY_GAMMA[partnerU[partnerPos + b] & 0xFF]);
+                    }
+                }
+                else {
+                    // From C(partner) = gamma * U + U(partner).
+                    byte [] partnerC = coupled[partner];
+                    for (int b = 0; b < subChunkSize; b++) {
+                        c[offset + pos + b] = (byte) (MULTIPLY_BY_ONE_PLUS_GAMMA_SQUARED[u[pos + b] & 0xFF] ^
+                                MULTIPLY_BY_GAMMA[partnerC[offset + partnerPos + b] & 0xFF]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes uncoupled values from a coupled pair:
+     * U = (C + gamma * C(partner)) / (1 + gamma^2).
+     */
+    private static void uncouple(byte [] c, int cPos, byte [] partnerC, int partnerPos, byte [] u, int uPos, int count) {
+        for (int b = 0; b < count; b++) {
+            u[uPos + b] = DIVIDE_BY_ONE_PLUS_GAMMA_SQUARED[
+                    (c[cPos + b] ^ MULTIPLY_BY_GAMMA[partnerC[partnerPos + b] & 0xFF]) & 0xFF];
+        }
+    }
+
+    /**
+     * Returns digit y, base q, of a layer number.
+     */
+    private int digit(int layer, int y) {
+        return (layer / powers[y]) % parityShardCount;
+    }
+
+    /**
+     * Returns where a repair layer, whose digit y0 is fixed, comes in
+     * the data sent by each helper.
+     */
+    private int repairRank(int layer, int y0) {
+        return layer % powers[y0] + (layer / powers[y0 + 1]) * powers[y0];
+    }
+
+    /**
+     * Returns the node for a shard.  The virtual shards go between the
+     * data shards and the parity shards.
+     */
+    private int node(int shardIndex) {
+        return (shardIndex < dataShardCount) ? shardIndex : shardIndex + virtualShardCount;
+    }
+
+    private void checkShardIndex(int shardIndex) {
+        if (shardIndex < 0 || totalShardCount <= shardIndex) {
+            throw new IllegalArgumentException("bad shard index: " + shardIndex);
+        }
+    }
+
+    private void checkByteCount(int byteCount) {
+        if (byteCount < 0 || byteCount % subPacketization != 0) {
+            throw new IllegalArgumentException("byteCount must be a multiple of " + subPacketization + ": " + byteCount);
+        }
+    }
+
+    /**
+     * Checks the consistency of arguments passed to public methods.
+     */
+    private void checkBuffersAndSizes(byte [] [] shards, int offset, int byteCount) {
+        if (shards.length != totalShardCount) {
+            throw new IllegalArgumentException("wrong number of shards: " + shards.length);
+        }
+        int shardLength = shards[0].length;
+        for (int i = 1; i < shards.length; i++) {
+            if (shards[i].length != shardLength) {
+                throw new IllegalArgumentException("Shards are different sizes");
+            }
+        }
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset is negative: " + offset);
+        }
+        checkByteCount(byteCount);
+        if (shardLength < offset + byteCount) {
+            throw new IllegalArgumentException("buffers too small: " + (offset + byteCount));
+        }
+    }
+}
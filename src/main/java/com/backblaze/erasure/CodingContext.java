@@ -0,0 +1,130 @@
+/**
+ * Reusable scratch space for coding with a ReedSolomon codec.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Encodes, checks, and decodes byte array shards with a ReedSolomon
+ * codec, without allocating any memory.
+ *
+ * The methods on ReedSolomon build small arrays of shard references
+ * on every call, and decoding builds a key for the decode matrix cache.
+ * That's fine for big shards, but with many small stripes per second
+ * it adds up to a lot of garbage.  A CodingContext holds those arrays
+ * and reuses them, so once the decode rows for each set of missing
+ * shards are in the cache, encoding, checking, and decoding allocate
+ * nothing, as long as the coding loop doesn't.  The table-based loops
+ * and the SWAR loops don't.
+ *
+ * A CodingContext is not thread safe.  Make one for each thread, with
+ * ReedSolomon.newCodingContext().  The codec itself can be shared.
+ */
+public class CodingContext {
+
+    private final ReedSolomon codec;
+
+    private final byte [] [] inputs;
+    private final byte [] [] outputs;
+    private final byte [] [] matrixRows;
+    private final boolean [] shardWanted;
+    private final BitSet key;
+    private byte [] tempBuffer;
+
+    CodingContext(ReedSolomon codec) {
+        this.codec = codec;
+        this.inputs = new byte [codec.getDataShardCount()] [];
+        this.outputs = new byte [codec.getParityShardCount()] [];
+        this.matrixRows = new byte [codec.getParityShardCount()] [];
+        this.shardWanted = new boolean [codec.getTotalShardCount()];
+        this.key = new BitSet(codec.getTotalShardCount());
+        this.tempBuffer = new byte [0];
+    }
+
+    /**
+     * Returns the codec this context is for.
+     */
+    public ReedSolomon getCodec() {
+        return codec;
+    }
+
+    /**
+     * Encodes parity for a set of data shards.
+     *
+     * @see ReedSolomon#encodeParity(byte[][], int, int)
+     */
+    public void encodeParity(byte [] [] shards, int offset, int byteCount) {
+        try {
+            codec.encodeParity(shards, offset, byteCount, outputs);
+        }
+        finally {
+            clear();
+        }
+    }
+
+    /**
+     * Returns true if the parity shards contain the right data.
+     *
+     * The temporary buffer is kept in the context, and grows to the
+     * size of the biggest shard checked.
+     *
+     * @see ReedSolomon#isParityCorrect(byte[][], int, int, byte[])
+     */
+    public boolean isParityCorrect(byte [] [] shards, int firstByte, int byteCount) {
+        if (tempBuffer.length < firstByte + byteCount) {
+            tempBuffer = new byte [firstByte + byteCount];
+        }
+        try {
+            return codec.isParityCorrect(shards, firstByte, byteCount, tempBuffer, outputs);
+        }
+        finally {
+            clear();
+        }
+    }
+
+    /**
+     * Given a list of shards, some of which contain data, fills in the
+     * ones that don't have data.
+     *
+     * @see ReedSolomon#decodeMissing(byte[][], boolean[], int, int)
+     */
+    public void decodeMissing(byte [] [] shards, boolean [] shardPresent, int offset, int byteCount) {
+        try {
+            codec.decodeMissing(shards, shardPresent, offset, byteCount, inputs, outputs, key);
+        }
+        finally {
+            clear();
+        }
+    }
+
+    /**
+     * Rebuilds just the requested shards, instead of all of the missing
+     * ones.
+     *
+     * @see ReedSolomon#decodeShards(byte[][], boolean[], int[], int, int)
+     */
+    public void decodeShards(byte [] [] shards, boolean [] shardPresent, int [] wanted, int offset, int byteCount) {
+        try {
+            codec.decodeShards(shards, shardPresent, wanted, offset, byteCount,
+                    inputs, outputs, matrixRows, shardWanted, key);
+        }
+        finally {
+            clear();
+        }
+    }
+
+    /**
+     * Drops the references to the caller's shards, so the context
+     * doesn't keep them from being collected.
+     */
+    private void clear() {
+        Arrays.fill(inputs, null);
+        Arrays.fill(outputs, null);
+        Arrays.fill(matrixRows, null);
+    }
+}
@@ -33,6 +33,12 @@ public interface CodingLoop {
      *
      *    "exp"    - Use the logarithm/exponent table.
      *
+     *    "swar"   - Multiply eight bytes at once, packed in a long.  The
+     *               inner loop for these is "long" instead of "byte".
+     *
+     * VectorCodingLoop is added at the end when the Vector API is
+     * available.  See CodingLoops.
+     *
      * The ReedSolomonBenchmark class compares the performance of the different
      * loops, which will depend on the specific processor you're running on.
      *
@@ -48,7 +54,7 @@ public interface CodingLoop {
     // 循环顺序: 名字中的 Byte、Input、Output 的排列顺序代表了三层嵌套循环的先后顺序。例如 ByteInputOutput... 表示最外层是字节循环。
     // Exp: 使用对数/指数表（log/exponent tables）来计算乘法。
     // Table: 使用预计算的乘法表（multiplication table）来计算。
-    CodingLoop[] ALL_CODING_LOOPS =
+    CodingLoop[] ALL_CODING_LOOPS = CodingLoops.withOptionalLoops(
             new CodingLoop[] {
                     new ByteInputOutputExpCodingLoop(),
                     new ByteInputOutputTableCodingLoop(),
@@ -62,7 +68,8 @@ public interface CodingLoop {
                     new OutputByteInputTableCodingLoop(),
                     new OutputInputByteExpCodingLoop(),
                     new OutputInputByteTableCodingLoop(),
-            };
+                    new InputOutputLongSwarCodingLoop(),
+            });
 
     /**
      * Multiplies a subset of rows from a coding matrix by a full set of
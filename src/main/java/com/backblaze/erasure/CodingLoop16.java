@@ -0,0 +1,74 @@
+/**
+ * Interface for a method of looping over inputs and encoding them,
+ * with 16-bit symbols.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+/**
+ * The same operations as CodingLoop, for ReedSolomon16.
+ *
+ * Shards are byte arrays holding 16-bit symbols, high byte first, so
+ * offsets and byte counts are always even.  Instead of matrix rows, the
+ * loops are given a split multiplication table (see Galois16.splitTable)
+ * for each element of the matrix: tables[iOutput][iInput] multiplies by
+ * the element in row iOutput, column iInput.
+ */
+public interface CodingLoop16 {
+
+    /**
+     * Multiplies a subset of rows from a coding matrix by a full set of
+     * input shards to produce some output shards.
+     *
+     * @param tables The split tables for the rows of the matrix to use.
+     * @param inputs An array of byte arrays, each of which is one input shard.
+     *               The inputs array may have extra buffers after the ones
+     *               that are used.  They will be ignored.  The number of
+     *               inputs used is determined by the length of the
+     *               table rows.
+     * @param inputCount The number of input byte arrays.
+     * @param outputs Byte arrays where the computed shards are stored.  The
+     *                outputs array may also have extra, unused, elements
+     *                at the end.  The number of outputs computed, and the
+     *                number of table rows used, is determined by
+     *                outputCount.
+     * @param outputCount The number of outputs to compute.
+     * @param offset The index in the inputs and output of the first byte
+     *               to process.  Must be even.
+     * @param byteCount The number of bytes to process.  Must be even.
+     */
+    void codeSomeShards(final char [] [] [] tables,
+                        final byte [] [] inputs,
+                        final int inputCount,
+                        final byte [] [] outputs,
+                        final int outputCount,
+                        final int offset,
+                        final int byteCount);
+
+    /**
+     * Multiplies a subset of rows from a coding matrix by a full set of
+     * input shards to produce some output shards, and checks that the
+     * data in those shards matches what's expected.
+     *
+     * @param tables The split tables for the rows of the matrix to use.
+     * @param inputs An array of byte arrays, each of which is one input shard.
+     * @param inputCount The number of input byte arrays.
+     * @param toCheck Byte arrays where the computed shards are stored.
+     * @param checkCount The number of outputs to compute.
+     * @param offset The index in the inputs and output of the first byte
+     *               to process.  Must be even.
+     * @param byteCount The number of bytes to process.  Must be even.
+     * @param tempBuffer A place to store temporary results.  Must be at
+     *                   least offset + byteCount bytes long.
+     */
+    boolean checkSomeShards(final char [] [] [] tables,
+                            final byte [] [] inputs,
+                            final int inputCount,
+                            final byte [] [] toCheck,
+                            final int checkCount,
+                            final int offset,
+                            final int byteCount,
+                            final byte [] tempBuffer);
+}
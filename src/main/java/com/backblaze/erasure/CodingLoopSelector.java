@@ -0,0 +1,238 @@
+/**
+ * Picks the fastest coding loop for a shard layout.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Picks the fastest coding loop for a shard layout, by timing each of
+ * the candidate loops on this machine.
+ *
+ * Which loop is fastest depends on the processor, the number of data
+ * and parity shards, and the shard size.  The first time a layout is
+ * asked for, each candidate encodes a set of random shards of that
+ * layout for a short while, and the one with the best time wins.  The
+ * winner is remembered for the (data, parity, size class), where the
+ * size class is the shard size rounded up to a power of two.
+ *
+ * If a file is given, the choices are loaded from it when the selector
+ * is made, and saved to it after each calibration, so that a restarted
+ * process doesn't have to calibrate again.  The file is a properties
+ * file mapping "data,parity,sizeClass" to the simple class name of the
+ * loop.
+ *
+ * This class is thread safe.  Calibration happens while holding the
+ * lock, so two threads never calibrate at the same time.
+ */
+public class CodingLoopSelector {
+
+    /**
+     * Calibration never uses shards bigger than this.  The relative
+     * speed of the loops doesn't change much above this size, and the
+     * calibration should be quick.
+     */
+    private static final int MAX_CALIBRATION_SHARD_SIZE = 256 * 1024;
+
+    /**
+     * How long to run each candidate before timing it, so that it gets
+     * compiled.
+     */
+    private static final long WARM_UP_NANOS = 20L * 1000 * 1000;
+
+    /**
+     * The number of timed runs of each candidate.  The fastest run is
+     * used, because that's the one least disturbed by everything else
+     * going on in the machine.
+     */
+    private static final int TIMED_RUN_COUNT = 5;
+
+    private final CodingLoop [] candidates;
+    private final File file;
+    private final Map<String, CodingLoop> choices = new HashMap<String, CodingLoop>();
+
+    /**
+     * Chooses from CodingLoop.ALL_CODING_LOOPS, and doesn't save the
+     * choices.
+     */
+    public CodingLoopSelector() {
+        this(CodingLoop.ALL_CODING_LOOPS);
+    }
+
+    /**
+     * Chooses from the given loops, and doesn't save the choices.
+     */
+    public CodingLoopSelector(CodingLoop [] candidates) {
+        this.candidates = checkCandidates(candidates);
+        this.file = null;
+    }
+
+    /**
+     * Chooses from the given loops, and saves the choices in a file.
+     * Choices already in the file are loaded now.  Choices that name a
+     * loop that isn't one of the candidates are ignored.
+     *
+     * @param candidates The loops to choose from.
+     * @param file The file that holds the choices.  It doesn't have to
+     *             exist yet.
+     */
+    public CodingLoopSelector(CodingLoop [] candidates, File file) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("file is null");
+        }
+        this.candidates = checkCandidates(candidates);
+        this.file = file;
+        if (file.exists()) {
+            load();
+        }
+    }
+
+    /**
+     * Returns the fastest of the candidate loops for the given layout,
+     * calibrating if this layout and size class haven't been seen
+     * before.
+     */
+    public synchronized CodingLoop getCodingLoop(int dataShardCount, int parityShardCount, int shardSize) {
+        if (dataShardCount <= 0 || parityShardCount <= 0) {
+            throw new IllegalArgumentException("shard counts must be positive");
+        }
+        if (shardSize <= 0) {
+            throw new IllegalArgumentException("shardSize is not positive: " + shardSize);
+        }
+        final String key = makeKey(dataShardCount, parityShardCount, sizeClass(shardSize));
+        CodingLoop result = choices.get(key);
+        if (result == null) {
+            result = calibrate(dataShardCount, parityShardCount, shardSize);
+            choices.put(key, result);
+            if (file != null) {
+                try {
+                    save();
+                }
+                catch (IOException e) {
+                    // The choice is still good for this process; it
+                    // will just be calibrated again after a restart.
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Makes a ReedSolomon codec that uses the fastest loop for the
+     * given layout.
+     */
+    public ReedSolomon createCodec(int dataShardCount, int parityShardCount, int shardSize) {
+        return new ReedSolomon(dataShardCount, parityShardCount,
+                getCodingLoop(dataShardCount, parityShardCount, shardSize));
+    }
+
+    /**
+     * Returns the size class for a shard size: the size rounded up to a
+     * power of two.
+     */
+    static int sizeClass(int shardSize) {
+        if (shardSize <= 1) {
+            return 1;
+        }
+        int highBit = Integer.highestOneBit(shardSize - 1);
+        return (highBit == (1 << 30)) ? Integer.MAX_VALUE : highBit << 1;
+    }
+
+    /**
+     * Times each of the candidates encoding random shards, and returns
+     * the fastest.
+     */
+    private CodingLoop calibrate(int dataShardCount, int parityShardCount, int shardSize) {
+        final int size = Math.min(shardSize, MAX_CALIBRATION_SHARD_SIZE);
+        final byte [] [] shards = new byte [dataShardCount + parityShardCount] [size];
+        final Random random = new Random(0);
+        for (int i = 0; i < dataShardCount; i++) {
+            random.nextBytes(shards[i]);
+        }
+
+        CodingLoop best = null;
+        long bestNanos = Long.MAX_VALUE;
+        for (CodingLoop candidate : candidates) {
+            ReedSolomon codec = new ReedSolomon(dataShardCount, parityShardCount, candidate);
+            long warmUpEnd = System.nanoTime() + WARM_UP_NANOS;
+            do {
+                codec.encodeParity(shards, 0, size);
+            } while (System.nanoTime() < warmUpEnd);
+
+            long fastest = Long.MAX_VALUE;
+            for (int iRun = 0; iRun < TIMED_RUN_COUNT; iRun++) {
+                long start = System.nanoTime();
+                codec.encodeParity(shards, 0, size);
+                fastest = Math.min(fastest, System.nanoTime() - start);
+            }
+            if (fastest < bestNanos) {
+                best = candidate;
+                bestNanos = fastest;
+            }
+        }
+        return best;
+    }
+
+    private void load() throws IOException {
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        }
+        finally {
+            in.close();
+        }
+        for (String key : properties.stringPropertyNames()) {
+            CodingLoop loop = findCandidate(properties.getProperty(key));
+            if (loop != null) {
+                choices.put(key, loop);
+            }
+        }
+    }
+
+    private void save() throws IOException {
+        Properties properties = new Properties();
+        for (Map.Entry<String, CodingLoop> entry : choices.entrySet()) {
+            properties.setProperty(entry.getKey(), entry.getValue().getClass().getSimpleName());
+        }
+        OutputStream out = new FileOutputStream(file);
+        try {
+            properties.store(out, "Fastest coding loop for data,parity,sizeClass");
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private CodingLoop findCandidate(String name) {
+        for (CodingLoop candidate : candidates) {
+            if (candidate.getClass().getSimpleName().equals(name)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private static String makeKey(int dataShardCount, int parityShardCount, int sizeClass) {
+        return dataShardCount + "," + parityShardCount + "," + sizeClass;
+    }
+
+    private static CodingLoop [] checkCandidates(CodingLoop [] candidates) {
+        if (candidates == null || candidates.length == 0) {
+            throw new IllegalArgumentException("no candidate coding loops");
+        }
+        return candidates.clone();
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * Coding loops that depend on optional parts of the JDK.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+/**
+ * Coding loops that depend on optional parts of the JDK.
+ *
+ * VectorCodingLoop needs the jdk.incubator.vector module, which must be
+ * added with "--add-modules jdk.incubator.vector" when compiling and
+ * when running.  It is loaded by name here, so that the rest of the
+ * library still works when the module is missing.
+ */
+public final class CodingLoops {
+
+    /**
+     * An instance of VectorCodingLoop, or null if the Vector API is
+     * not available in this JVM.
+     */
+    public static final CodingLoop VECTOR_CODING_LOOP =
+            loadCodingLoop("com.backblaze.erasure.VectorCodingLoop");
+
+    /**
+     * The coding loop used by ReedSolomon.create(): VectorCodingLoop
+     * when it's available, and InputOutputByteTableCodingLoop when
+     * it's not.
+     */
+    public static final CodingLoop DEFAULT_CODING_LOOP =
+            (VECTOR_CODING_LOOP != null) ? VECTOR_CODING_LOOP : new InputOutputByteTableCodingLoop();
+
+    private CodingLoops() {
+    }
+
+    /**
+     * Returns the given loops, followed by any of the optional loops
+     * that are available.
+     */
+    static CodingLoop [] withOptionalLoops(CodingLoop [] loops) {
+        if (VECTOR_CODING_LOOP == null) {
+            return loops;
+        }
+        CodingLoop [] result = new CodingLoop [loops.length + 1];
+        System.arraycopy(loops, 0, result, 0, loops.length);
+        result[loops.length] = VECTOR_CODING_LOOP;
+        return result;
+    }
+
+    /**
+     * Creates an instance of the named coding loop class, or returns
+     * null if the class, or something it needs, can't be loaded.
+     */
+    private static CodingLoop loadCodingLoop(String className) {
+        try {
+            return (CodingLoop) Class.forName(className).getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException e) {
+            return null;
+        }
+        catch (LinkageError e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * Cache of decoding matrices.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of the matrix rows used to rebuild missing data
+ * shards, keyed by which shards are present.
+ *
+ * Building those rows means inverting a matrix, which is slow
+ * compared to coding a small stripe.  When a disk fails, every stripe
+ * after that has the same shards missing, so the same rows are needed
+ * over and over.
+ *
+ * When the cache is full, the entry used least recently is dropped.
+ * All methods are synchronized, so one cache can be shared by threads
+ * using the same ReedSolomon.  ReedSolomon16 uses the same cache for
+ * the multiplication tables of its decoding rows.  The rows handed out are shared, and
+ * must not be modified.
+ */
+public class DecodeMatrixCache {
+
+    /**
+     * The default maximum number of entries.
+     */
+    public static final int DEFAULT_MAX_SIZE = 64;
+
+    private final int maxSize;
+
+    /**
+     * The values are byte [] [] rows for ReedSolomon, and char [] [] []
+     * multiplication tables for ReedSolomon16.
+     */
+    private final LinkedHashMap<BitSet, Object> entries;
+
+    private long hitCount = 0;
+
+    private long missCount = 0;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param maxSize The most entries to keep.  Zero means that
+     *                nothing is ever cached.
+     */
+    public DecodeMatrixCache(final int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize is negative: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<BitSet, Object>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<BitSet, Object> eldest) {
+                return maxSize < size();
+            }
+        };
+    }
+
+    /**
+     * Returns the decoding rows for a set of present shards, or null
+     * if they are not in the cache.
+     */
+    public byte [] [] get(BitSet shardPresent) {
+        return (byte [] []) getEntry(shardPresent);
+    }
+
+    /**
+     * Adds the decoding rows for a set of present shards.  The caller
+     * must not change either argument afterwards.
+     */
+    public void put(BitSet shardPresent, byte [] [] decodeRows) {
+        putEntry(shardPresent, decodeRows);
+    }
+
+    /**
+     * Returns whatever was cached for a set of present shards, or null.
+     */
+    synchronized Object getEntry(BitSet shardPresent) {
+        Object result = entries.get(shardPresent);
+        if (result == null) {
+            missCount += 1;
+        }
+        else {
+            hitCount += 1;
+        }
+        return result;
+    }
+
+    /**
+     * Caches anything for a set of present shards.  The caller must not
+     * change either argument afterwards.
+     */
+    synchronized void putEntry(BitSet shardPresent, Object value) {
+        if (0 < maxSize) {
+            entries.put(shardPresent, value);
+        }
+    }
+
+    /**
+     * Removes all entries.  The hit and miss counts are not reset.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Returns the number of entries in the cache.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the most entries the cache will hold.
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of calls to get() that found an entry.
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of calls to get() that didn't find an entry.
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+}
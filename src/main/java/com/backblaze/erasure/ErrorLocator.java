@@ -0,0 +1,323 @@
+/**
+ * Finds corrupt symbols from the syndromes of a byte column.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import java.util.Arrays;
+
+/**
+ * Finds which shards are wrong in one byte column, from the syndromes
+ * of the column, by algebraic decoding: Berlekamp-Massey to find the
+ * error locator polynomial, a Chien search over the shard positions to
+ * find its roots, and Forney's formula for the error values.  Each
+ * column takes time proportional to parityShardCount squared plus
+ * totalShardCount times the number of errors.
+ *
+ * That needs the code in generalized Reed-Solomon (GRS) form.  The
+ * parity check matrix of the code is H = [P | I], where P is the parity
+ * rows of the encoding matrix, and the syndrome of a column is H times
+ * the column.  Both VandermondeMatrixGenerator and CauchyMatrixGenerator
+ * build GRS codes whose evaluation point for shard j is the field
+ * element j.  For those, P[i][j] * (j + (dataShardCount + i)) is
+ * g[j] * h[i] for some non-zero g and h, which give the column
+ * multipliers u of the dual code, so that M * H has u[j] * x[j]^i in
+ * row i, column j, for an invertible matrix M.  Multiplying the
+ * syndrome by M gives the usual syndromes S[i] = sum of e[j] * u[j] *
+ * x[j]^i that the decoder works on.
+ *
+ * The evaluation points are moved by adding a constant, which keeps the
+ * code the same, so that none of them is zero.  That leaves no room for
+ * 256 shards, so those, and matrices not in this form, aren't handled;
+ * create() returns null for them.
+ *
+ * Not thread safe; it keeps scratch space.
+ */
+class ErrorLocator {
+
+    private final int totalShardCount;
+    private final int parityShardCount;
+    private final int maxErrors;
+
+    /**
+     * The evaluation point of each shard, none of them zero, and their
+     * inverses.
+     */
+    private final byte [] points;
+    private final byte [] inversePoints;
+
+    /**
+     * One over the column multiplier of each shard in the dual code,
+     * to turn the error values the decoder finds back into bytes to
+     * XOR into the shards.
+     */
+    private final byte [] inverseMultipliers;
+
+    /**
+     * Turns the syndrome from the parity shards into the GRS syndromes.
+     */
+    private final byte [] [] syndromeMatrix;
+
+    // Scratch space for decoding.
+    private final byte [] syndromes;
+    private final byte [] locator;
+    private final byte [] previous;
+    private final byte [] temp;
+    private final byte [] evaluator;
+
+    private ErrorLocator(int totalShardCount,
+                         int parityShardCount,
+                         byte [] points,
+                         byte [] multipliers) {
+        this.totalShardCount = totalShardCount;
+        this.parityShardCount = parityShardCount;
+        this.maxErrors = parityShardCount / 2;
+        this.points = points;
+        this.inversePoints = new byte [totalShardCount];
+        this.inverseMultipliers = new byte [totalShardCount];
+        for (int j = 0; j < totalShardCount; j++) {
+            inversePoints[j] = Galois.divide((byte) 1, points[j]);
+            inverseMultipliers[j] = Galois.divide((byte) 1, multipliers[j]);
+        }
+
+        // M has u[k + c] * x[k + c]^r in row r, column c, where k is
+        // the number of data shards.
+        int dataShardCount = totalShardCount - parityShardCount;
+        syndromeMatrix = new byte [parityShardCount] [parityShardCount];
+        for (int c = 0; c < parityShardCount; c++) {
+            byte value = multipliers[dataShardCount + c];
+            for (int r = 0; r < parityShardCount; r++) {
+                syndromeMatrix[r][c] = value;
+                value = Galois.multiply(value, points[dataShardCount + c]);
+            }
+        }
+
+        syndromes = new byte [parityShardCount];
+        locator = new byte [parityShardCount + 1];
+        previous = new byte [parityShardCount + 1];
+        temp = new byte [parityShardCount + 1];
+        evaluator = new byte [parityShardCount];
+    }
+
+    /**
+     * Makes a locator for a code with the given parity rows, or returns
+     * null if the code isn't in the GRS form described above.
+     */
+    static ErrorLocator create(byte [] [] parityRows, int dataShardCount, int parityShardCount) {
+        final int totalShardCount = dataShardCount + parityShardCount;
+        if (Galois.FIELD_SIZE <= totalShardCount) {
+            return null;
+        }
+
+        // The multipliers only depend on differences between points,
+        // so they can be worked out with x[j] = j.  Then moving the
+        // points by totalShardCount keeps them all non-zero.
+        byte [] points = new byte [totalShardCount];
+        for (int j = 0; j < totalShardCount; j++) {
+            points[j] = (byte) (j ^ totalShardCount);
+        }
+
+        // dualDenominator[i] is the product of (x[k + i] - x[k + i'])
+        // over the other parity shards i', and dataNumerator[j] is the
+        // product of (x[j] - x[k + i']) over all of the parity shards.
+        byte [] dualDenominator = new byte [parityShardCount];
+        for (int i = 0; i < parityShardCount; i++) {
+            byte product = 1;
+            for (int other = 0; other < parityShardCount; other++) {
+                if (other != i) {
+                    product = Galois.multiply(product, (byte) ((dataShardCount + i) ^ (dataShardCount + other)));
+                }
+            }
+            dualDenominator[i] = product;
+        }
+        byte [] dataNumerator = new byte [dataShardCount];
+        for (int j = 0; j < dataShardCount; j++) {
+            byte product = 1;
+            for (int i = 0; i < parityShardCount; i++) {
+                product = Galois.multiply(product, (byte) (j ^ (dataShardCount + i)));
+            }
+            dataNumerator[j] = product;
+        }
+
+        // P[i][j] * (x[j] - x[k + i]) must be g[j] * h[i], where
+        // g[j] = u[j] * dataNumerator[j] and
+        // h[i] = 1 / (u[k + i] * dualDenominator[i]).  The multipliers
+        // are only fixed up to a constant, so take u[k] = 1.
+        byte [] [] scaled = new byte [parityShardCount] [dataShardCount];
+        for (int i = 0; i < parityShardCount; i++) {
+            for (int j = 0; j < dataShardCount; j++) {
+                scaled[i][j] = Galois.multiply(parityRows[i][j], (byte) (j ^ (dataShardCount + i)));
+                if (scaled[i][j] == 0) {
+                    return null;
+                }
+            }
+        }
+        byte [] g = new byte [dataShardCount];
+        byte [] h = new byte [parityShardCount];
+        h[0] = Galois.divide((byte) 1, dualDenominator[0]);
+        for (int j = 0; j < dataShardCount; j++) {
+            g[j] = Galois.divide(scaled[0][j], h[0]);
+        }
+        for (int i = 1; i < parityShardCount; i++) {
+            h[i] = Galois.divide(scaled[i][0], g[0]);
+        }
+        for (int i = 0; i < parityShardCount; i++) {
+            for (int j = 0; j < dataShardCount; j++) {
+                if (scaled[i][j] != Galois.multiply(g[j], h[i])) {
+                    return null;
+                }
+            }
+        }
+
+        byte [] multipliers = new byte [totalShardCount];
+        for (int j = 0; j < dataShardCount; j++) {
+            multipliers[j] = Galois.divide(g[j], dataNumerator[j]);
+        }
+        for (int i = 0; i < parityShardCount; i++) {
+            multipliers[dataShardCount + i] = Galois.divide((byte) 1, Galois.multiply(h[i], dualDenominator[i]));
+        }
+        return new ErrorLocator(totalShardCount, parityShardCount, points, multipliers);
+    }
+
+    /**
+     * Returns the most errors that can be found in one column.
+     */
+    int getMaxErrors() {
+        return maxErrors;
+    }
+
+    /**
+     * Finds the shards that are wrong in a column with the given
+     * syndrome, which must not be all zero.
+     *
+     * @param syndrome One value for each parity shard: the parity
+     *                 computed from the data, minus the parity stored.
+     * @param positions Filled in with the indices of the bad shards,
+     *                  in order.
+     * @param errors Filled in with the value to XOR into each bad
+     *               shard to correct it.
+     * @return The number of bad shards, or -1 if no set of up to
+     *         getMaxErrors() shards explains the syndrome.
+     */
+    int locate(byte [] syndrome, int [] positions, byte [] errors) {
+        // The GRS syndromes.
+        for (int r = 0; r < parityShardCount; r++) {
+            byte [] row = syndromeMatrix[r];
+            byte value = 0;
+            for (int c = 0; c < parityShardCount; c++) {
+                value ^= Galois.multiply(row[c], syndrome[c]);
+            }
+            syndromes[r] = value;
+        }
+
+        int errorCount = berlekampMassey();
+        if (errorCount == 0 || maxErrors < errorCount) {
+            return -1;
+        }
+
+        // Chien search, over just the positions that are shards.
+        int found = 0;
+        for (int j = 0; j < totalShardCount && found <= errorCount; j++) {
+            if (evaluate(locator, errorCount, inversePoints[j]) == 0) {
+                if (found < errorCount) {
+                    positions[found] = j;
+                }
+                found += 1;
+            }
+        }
+        if (found != errorCount) {
+            return -1;
+        }
+
+        // Forney: the error evaluator is S(x) * L(x) mod x^p, and the
+        // error at X is X * evaluator(1/X) / L'(1/X).
+        for (int i = 0; i < parityShardCount; i++) {
+            byte value = 0;
+            for (int m = 0; m <= Math.min(i, errorCount); m++) {
+                value ^= Galois.multiply(locator[m], syndromes[i - m]);
+            }
+            evaluator[i] = value;
+        }
+        for (int e = 0; e < errorCount; e++) {
+            int j = positions[e];
+            byte x = inversePoints[j];
+            byte derivative = 0;
+            byte xPower = 1;
+            for (int m = 1; m <= errorCount; m += 2) {
+                derivative ^= Galois.multiply(locator[m], xPower);
+                xPower = Galois.multiply(xPower, Galois.multiply(x, x));
+            }
+            if (derivative == 0) {
+                return -1;
+            }
+            byte value = Galois.multiply(points[j], evaluate(evaluator, parityShardCount - 1, x));
+            errors[e] = Galois.multiply(Galois.divide(value, derivative), inverseMultipliers[j]);
+            if (errors[e] == 0) {
+                return -1;
+            }
+        }
+        return errorCount;
+    }
+
+    /**
+     * Finds the shortest error locator polynomial that generates the
+     * syndromes.  Leaves it in locator, and returns its degree.
+     */
+    private int berlekampMassey() {
+        Arrays.fill(locator, (byte) 0);
+        Arrays.fill(previous, (byte) 0);
+        locator[0] = 1;
+        previous[0] = 1;
+        int length = 0;
+        int shift = 1;
+        byte previousDiscrepancy = 1;
+
+        for (int n = 0; n < parityShardCount; n++) {
+            byte discrepancy = syndromes[n];
+            for (int i = 1; i <= length; i++) {
+                discrepancy ^= Galois.multiply(locator[i], syndromes[n - i]);
+            }
+            if (discrepancy == 0) {
+                shift += 1;
+                continue;
+            }
+            byte scale = Galois.divide(discrepancy, previousDiscrepancy);
+            if (2 * length <= n) {
+                System.arraycopy(locator, 0, temp, 0, locator.length);
+                subtractShifted(scale, shift);
+                length = n + 1 - length;
+                System.arraycopy(temp, 0, previous, 0, previous.length);
+                previousDiscrepancy = discrepancy;
+                shift = 1;
+            }
+            else {
+                subtractShifted(scale, shift);
+                shift += 1;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * locator -= scale * x^shift * previous
+     */
+    private void subtractShifted(byte scale, int shift) {
+        for (int i = 0; i + shift < locator.length; i++) {
+            locator[i + shift] ^= Galois.multiply(scale, previous[i]);
+        }
+    }
+
+    /**
+     * Evaluates a polynomial of the given degree at x, with Horner's
+     * rule.
+     */
+    private static byte evaluate(byte [] polynomial, int degree, byte x) {
+        byte result = 0;
+        for (int i = degree; 0 <= i; i--) {
+            result = (byte) (Galois.multiply(result, x) ^ polynomial[i]);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * 16-bit Galois Field
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+/**
+ * 16-bit Galois Field
+ *
+ * The same operations as Galois, on 16-bit values.  With 65536
+ * elements in the field, a code can have up to 65536 shards in total,
+ * instead of 256.
+ *
+ * Elements are passed around as ints from 0 to 65535.  The log and exp
+ * tables are computed when the class is loaded, because they are too
+ * big to write out.  Like in Galois, the exp table repeats, so there's
+ * no need to bound the sum of two logarithms.
+ *
+ * A full multiplication table would be 8GB, so the coding loops use
+ * split tables instead: see splitTable().
+ */
+// 16 位伽罗华域 GF(2^16)：元素范围 0..65535，最多支持 65536 个分片。
+public final class Galois16 {
+
+    /**
+     * The number of elements in the field.
+     */
+    public static final int FIELD_SIZE = 65536;
+
+    /**
+     * The polynomial used to generate the logarithm table:
+     * x^16 + x^5 + x^3 + x^2 + 1.  As for the 8-bit field, the choice
+     * is arbitrary, as long as it's primitive.
+     */
+    public static final int GENERATING_POLYNOMIAL = 0x1002D;
+
+    /**
+     * Mapping from members of the field to their integer logarithms.
+     * The entry for 0 is meaningless because there is no log of 0.
+     */
+    static final char [] LOG_TABLE = generateLogTable(GENERATING_POLYNOMIAL);
+
+    /**
+     * Inverse of the logarithm table.  Twice as long as it needs to be,
+     * so that the sum of two logarithms can be looked up directly.
+     */
+    static final char [] EXP_TABLE = generateExpTable(LOG_TABLE);
+
+    /**
+     * Adds two elements of the field.  If you're in an inner loop,
+     * you should inline this function: it's just XOR.
+     */
+    public static int add(int a, int b) {
+        return a ^ b;
+    }
+
+    /**
+     * Inverse of addition.  If you're in an inner loop,
+     * you should inline this function: it's just XOR.
+     */
+    public static int subtract(int a, int b) {
+        return a ^ b;
+    }
+
+    /**
+     * Multiplies two elements of the field.
+     */
+    public static int multiply(int a, int b) {
+        if (a == 0 || b == 0) {
+            return 0;
+        }
+        else {
+            int logResult = LOG_TABLE[a] + LOG_TABLE[b];
+            return EXP_TABLE[logResult];
+        }
+    }
+
+    /**
+     * Inverse of multiplication.
+     */
+    public static int divide(int a, int b) {
+        if (a == 0) {
+            return 0;
+        }
+        if (b == 0) {
+            throw new IllegalArgumentException("Argument 'divisor' is 0");
+        }
+        int logResult = LOG_TABLE[a] - LOG_TABLE[b];
+        if (logResult < 0) {
+            logResult += FIELD_SIZE - 1;
+        }
+        return EXP_TABLE[logResult];
+    }
+
+    /**
+     * Computes a**n.
+     *
+     * @param a A member of the field.
+     * @param n A plain-old integer.
+     * @return The result of multiplying a by itself n times.
+     */
+    public static int exp(int a, int n) {
+        if (n == 0) {
+            return 1;
+        }
+        else if (a == 0) {
+            return 0;
+        }
+        else {
+            long logResult = (long) LOG_TABLE[a] * n;
+            return EXP_TABLE[(int) (logResult % (FIELD_SIZE - 1))];
+        }
+    }
+
+    /**
+     * Returns a split multiplication table for multiplying by a.
+     *
+     * A 16-bit value is the XOR of its high byte shifted up and its low
+     * byte, so a times the value is the XOR of a times each of them.
+     * The first 256 entries hold a times each low byte, and the next
+     * 256 hold a times each high byte:
+     *
+     *     multiply(a, (hi << 8) | lo) == table[256 + hi] ^ table[lo]
+     *
+     * That's two lookups in a 1KB table for each 16-bit symbol.
+     */
+    // 拆分乘法表：低字节 256 项 + 高字节 256 项，每个 16 位符号两次查表。
+    public static char [] splitTable(int a) {
+        char [] result = new char [512];
+        for (int b = 0; b < 256; b++) {
+            result[b] = (char) multiply(a, b);
+            result[256 + b] = (char) multiply(a, b << 8);
+        }
+        return result;
+    }
+
+    /**
+     * Generates a logarithm table given a starting polynomial.
+     */
+    public static char [] generateLogTable(int polynomial) {
+        char [] result = new char [FIELD_SIZE];
+        boolean [] seen = new boolean [FIELD_SIZE];
+        int b = 1;
+        for (int log = 0; log < FIELD_SIZE - 1; log++) {
+            if (seen[b]) {
+                throw new RuntimeException("BUG: duplicate logarithm (bad polynomial?)");
+            }
+            seen[b] = true;
+            result[b] = (char) log;
+            b = (b << 1);
+            if (FIELD_SIZE <= b) {
+                b = ((b - FIELD_SIZE) ^ (polynomial - FIELD_SIZE));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Generates the inverse log table.
+     */
+    public static char [] generateExpTable(char [] logTable) {
+        final char [] result = new char [FIELD_SIZE * 2 - 2];
+        for (int i = 1; i < FIELD_SIZE; i++) {
+            int log = logTable[i];
+            result[log] = (char) i;
+            result[log + FIELD_SIZE - 1] = (char) i;
+        }
+        return result;
+    }
+
+    private Galois16() {
+    }
+}
@@ -0,0 +1,290 @@
+/**
+ * One specific ordering/nesting of the coding loops.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A coding loop that works on eight bytes at a time, packed into a long.
+ *
+ * Multiplying by a coefficient is linear over the bits of the input
+ * byte, so a product can be split into the low-nibble products
+ * (c*1, c*2, c*4, c*8) and the high-nibble products (c*16, c*32, c*64,
+ * c*128).  Instead of looking up one table entry per byte, the loop
+ * pulls bit j out of all eight bytes of a word at once, and an integer
+ * multiply by the product for bit j copies that product into every
+ * byte lane where the bit is set.  The lanes hold 0 or 1 before the
+ * multiply, so there are no carries between them.
+ *
+ * Bytes at the end of the range that don't make up a whole word are
+ * done with the multiplication table.
+ *
+ * This loop also works on ByteBuffers, heap or direct.  The lanes don't
+ * interact, so it works with either byte order, as long as the product
+ * is put back in the same order the input was read.
+ */
+public class InputOutputLongSwarCodingLoop extends CodingLoopBase implements ByteBufferCodingLoop {
+
+    /**
+     * Reads and writes longs at any byte offset in a byte array.
+     */
+    private static final VarHandle LONG_VIEW =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Picks out the low bit of each byte in a long.
+     */
+    private static final long LOW_BITS = 0x0101010101010101L;
+
+    /**
+     * For each coefficient, the products with each of the eight bits,
+     * for the ByteBuffer check, which can't afford to compute them for
+     * every word.  MemorySegmentSwarCodingLoop uses them too.
+     */
+    static final long [] [] BIT_PRODUCTS = generateBitProducts();
+
+    @Override
+    public void codeSomeShards(
+            byte[][] matrixRows,
+            byte[][] inputs, int inputCount,
+            byte[][] outputs, int outputCount,
+            int offset, int byteCount) {
+
+        for (int iInput = 0; iInput < inputCount; iInput++) {
+            final byte[] inputShard = inputs[iInput];
+            for (int iOutput = 0; iOutput < outputCount; iOutput++) {
+                final byte[] outputShard = outputs[iOutput];
+                final byte coefficient = matrixRows[iOutput][iInput];
+                multiplyShard(coefficient, inputShard, outputShard, iInput != 0, offset, byteCount);
+            }
+        }
+    }
+
+    @Override
+    public boolean checkSomeShards(
+            byte[][] matrixRows,
+            byte[][] inputs, int inputCount,
+            byte[][] toCheck, int checkCount,
+            int offset, int byteCount,
+            byte[] tempBuffer) {
+
+        if (tempBuffer == null) {
+            return super.checkSomeShards(matrixRows, inputs, inputCount, toCheck, checkCount, offset, byteCount, null);
+        }
+
+        // Compute one output at a time into the temp buffer, the same
+        // way that OutputInputByteTableCodingLoop does.
+        for (int iOutput = 0; iOutput < checkCount; iOutput++) {
+            final byte [] outputShard = toCheck[iOutput];
+            final byte[] matrixRow = matrixRows[iOutput];
+            for (int iInput = 0; iInput < inputCount; iInput++) {
+                multiplyShard(matrixRow[iInput], inputs[iInput], tempBuffer, iInput != 0, offset, byteCount);
+            }
+            for (int iByte = offset; iByte < offset + byteCount; iByte++) {
+                if (tempBuffer[iByte] != outputShard[iByte]) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Multiplies one input shard by a coefficient, and either stores
+     * the result in the output shard or XORs it into the output shard.
+     */
+    private static void multiplyShard(byte coefficient,
+                                      byte [] inputShard,
+                                      byte [] outputShard,
+                                      boolean accumulate,
+                                      int offset,
+                                      int byteCount) {
+
+        // The products for each bit of the low nibble and the high nibble.
+        final long p0 = Galois.multiply(coefficient, (byte) 0x01) & 0xFF;
+        final long p1 = Galois.multiply(coefficient, (byte) 0x02) & 0xFF;
+        final long p2 = Galois.multiply(coefficient, (byte) 0x04) & 0xFF;
+        final long p3 = Galois.multiply(coefficient, (byte) 0x08) & 0xFF;
+        final long p4 = Galois.multiply(coefficient, (byte) 0x10) & 0xFF;
+        final long p5 = Galois.multiply(coefficient, (byte) 0x20) & 0xFF;
+        final long p6 = Galois.multiply(coefficient, (byte) 0x40) & 0xFF;
+        final long p7 = Galois.multiply(coefficient, (byte) 0x80) & 0xFF;
+
+        final int end = offset + byteCount;
+        final int wordEnd = offset + (byteCount & ~7);
+        int iByte = offset;
+        for (; iByte < wordEnd; iByte += 8) {
+            final long word = (long) LONG_VIEW.get(inputShard, iByte);
+            long product =
+                    (word         & LOW_BITS) * p0 ^
+                    ((word >>> 1) & LOW_BITS) * p1 ^
+                    ((word >>> 2) & LOW_BITS) * p2 ^
+                    ((word >>> 3) & LOW_BITS) * p3 ^
+                    ((word >>> 4) & LOW_BITS) * p4 ^
+                    ((word >>> 5) & LOW_BITS) * p5 ^
+                    ((word >>> 6) & LOW_BITS) * p6 ^
+                    ((word >>> 7) & LOW_BITS) * p7;
+            if (accumulate) {
+                product ^= (long) LONG_VIEW.get(outputShard, iByte);
+            }
+            LONG_VIEW.set(outputShard, iByte, product);
+        }
+
+        final byte [] multTableRow = Galois.MULTIPLICATION_TABLE[coefficient & 0xFF];
+        for (; iByte < end; iByte++) {
+            if (accumulate) {
+                outputShard[iByte] ^= multTableRow[inputShard[iByte] & 0xFF];
+            }
+            else {
+                outputShard[iByte] = multTableRow[inputShard[iByte] & 0xFF];
+            }
+        }
+    }
+
+    @Override
+    public void codeSomeShards(
+            byte[][] matrixRows,
+            ByteBuffer[] inputs, int inputCount,
+            ByteBuffer[] outputs, int outputCount,
+            int offset, int byteCount) {
+
+        for (int iInput = 0; iInput < inputCount; iInput++) {
+            final ByteBuffer inputShard = inputs[iInput];
+            for (int iOutput = 0; iOutput < outputCount; iOutput++) {
+                final ByteBuffer outputShard = outputs[iOutput];
+                final byte coefficient = matrixRows[iOutput][iInput];
+                multiplyBuffer(coefficient, inputShard, outputShard, iInput != 0, offset, byteCount);
+            }
+        }
+    }
+
+    @Override
+    public boolean checkSomeShards(
+            byte[][] matrixRows,
+            ByteBuffer[] inputs, int inputCount,
+            ByteBuffer[] toCheck, int checkCount,
+            int offset, int byteCount) {
+
+        // With no temp buffer, this computes each word of each output
+        // and compares it right away, like ByteOutputInput does for
+        // single bytes.  Every word is put into the byte order of the
+        // shard being checked before it's added in.
+        final int wordCount = byteCount / 8;
+        for (int iWord = 0; iWord < wordCount; iWord++) {
+            final int relativeIndex = offset + iWord * 8;
+            for (int iOutput = 0; iOutput < checkCount; iOutput++) {
+                final ByteBuffer checkShard = toCheck[iOutput];
+                final ByteOrder checkOrder = checkShard.order();
+                final byte [] matrixRow = matrixRows[iOutput];
+                long value = 0;
+                for (int iInput = 0; iInput < inputCount; iInput++) {
+                    final ByteBuffer inputShard = inputs[iInput];
+                    long product = multiplyWord(
+                            inputShard.getLong(inputShard.position() + relativeIndex),
+                            BIT_PRODUCTS[matrixRow[iInput] & 0xFF]);
+                    if (inputShard.order() != checkOrder) {
+                        product = Long.reverseBytes(product);
+                    }
+                    value ^= product;
+                }
+                if (checkShard.getLong(checkShard.position() + relativeIndex) != value) {
+                    return false;
+                }
+            }
+        }
+
+        final byte [] [] table = Galois.MULTIPLICATION_TABLE;
+        for (int iByte = offset + wordCount * 8; iByte < offset + byteCount; iByte++) {
+            for (int iOutput = 0; iOutput < checkCount; iOutput++) {
+                final ByteBuffer checkShard = toCheck[iOutput];
+                final byte [] matrixRow = matrixRows[iOutput];
+                int value = 0;
+                for (int iInput = 0; iInput < inputCount; iInput++) {
+                    final ByteBuffer inputShard = inputs[iInput];
+                    value ^= table[matrixRow[iInput] & 0xFF][inputShard.get(inputShard.position() + iByte) & 0xFF];
+                }
+                if (checkShard.get(checkShard.position() + iByte) != (byte) value) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Multiplies one input shard in a ByteBuffer by a coefficient, and
+     * either stores the result in the output shard or XORs it into the
+     * output shard.
+     */
+    private static void multiplyBuffer(byte coefficient,
+                                       ByteBuffer inputShard,
+                                       ByteBuffer outputShard,
+                                       boolean accumulate,
+                                       int offset,
+                                       int byteCount) {
+
+        final long [] products = BIT_PRODUCTS[coefficient & 0xFF];
+        final boolean reverse = inputShard.order() != outputShard.order();
+        final int inputStart = inputShard.position() + offset;
+        final int outputStart = outputShard.position() + offset;
+
+        final int wordCount = byteCount & ~7;
+        int iByte = 0;
+        for (; iByte < wordCount; iByte += 8) {
+            long product = multiplyWord(inputShard.getLong(inputStart + iByte), products);
+            if (reverse) {
+                product = Long.reverseBytes(product);
+            }
+            if (accumulate) {
+                product ^= outputShard.getLong(outputStart + iByte);
+            }
+            outputShard.putLong(outputStart + iByte, product);
+        }
+
+        final byte [] multTableRow = Galois.MULTIPLICATION_TABLE[coefficient & 0xFF];
+        for (; iByte < byteCount; iByte++) {
+            byte product = multTableRow[inputShard.get(inputStart + iByte) & 0xFF];
+            if (accumulate) {
+                product ^= outputShard.get(outputStart + iByte);
+            }
+            outputShard.put(outputStart + iByte, product);
+        }
+    }
+
+    /**
+     * Multiplies each of the eight bytes in a word by the coefficient
+     * whose bit products are given.
+     */
+    static long multiplyWord(long word, long [] products) {
+        return
+                (word         & LOW_BITS) * products[0] ^
+                ((word >>> 1) & LOW_BITS) * products[1] ^
+                ((word >>> 2) & LOW_BITS) * products[2] ^
+                ((word >>> 3) & LOW_BITS) * products[3] ^
+                ((word >>> 4) & LOW_BITS) * products[4] ^
+                ((word >>> 5) & LOW_BITS) * products[5] ^
+                ((word >>> 6) & LOW_BITS) * products[6] ^
+                ((word >>> 7) & LOW_BITS) * products[7];
+    }
+
+    /**
+     * Builds the table of bit products for all 256 coefficients.
+     */
+    private static long [] [] generateBitProducts() {
+        long [] [] result = new long [Galois.FIELD_SIZE] [8];
+        for (int c = 0; c < Galois.FIELD_SIZE; c++) {
+            for (int bit = 0; bit < 8; bit++) {
+                result[c][bit] = Galois.multiply((byte) c, (byte) (1 << bit)) & 0xFF;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * A coding loop for 16-bit symbols using split multiplication tables.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+/**
+ * A coding loop for 16-bit symbols using split multiplication tables.
+ *
+ * The loops are nested the same way as InputOutputByteTableCodingLoop:
+ * input, output, symbol.  Each symbol takes two lookups in a 1KB table,
+ * one for the high byte and one for the low byte, so the table for the
+ * current input and output stays in the L1 cache.
+ */
+public class InputOutputSplitTableCodingLoop16 implements CodingLoop16 {
+
+    @Override
+    public void codeSomeShards(
+            char[][][] tables,
+            byte[][] inputs, int inputCount,
+            byte[][] outputs, int outputCount,
+            int offset, int byteCount) {
+
+        final int end = offset + byteCount;
+
+        {
+            final int iInput = 0;
+            final byte [] inputShard = inputs[iInput];
+            for (int iOutput = 0; iOutput < outputCount; iOutput++) {
+                final byte [] outputShard = outputs[iOutput];
+                final char [] table = tables[iOutput][iInput];
+                for (int iByte = offset; iByte < end; iByte += 2) {
+                    int value = table[256 + (inputShard[iByte] & 0xFF)] ^ table[inputShard[iByte + 1] & 0xFF];
+                    outputShard[iByte] = (byte) (value >>> 8);
+                    outputShard[iByte + 1] = (byte) value;
+                }
+            }
+        }
+
+        for (int iInput = 1; iInput < inputCount; iInput++) {
+            final byte [] inputShard = inputs[iInput];
+            for (int iOutput = 0; iOutput < outputCount; iOutput++) {
+                final byte [] outputShard = outputs[iOutput];
+                final char [] table = tables[iOutput][iInput];
+                for (int iByte = offset; iByte < end; iByte += 2) {
+                    int value = table[256 + (inputShard[iByte] & 0xFF)] ^ table[inputShard[iByte + 1] & 0xFF];
+                    outputShard[iByte] ^= (byte) (value >>> 8);
+                    outputShard[iByte + 1] ^= (byte) value;
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean checkSomeShards(
+            char[][][] tables,
+            byte[][] inputs, int inputCount,
+            byte[][] toCheck, int checkCount,
+            int offset, int byteCount,
+            byte[] tempBuffer) {
+
+        // Compute each output in the temp buffer, and compare it with
+        // the shard.
+        final byte [] [] outputs = new byte [1] [];
+        outputs[0] = tempBuffer;
+        final char [] [] [] rowTables = new char [1] [] [];
+        for (int iOutput = 0; iOutput < checkCount; iOutput++) {
+            rowTables[0] = tables[iOutput];
+            codeSomeShards(rowTables, inputs, inputCount, outputs, 1, offset, byteCount);
+            final byte [] expected = toCheck[iOutput];
+            for (int iByte = offset; iByte < offset + byteCount; iByte++) {
+                if (tempBuffer[iByte] != expected[iByte]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
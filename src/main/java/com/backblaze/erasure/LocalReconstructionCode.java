@@ -0,0 +1,482 @@
+/**
+ * Local Reconstruction Codes over 8-bit values.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import java.util.Arrays;
+
+/**
+ * A (k, l, r) Local Reconstruction Code, as used in Windows Azure
+ * Storage: k data shards split into l local groups, each with a local
+ * parity shard, plus r global parity shards computed from all of the
+ * data.
+ *
+ * When one shard of a group is lost, it's rebuilt from the rest of its
+ * group, which reads about k / l shards instead of k.  Anything else
+ * is decoded from any k independent shards, like ReedSolomon.
+ *
+ * Shards are numbered with the data shards first, then the l local
+ * parity shards, then the r global parity shards.  Data shard i is in
+ * group i * l / k, so the groups differ in size by at most one.
+ *
+ * The parity comes from a Cauchy matrix with r + 1 parity rows, scaled
+ * by CauchyMatrixGenerator so that the first row is all ones.  That row
+ * is split among the groups to make the local parities, which are just
+ * the XOR of the group, and the other r rows are the global parities.
+ * The local parities add up to the split row, so any r + 1 lost shards
+ * can be rebuilt, and some larger sets can too; planRepair says which.
+ */
+public class LocalReconstructionCode {
+
+    private final int dataShardCount;
+    private final int localGroupCount;
+    private final int globalParityCount;
+    private final int totalShardCount;
+    private final CodingLoop codingLoop;
+
+    /**
+     * The rows of the encoding matrix for the global parity shards.
+     */
+    private final byte [] [] globalRows;
+
+    /**
+     * The index of the first data shard in each group, plus one more
+     * entry for the end of the last group.
+     */
+    private final int [] groupStart;
+
+    /**
+     * Makes a code with the default coding loop.
+     *
+     * @param dataShardCount The number of data shards, k.
+     * @param localGroupCount The number of local groups, l.
+     * @param globalParityCount The number of global parity shards, r.
+     */
+    public LocalReconstructionCode(int dataShardCount, int localGroupCount, int globalParityCount) {
+        this(dataShardCount, localGroupCount, globalParityCount, CodingLoops.DEFAULT_CODING_LOOP);
+    }
+
+    /**
+     * Makes a code with a chosen coding loop.
+     */
+    public LocalReconstructionCode(int dataShardCount,
+                                   int localGroupCount,
+                                   int globalParityCount,
+                                   CodingLoop codingLoop) {
+        if (dataShardCount <= 0) {
+            throw new IllegalArgumentException("dataShardCount must be positive: " + dataShardCount);
+        }
+        if (localGroupCount <= 0 || dataShardCount < localGroupCount) {
+            throw new IllegalArgumentException("bad localGroupCount: " + localGroupCount);
+        }
+        if (globalParityCount < 0) {
+            throw new IllegalArgumentException("globalParityCount is negative: " + globalParityCount);
+        }
+        if (Galois.FIELD_SIZE < dataShardCount + 1 + globalParityCount) {
+            throw new IllegalArgumentException("too many shards - max is " + Galois.FIELD_SIZE);
+        }
+        this.dataShardCount = dataShardCount;
+        this.localGroupCount = localGroupCount;
+        this.globalParityCount = globalParityCount;
+        this.totalShardCount = dataShardCount + localGroupCount + globalParityCount;
+        this.codingLoop = codingLoop;
+
+        Matrix matrix = new CauchyMatrixGenerator(true).buildMatrix(dataShardCount, dataShardCount + 1 + globalParityCount);
+        globalRows = new byte [globalParityCount] [];
+        for (int i = 0; i < globalParityCount; i++) {
+            globalRows[i] = matrix.getRow(dataShardCount + 1 + i);
+        }
+
+        groupStart = new int [localGroupCount + 1];
+        for (int g = 0; g <= localGroupCount; g++) {
+            groupStart[g] = (g * dataShardCount + localGroupCount - 1) / localGroupCount;
+        }
+    }
+
+    /**
+     * Returns the number of data shards.
+     */
+    public int getDataShardCount() {
+        return dataShardCount;
+    }
+
+    /**
+     * Returns the number of local groups, which is also the number of
+     * local parity shards.
+     */
+    public int getLocalGroupCount() {
+        return localGroupCount;
+    }
+
+    /**
+     * Returns the number of global parity shards.
+     */
+    public int getGlobalParityCount() {
+        return globalParityCount;
+    }
+
+    /**
+     * Returns the total number of shards.
+     */
+    public int getTotalShardCount() {
+        return totalShardCount;
+    }
+
+    /**
+     * Returns the local group that a shard belongs to, or -1 for a
+     * global parity shard.
+     */
+    public int getGroup(int shardIndex) {
+        if (shardIndex < 0 || totalShardCount <= shardIndex) {
+            throw new IllegalArgumentException("bad shard index: " + shardIndex);
+        }
+        if (shardIndex < dataShardCount) {
+            int g = 0;
+            while (groupStart[g + 1] <= shardIndex) {
+                g += 1;
+            }
+            return g;
+        }
+        if (shardIndex < dataShardCount + localGroupCount) {
+            return shardIndex - dataShardCount;
+        }
+        return -1;
+    }
+
+    /**
+     * Encodes the local and global parity for a set of data shards.
+     *
+     * @param shards An array containing data shards, then local parity
+     *               shards, then global parity shards.  Each shard is a
+     *               byte array, and they must all be the same size.
+     * @param offset The index of the first byte in each shard to encode.
+     * @param byteCount The number of bytes to encode in each shard.
+     */
+    public void encodeParity(byte [] [] shards, int offset, int byteCount) {
+        checkBuffersAndSizes(shards, offset, byteCount);
+        for (int g = 0; g < localGroupCount; g++) {
+            encodeLocalParity(shards, g, offset, byteCount);
+        }
+        encodeGlobalParity(shards, allShards(globalParityCount), globalParityCount, offset, byteCount);
+    }
+
+    /**
+     * Given a list of shards, some of which contain data, fills in the
+     * ones that don't have data.
+     *
+     * Quickly does nothing if all of the shards are present.  Only the
+     * shards named by planRepair are read.
+     *
+     * @throws IllegalArgumentException if the missing shards can't be
+     *                                  rebuilt from the ones present.
+     */
+    public void decodeMissing(byte [] [] shards,
+                              boolean [] shardPresent,
+                              int offset,
+                              int byteCount) {
+        checkBuffersAndSizes(shards, offset, byteCount);
+        if (shardPresent.length != totalShardCount) {
+            throw new IllegalArgumentException("wrong number of shardPresent flags: " + shardPresent.length);
+        }
+
+        if (isLocallyRepairable(shardPresent)) {
+            for (int i = 0; i < dataShardCount + localGroupCount; i++) {
+                if (!shardPresent[i]) {
+                    repairLocally(shards, i, offset, byteCount);
+                }
+            }
+            return;
+        }
+
+        int [] inputs = chooseInputs(shardPresent);
+        if (inputs == null) {
+            throw new IllegalArgumentException("Not enough shards present");
+        }
+
+        // Invert the rows of the encoding matrix for the inputs, and use
+        // the rows of the inverse for the missing data shards.
+        Matrix subMatrix = new Matrix(dataShardCount, dataShardCount);
+        byte [] [] subShards = new byte [dataShardCount] [];
+        for (int r = 0; r < dataShardCount; r++) {
+            byte [] row = encodingRow(inputs[r]);
+            for (int c = 0; c < dataShardCount; c++) {
+                subMatrix.set(r, c, row[c]);
+            }
+            subShards[r] = shards[inputs[r]];
+        }
+        Matrix dataDecodeMatrix = subMatrix.invert();
+
+        byte [] [] matrixRows = new byte [dataShardCount] [];
+        byte [] [] outputs = new byte [dataShardCount] [];
+        int outputCount = 0;
+        for (int i = 0; i < dataShardCount; i++) {
+            if (!shardPresent[i]) {
+                matrixRows[outputCount] = dataDecodeMatrix.getRow(i);
+                outputs[outputCount] = shards[i];
+                outputCount += 1;
+            }
+        }
+        codingLoop.codeSomeShards(
+                matrixRows,
+                subShards, dataShardCount,
+                outputs, outputCount,
+                offset, byteCount);
+
+        // Now that all of the data is there, the missing parity is
+        // computed from it.
+        for (int g = 0; g < localGroupCount; g++) {
+            if (!shardPresent[dataShardCount + g]) {
+                encodeLocalParity(shards, g, offset, byteCount);
+            }
+        }
+        boolean [] wanted = new boolean [globalParityCount];
+        int wantedCount = 0;
+        for (int i = 0; i < globalParityCount; i++) {
+            wanted[i] = !shardPresent[dataShardCount + localGroupCount + i];
+            if (wanted[i]) {
+                wantedCount += 1;
+            }
+        }
+        encodeGlobalParity(shards, wanted, wantedCount, offset, byteCount);
+    }
+
+    /**
+     * Returns the shards to read to rebuild the missing ones.
+     *
+     * When each missing shard is the only one missing from its local
+     * group, that's the rest of those groups.  Otherwise, some global
+     * parity is needed, or is itself missing, and that takes k shards;
+     * the data shards are picked first, then local parity shards, then
+     * global parity shards.
+     *
+     * @param shardPresent Which of the shards are available.
+     * @return The indices of the shards to read, in order, or null if
+     *         the missing shards can't be rebuilt.
+     */
+    public int [] planRepair(boolean [] shardPresent) {
+        if (shardPresent.length != totalShardCount) {
+            throw new IllegalArgumentException("wrong number of shardPresent flags: " + shardPresent.length);
+        }
+        if (isLocallyRepairable(shardPresent)) {
+            boolean [] read = new boolean [totalShardCount];
+            for (int g = 0; g < localGroupCount; g++) {
+                if (countMissingInGroup(shardPresent, g) == 1) {
+                    for (int i = groupStart[g]; i < groupStart[g + 1]; i++) {
+                        read[i] = shardPresent[i];
+                    }
+                    read[dataShardCount + g] = shardPresent[dataShardCount + g];
+                }
+            }
+            int count = 0;
+            for (boolean r : read) {
+                if (r) {
+                    count += 1;
+                }
+            }
+            int [] result = new int [count];
+            int next = 0;
+            for (int i = 0; i < totalShardCount; i++) {
+                if (read[i]) {
+                    result[next++] = i;
+                }
+            }
+            return result;
+        }
+        return chooseInputs(shardPresent);
+    }
+
+    /**
+     * Returns true if every missing shard is the only one missing from
+     * its local group, so no global parity is involved.
+     */
+    private boolean isLocallyRepairable(boolean [] shardPresent) {
+        for (int i = dataShardCount + localGroupCount; i < totalShardCount; i++) {
+            if (!shardPresent[i]) {
+                return false;
+            }
+        }
+        for (int g = 0; g < localGroupCount; g++) {
+            if (1 < countMissingInGroup(shardPresent, g)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of shards missing from a local group, counting
+     * its local parity shard.
+     */
+    private int countMissingInGroup(boolean [] shardPresent, int g) {
+        int result = shardPresent[dataShardCount + g] ? 0 : 1;
+        for (int i = groupStart[g]; i < groupStart[g + 1]; i++) {
+            if (!shardPresent[i]) {
+                result += 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Picks k shards that are present and whose rows of the encoding
+     * matrix are independent, preferring data shards, then local
+     * parity, then global parity.  Returns null if there aren't k.
+     */
+    private int [] chooseInputs(boolean [] shardPresent) {
+        // Each row kept is reduced by the ones before it, so a new row
+        // is independent if anything is left of it after reducing it
+        // by all of them.
+        byte [] [] basis = new byte [dataShardCount] [];
+        int [] pivots = new int [dataShardCount];
+        int [] result = new int [dataShardCount];
+        int count = 0;
+        for (int i = 0; i < totalShardCount && count < dataShardCount; i++) {
+            if (!shardPresent[i]) {
+                continue;
+            }
+            byte [] row = encodingRow(i).clone();
+            for (int b = 0; b < count; b++) {
+                byte factor = row[pivots[b]];
+                if (factor != 0) {
+                    for (int c = 0; c < dataShardCount; c++) {
+                        row[c] ^= Galois.multiply(factor, basis[b][c]);
+                    }
+                }
+            }
+            int pivot = 0;
+            while (pivot < dataShardCount && row[pivot] == 0) {
+                pivot += 1;
+            }
+            if (pivot == dataShardCount) {
+                continue;
+            }
+            byte scale = Galois.divide((byte) 1, row[pivot]);
+            for (int c = 0; c < dataShardCount; c++) {
+                row[c] = Galois.multiply(row[c], scale);
+            }
+            basis[count] = row;
+            pivots[count] = pivot;
+            result[count] = i;
+            count += 1;
+        }
+        return (count == dataShardCount) ? result : null;
+    }
+
+    /**
+     * Returns the row of the encoding matrix for a shard.
+     */
+    private byte [] encodingRow(int shardIndex) {
+        byte [] row = new byte [dataShardCount];
+        if (shardIndex < dataShardCount) {
+            row[shardIndex] = 1;
+        }
+        else if (shardIndex < dataShardCount + localGroupCount) {
+            int g = shardIndex - dataShardCount;
+            Arrays.fill(row, groupStart[g], groupStart[g + 1], (byte) 1);
+        }
+        else {
+            System.arraycopy(globalRows[shardIndex - dataShardCount - localGroupCount], 0, row, 0, dataShardCount);
+        }
+        return row;
+    }
+
+    /**
+     * Computes the local parity of one group.
+     */
+    private void encodeLocalParity(byte [] [] shards, int g, int offset, int byteCount) {
+        int groupSize = groupStart[g + 1] - groupStart[g];
+        byte [] [] inputs = new byte [groupSize] [];
+        System.arraycopy(shards, groupStart[g], inputs, 0, groupSize);
+        xorShards(inputs, shards[dataShardCount + g], offset, byteCount);
+    }
+
+    /**
+     * Rebuilds a data shard or local parity shard from the rest of its
+     * group.
+     */
+    private void repairLocally(byte [] [] shards, int shardIndex, int offset, int byteCount) {
+        int g = getGroup(shardIndex);
+        int groupSize = groupStart[g + 1] - groupStart[g];
+        byte [] [] inputs = new byte [groupSize] [];
+        int inputCount = 0;
+        for (int i = groupStart[g]; i < groupStart[g + 1]; i++) {
+            if (i != shardIndex) {
+                inputs[inputCount++] = shards[i];
+            }
+        }
+        if (shardIndex != dataShardCount + g) {
+            inputs[inputCount++] = shards[dataShardCount + g];
+        }
+        xorShards(inputs, shards[shardIndex], offset, byteCount);
+    }
+
+    /**
+     * Sets the output to the XOR of the inputs.
+     */
+    private void xorShards(byte [] [] inputs, byte [] output, int offset, int byteCount) {
+        byte [] [] matrixRows = { new byte [inputs.length] };
+        Arrays.fill(matrixRows[0], (byte) 1);
+        codingLoop.codeSomeShards(
+                matrixRows,
+                inputs, inputs.length,
+                new byte [] [] { output }, 1,
+                offset, byteCount);
+    }
+
+    /**
+     * Computes the wanted global parity shards from the data shards.
+     */
+    private void encodeGlobalParity(byte [] [] shards, boolean [] wanted, int wantedCount, int offset, int byteCount) {
+        if (wantedCount == 0) {
+            return;
+        }
+        byte [] [] matrixRows = new byte [wantedCount] [];
+        byte [] [] outputs = new byte [wantedCount] [];
+        int outputCount = 0;
+        for (int i = 0; i < globalParityCount; i++) {
+            if (wanted[i]) {
+                matrixRows[outputCount] = globalRows[i];
+                outputs[outputCount] = shards[dataShardCount + localGroupCount + i];
+                outputCount += 1;
+            }
+        }
+        codingLoop.codeSomeShards(
+                matrixRows,
+                shards, dataShardCount,
+                outputs, outputCount,
+                offset, byteCount);
+    }
+
+    private static boolean [] allShards(int count) {
+        boolean [] result = new boolean [count];
+        Arrays.fill(result, true);
+        return result;
+    }
+
+    /**
+     * Checks the consistency of arguments passed to public methods.
+     */
+    private void checkBuffersAndSizes(byte [] [] shards, int offset, int byteCount) {
+        if (shards.length != totalShardCount) {
+            throw new IllegalArgumentException("wrong number of shards: " + shards.length);
+        }
+        int shardLength = shards[0].length;
+        for (int i = 1; i < shards.length; i++) {
+            if (shards[i].length != shardLength) {
+                throw new IllegalArgumentException("Shards are different sizes");
+            }
+        }
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset is negative: " + offset);
+        }
+        if (byteCount < 0) {
+            throw new IllegalArgumentException("byteCount is negative: " + byteCount);
+        }
+        if (shardLength < offset + byteCount) {
+            throw new IllegalArgumentException("buffers too small: " + (offset + byteCount));
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/**
+ * Decodes a file of any size from shard files, using memory mapping.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Decodes a file from the shard files written by MappedFileEncoder.
+ *
+ * The shard files and the output file are mapped a window at a time.
+ * Only the missing data shards are decoded, straight into the mapping
+ * of the output file, except at the end of the file, where the padding
+ * doesn't fit; there a direct buffer is used.  Missing parity shards
+ * are not rebuilt.  Nothing goes through the heap.
+ *
+ * A shard file is missing if it doesn't exist, can't be opened, is too
+ * short, or has a header that doesn't match the one most shard files
+ * have.
+ */
+public class MappedFileDecoder {
+
+    private final ReedSolomon codec;
+    private final int windowSize;
+
+    /**
+     * Decodes with the given codec, using the default window size.
+     */
+    public MappedFileDecoder(ReedSolomon codec) {
+        this(codec, MappedFileEncoder.DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Decodes with the given codec, mapping windowSize bytes of each
+     * shard at a time.
+     */
+    public MappedFileDecoder(ReedSolomon codec, int windowSize) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("windowSize must be positive: " + windowSize);
+        }
+        this.codec = codec;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Reads the header of the first shard file that has a valid one,
+     * or returns null if none do.
+     */
+    public static ShardFileHeader readAnyHeader(File [] shardFiles) {
+        for (File shardFile : shardFiles) {
+            if (shardFile != null && shardFile.exists()) {
+                try {
+                    FileChannel channel = FileChannel.open(shardFile.toPath(), StandardOpenOption.READ);
+                    try {
+                        return ShardFileHeader.read(channel);
+                    }
+                    finally {
+                        channel.close();
+                    }
+                }
+                catch (IOException e) {
+                    // Try the next one.
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decodes shard files into the original file, which is created or
+     * replaced.
+     *
+     * @param shardFiles One file for each shard, data shards first.
+     *                   Missing shards can be null.
+     * @param outputFile Where to write the original file.
+     * @throws IOException if there aren't enough good shard files.
+     */
+    public void decode(File [] shardFiles, File outputFile) throws IOException {
+        final int dataShardCount = codec.getDataShardCount();
+        final int totalShardCount = codec.getTotalShardCount();
+        if (shardFiles.length != totalShardCount) {
+            throw new IllegalArgumentException("wrong number of shard files: " + shardFiles.length);
+        }
+
+        final FileChannel [] inputs = new FileChannel [totalShardCount];
+        final boolean [] shardPresent = new boolean [totalShardCount];
+        FileChannel output = null;
+        try {
+            final ShardFileHeader header = openShards(codec, shardFiles, inputs, shardPresent);
+            final long fileLength = header.getFileLength();
+            final long shardLength = header.getShardLength();
+            output = FileChannel.open(outputFile.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+            int missingCount = 0;
+            for (int i = 0; i < dataShardCount; i++) {
+                if (!shardPresent[i]) {
+                    missingCount += 1;
+                }
+            }
+            final int [] missingData = new int [missingCount];
+            missingCount = 0;
+            for (int i = 0; i < dataShardCount; i++) {
+                if (!shardPresent[i]) {
+                    missingData[missingCount++] = i;
+                }
+            }
+
+            final ByteBuffer [] shards = new ByteBuffer [totalShardCount];
+            final ByteBuffer [] scratch = new ByteBuffer [dataShardCount];
+            for (long windowStart = 0; windowStart < shardLength; windowStart += windowSize) {
+                final int count = (int) Math.min(windowSize, shardLength - windowStart);
+                for (int i = 0; i < totalShardCount; i++) {
+                    if (shardPresent[i]) {
+                        shards[i] = inputs[i].map(FileChannel.MapMode.READ_ONLY,
+                                ShardFileHeader.SIZE + windowStart, count);
+                    }
+                    else if (i < dataShardCount && outputBytes(i, windowStart, count, shardLength, fileLength) == count) {
+                        shards[i] = output.map(FileChannel.MapMode.READ_WRITE, i * shardLength + windowStart, count);
+                    }
+                    else if (i < dataShardCount) {
+                        if (scratch[i] == null) {
+                            scratch[i] = ByteBuffer.allocateDirect((int) Math.min(windowSize, shardLength));
+                        }
+                        scratch[i].clear();
+                        scratch[i].limit(count);
+                        shards[i] = scratch[i];
+                    }
+                }
+
+                if (0 < missingData.length) {
+                    codec.decodeShards(shards, shardPresent, missingData);
+                }
+
+                // Copy the data shards that weren't decoded in place.
+                for (int i = 0; i < dataShardCount; i++) {
+                    final int bytes = outputBytes(i, windowStart, count, shardLength, fileLength);
+                    if (0 < bytes && (shardPresent[i] || bytes < count)) {
+                        ByteBuffer source = shards[i].duplicate();
+                        source.position(0);
+                        source.limit(bytes);
+                        output.map(FileChannel.MapMode.READ_WRITE, i * shardLength + windowStart, bytes).put(source);
+                    }
+                }
+            }
+        }
+        finally {
+            for (FileChannel input : inputs) {
+                if (input != null) {
+                    input.close();
+                }
+            }
+            if (output != null) {
+                output.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes of a window of a data shard that are
+     * part of the file, and not padding.
+     */
+    private static int outputBytes(int shardIndex, long windowStart, int count, long shardLength, long fileLength) {
+        long start = shardIndex * shardLength + windowStart;
+        return (int) Math.max(0, Math.min(count, fileLength - start));
+    }
+
+    /**
+     * Opens the shard files that agree with each other, and returns
+     * their header.
+     *
+     * The header that the most shard files agree on is used, so one
+     * stale file left from an earlier encode doesn't hide the good
+     * ones.  Files that don't exist, can't be read, are too short, or
+     * whose headers don't agree are treated as missing: their entries
+     * in inputs are left null and in shardPresent false.
+     *
+     * @throws IOException if fewer than dataShardCount shards are
+     *                     left, or they don't match the codec.
+     */
+    static ShardFileHeader openShards(ReedSolomon codec,
+                                      File [] shardFiles,
+                                      FileChannel [] inputs,
+                                      boolean [] shardPresent) throws IOException {
+        final int dataShardCount = codec.getDataShardCount();
+        final ShardFileHeader [] headers = new ShardFileHeader [shardFiles.length];
+        for (int i = 0; i < shardFiles.length; i++) {
+            if (shardFiles[i] == null || !shardFiles[i].exists()) {
+                continue;
+            }
+            try {
+                inputs[i] = FileChannel.open(shardFiles[i].toPath(), StandardOpenOption.READ);
+                ShardFileHeader shardHeader = ShardFileHeader.read(inputs[i]);
+                if (shardHeader.getShardIndex() == i &&
+                        ShardFileHeader.SIZE + shardHeader.getShardLength() <= inputs[i].size()) {
+                    headers[i] = shardHeader;
+                }
+            }
+            catch (IOException e) {
+                // Treat it as missing.
+            }
+        }
+
+        // Pick the header the most shards agree on.
+        ShardFileHeader best = null;
+        int bestVotes = 0;
+        for (ShardFileHeader candidate : headers) {
+            if (candidate == null) {
+                continue;
+            }
+            int votes = 0;
+            for (ShardFileHeader other : headers) {
+                if (other != null && other.isSameFile(candidate)) {
+                    votes += 1;
+                }
+            }
+            if (bestVotes < votes) {
+                best = candidate;
+                bestVotes = votes;
+            }
+        }
+
+        // Drop the shards that don't match.
+        for (int i = 0; i < shardFiles.length; i++) {
+            shardPresent[i] = (headers[i] != null && headers[i].isSameFile(best));
+            if (!shardPresent[i] && inputs[i] != null) {
+                inputs[i].close();
+                inputs[i] = null;
+            }
+        }
+        if (bestVotes < dataShardCount) {
+            throw new IOException("not enough shards: " + bestVotes + " of " + dataShardCount + " needed");
+        }
+        if (best.getDataShardCount() != dataShardCount ||
+                best.getParityShardCount() != codec.getParityShardCount()) {
+            throw new IOException("shards are " + best.getDataShardCount() + "+" +
+                    best.getParityShardCount() + ", codec is " + dataShardCount + "+" +
+                    codec.getParityShardCount());
+        }
+        return best;
+    }
+
+    /**
+     * Command-line program that decodes one file.
+     *
+     * The file name given should be the name of the file to decode, say
+     * "foo.txt".  The shards are read from "foo.txt.0", "foo.txt.1", and
+     * so on, and the result is written to "foo.txt.decoded".
+     */
+    public static void main(String [] arguments) throws IOException {
+        if (arguments.length != 1) {
+            System.out.println("Usage: MappedFileDecoder <fileName>");
+            return;
+        }
+        final File originalFile = new File(arguments[0]);
+
+        // The header of any shard says how many shards there are.
+        File [] shardFiles = new File [Galois.FIELD_SIZE];
+        for (int i = 0; i < shardFiles.length; i++) {
+            shardFiles[i] = MappedFileEncoder.shardFile(originalFile, i);
+        }
+        ShardFileHeader header = readAnyHeader(shardFiles);
+        if (header == null) {
+            System.out.println("No shard files found for " + originalFile);
+            return;
+        }
+        int totalShards = header.getDataShardCount() + header.getParityShardCount();
+        File [] files = new File [totalShards];
+        System.arraycopy(shardFiles, 0, files, 0, totalShards);
+
+        File decodedFile = new File(originalFile.getParentFile(), originalFile.getName() + ".decoded");
+        ReedSolomon codec = ReedSolomon.create(header.getDataShardCount(), header.getParityShardCount());
+        new MappedFileDecoder(codec).decode(files, decodedFile);
+        System.out.println("Wrote " + decodedFile);
+    }
+}
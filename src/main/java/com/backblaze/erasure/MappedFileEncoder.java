@@ -0,0 +1,173 @@
+/**
+ * Encodes a file of any size into shard files, using memory mapping.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Encodes a file of any size into shard files, using memory mapping.
+ *
+ * Unlike SampleEncoder, this doesn't read the file into a byte array,
+ * so it isn't limited to 2GB, and the bytes never go through the heap.
+ * The input and the shard files are mapped a window at a time with
+ * FileChannel.map, the data is copied from the input mapping to the
+ * data shard mappings, and the parity is encoded straight into the
+ * parity shard mappings with ReedSolomon.encodeParity(ByteBuffer[]).
+ *
+ * Data shard i holds bytes [i * shardLength, (i + 1) * shardLength) of
+ * the file, where shardLength is the file length divided by the number
+ * of data shards, rounded up.  The end of the last data shard is padded
+ * with zeros.  Each shard file starts with a ShardFileHeader, which
+ * holds the length of the file and the shard counts, so
+ * MappedFileDecoder needs nothing else to put the file back together.
+ *
+ * Each window maps windowSize bytes of every shard, so the address
+ * space used is about windowSize * totalShardCount.  The mappings are
+ * released when they are garbage collected.
+ */
+public class MappedFileEncoder {
+
+    /**
+     * The default number of bytes of each shard mapped at once.
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final ReedSolomon codec;
+    private final int windowSize;
+
+    /**
+     * Encodes with the given codec, using the default window size.
+     */
+    public MappedFileEncoder(ReedSolomon codec) {
+        this(codec, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Encodes with the given codec, mapping windowSize bytes of each
+     * shard at a time.
+     */
+    public MappedFileEncoder(ReedSolomon codec, int windowSize) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("windowSize must be positive: " + windowSize);
+        }
+        this.codec = codec;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Returns the length of each shard, not counting the header, for a
+     * file of the given length.
+     */
+    public static long shardLength(long fileLength, int dataShardCount) {
+        return (fileLength + dataShardCount - 1) / dataShardCount;
+    }
+
+    /**
+     * Encodes a file into shard files, which are created or replaced.
+     *
+     * @param inputFile The file to encode.
+     * @param shardFiles One file for each shard, data shards first.
+     */
+    public void encode(File inputFile, File [] shardFiles) throws IOException {
+        final int dataShardCount = codec.getDataShardCount();
+        final int totalShardCount = codec.getTotalShardCount();
+        if (shardFiles.length != totalShardCount) {
+            throw new IllegalArgumentException("wrong number of shard files: " + shardFiles.length);
+        }
+
+        FileChannel input = FileChannel.open(inputFile.toPath(), StandardOpenOption.READ);
+        FileChannel [] outputs = new FileChannel [totalShardCount];
+        try {
+            final long fileLength = input.size();
+            final long shardLength = shardLength(fileLength, dataShardCount);
+            for (int i = 0; i < totalShardCount; i++) {
+                outputs[i] = FileChannel.open(shardFiles[i].toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+                new ShardFileHeader(dataShardCount, codec.getParityShardCount(), i, fileLength, shardLength)
+                        .write(outputs[i]);
+            }
+
+            final ByteBuffer [] shards = new ByteBuffer [totalShardCount];
+            for (long windowStart = 0; windowStart < shardLength; windowStart += windowSize) {
+                final int count = (int) Math.min(windowSize, shardLength - windowStart);
+
+                // Mapping past the end of a file opened for writing
+                // makes it longer, and the new bytes are zero, which
+                // takes care of the padding.
+                for (int i = 0; i < totalShardCount; i++) {
+                    shards[i] = outputs[i].map(FileChannel.MapMode.READ_WRITE, ShardFileHeader.SIZE + windowStart, count);
+                }
+
+                // Copy the data in.
+                for (int i = 0; i < dataShardCount; i++) {
+                    final long inputStart = i * shardLength + windowStart;
+                    final long available = Math.min(count, fileLength - inputStart);
+                    if (0 < available) {
+                        MappedByteBuffer in = input.map(FileChannel.MapMode.READ_ONLY, inputStart, available);
+                        shards[i].put(in);
+                        shards[i].position(0);
+                    }
+                }
+
+                codec.encodeParity(shards);
+            }
+        }
+        finally {
+            input.close();
+            for (FileChannel output : outputs) {
+                if (output != null) {
+                    output.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the name of the file holding one shard of a file:
+     * "foo.txt.0", "foo.txt.1", and so on.
+     */
+    public static File shardFile(File file, int shardIndex) {
+        return new File(file.getParentFile(), file.getName() + "." + shardIndex);
+    }
+
+    /**
+     * Command-line program that encodes one file.
+     */
+    public static void main(String [] arguments) throws IOException {
+        if (arguments.length != 1 && arguments.length != 3) {
+            System.out.println("Usage: MappedFileEncoder <fileName> [<dataShards> <parityShards>]");
+            return;
+        }
+        final File inputFile = new File(arguments[0]);
+        if (!inputFile.exists()) {
+            System.out.println("Cannot read input file: " + inputFile);
+            return;
+        }
+        int dataShards = 4;
+        int parityShards = 2;
+        if (arguments.length == 3) {
+            dataShards = Integer.parseInt(arguments[1]);
+            parityShards = Integer.parseInt(arguments[2]);
+        }
+
+        ReedSolomon codec = ReedSolomon.create(dataShards, parityShards);
+        File [] shardFiles = new File [dataShards + parityShards];
+        for (int i = 0; i < shardFiles.length; i++) {
+            shardFiles[i] = shardFile(inputFile, i);
+        }
+        new MappedFileEncoder(codec).encode(inputFile, shardFiles);
+        for (File shardFile : shardFiles) {
+            System.out.println("wrote " + shardFile);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+/**
+ * Interface for a way of building the encoding matrix.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+/**
+ * Builds the matrix that ReedSolomon uses for encoding.
+ *
+ * The matrix has one row for each shard and one column for each data
+ * shard.  The top square must be the identity matrix, so that the data
+ * shards are unchanged by encoding, and every square matrix made from
+ * any dataShards of its rows must be invertible, so that any dataShards
+ * shards are enough to rebuild the rest.
+ *
+ * VandermondeMatrixGenerator is the original construction, and is the
+ * default.  CauchyMatrixGenerator is cheaper to build for large layouts,
+ * and can pick coefficients that are cheaper for XOR-based coding.
+ */
+public interface MatrixGenerator {
+
+    /**
+     * Returns the encoding matrix for the given number of data shards
+     * and total shards.
+     */
+    Matrix buildMatrix(int dataShards, int totalShards);
+}
@@ -0,0 +1,63 @@
+/**
+ * Interface for a method of looping over inputs held in MemorySegments
+ * and encoding them.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * The same operations as CodingLoop, on shards held in MemorySegments.
+ *
+ * Offsets and byte counts are longs, so shards can be bigger than 2GB.
+ * The segments can be allocated by an Arena, mapped from a file with
+ * FileChannel.map(), or wrap heap arrays.
+ */
+public interface MemorySegmentCodingLoop {
+
+    /**
+     * Multiplies a subset of rows from a coding matrix by a full set of
+     * input shards to produce some output shards.
+     *
+     * @param matrixRows The rows from the matrix to use.
+     * @param inputs The input shards.  Extra segments at the end are
+     *               ignored.
+     * @param inputCount The number of input segments.
+     * @param outputs Segments where the computed shards are stored.
+     * @param outputCount The number of outputs to compute.
+     * @param offset The index in each segment of the first byte to process.
+     * @param byteCount The number of bytes to process.
+     */
+    void codeSomeShards(final byte [] [] matrixRows,
+                        final MemorySegment [] inputs,
+                        final int inputCount,
+                        final MemorySegment [] outputs,
+                        final int outputCount,
+                        final long offset,
+                        final long byteCount);
+
+    /**
+     * Multiplies a subset of rows from a coding matrix by a full set of
+     * input shards, and checks that the results match the shards in
+     * toCheck.
+     *
+     * @param matrixRows The rows from the matrix to use.
+     * @param inputs The input shards.  Extra segments at the end are
+     *               ignored.
+     * @param inputCount The number of input segments.
+     * @param toCheck Segments holding the shards to check.
+     * @param checkCount The number of shards to check.
+     * @param offset The index in each segment of the first byte to process.
+     * @param byteCount The number of bytes to process.
+     */
+    boolean checkSomeShards(final byte [] [] matrixRows,
+                            final MemorySegment [] inputs,
+                            final int inputCount,
+                            final MemorySegment [] toCheck,
+                            final int checkCount,
+                            final long offset,
+                            final long byteCount);
+}
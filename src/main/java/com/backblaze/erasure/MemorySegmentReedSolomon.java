@@ -0,0 +1,179 @@
+/**
+ * Reed-Solomon Coding of shards held in MemorySegments.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Encodes, checks, and decodes shards held in MemorySegments, using the
+ * matrix of a ReedSolomon codec.
+ *
+ * This is separate from ReedSolomon because the Foreign Function and
+ * Memory API needs Java 22.  Offsets and byte counts are longs, so
+ * shards can be bigger than 2GB, and the shards can live off the heap,
+ * in memory allocated by an Arena or mapped from a file.
+ *
+ * Decoding shares the decoding matrix cache of the ReedSolomon codec.
+ */
+public class MemorySegmentReedSolomon {
+
+    private final ReedSolomon codec;
+    private final MemorySegmentCodingLoop codingLoop;
+
+    /**
+     * Uses the matrix from the given codec, with the default coding loop.
+     */
+    public MemorySegmentReedSolomon(ReedSolomon codec) {
+        this(codec, new MemorySegmentSwarCodingLoop());
+    }
+
+    /**
+     * Uses the matrix from the given codec, with a chosen coding loop.
+     */
+    public MemorySegmentReedSolomon(ReedSolomon codec, MemorySegmentCodingLoop codingLoop) {
+        this.codec = codec;
+        this.codingLoop = codingLoop;
+    }
+
+    /**
+     * Returns the codec whose matrix is used.
+     */
+    public ReedSolomon getCodec() {
+        return codec;
+    }
+
+    /**
+     * Encodes parity for a set of data shards.
+     *
+     * @param shards An array containing data shards followed by parity shards.
+     *               All of the segments must be the same size.
+     * @param offset The index of the first byte in each shard to encode.
+     * @param byteCount The number of bytes to encode in each shard.
+     */
+    public void encodeParity(MemorySegment [] shards, long offset, long byteCount) {
+        checkSegmentsAndSizes(shards, offset, byteCount);
+
+        final int dataShardCount = codec.getDataShardCount();
+        final int parityShardCount = codec.getParityShardCount();
+        MemorySegment [] outputs = new MemorySegment [parityShardCount];
+        System.arraycopy(shards, dataShardCount, outputs, 0, parityShardCount);
+
+        codingLoop.codeSomeShards(
+                codec.getParityRows(),
+                shards, dataShardCount,
+                outputs, parityShardCount,
+                offset, byteCount);
+    }
+
+    /**
+     * Returns true if the parity shards contain the right data.
+     *
+     * @param shards An array containing data shards followed by parity shards.
+     *               All of the segments must be the same size.
+     * @param offset The index of the first byte in each shard to check.
+     * @param byteCount The number of bytes to check in each shard.
+     */
+    public boolean isParityCorrect(MemorySegment [] shards, long offset, long byteCount) {
+        checkSegmentsAndSizes(shards, offset, byteCount);
+
+        final int dataShardCount = codec.getDataShardCount();
+        final int parityShardCount = codec.getParityShardCount();
+        MemorySegment [] toCheck = new MemorySegment [parityShardCount];
+        System.arraycopy(shards, dataShardCount, toCheck, 0, parityShardCount);
+
+        return codingLoop.checkSomeShards(
+                codec.getParityRows(),
+                shards, dataShardCount,
+                toCheck, parityShardCount,
+                offset, byteCount);
+    }
+
+    /**
+     * Given a list of shards, some of which contain data, fills in the
+     * ones that don't have data.
+     *
+     * Quickly does nothing if all of the shards are present.
+     */
+    public void decodeMissing(MemorySegment [] shards,
+                              boolean [] shardPresent,
+                              long offset,
+                              long byteCount) {
+        checkSegmentsAndSizes(shards, offset, byteCount);
+
+        final int dataShardCount = codec.getDataShardCount();
+        final int parityShardCount = codec.getParityShardCount();
+        final int totalShardCount = codec.getTotalShardCount();
+
+        // Quick check: are all of the shards present?
+        int numberPresent = 0;
+        for (int i = 0; i < totalShardCount; i++) {
+            if (shardPresent[i]) {
+                numberPresent += 1;
+            }
+        }
+        if (numberPresent == totalShardCount) {
+            return;
+        }
+        if (numberPresent < dataShardCount) {
+            throw new IllegalArgumentException("Not enough shards present");
+        }
+
+        // The inputs for rebuilding the missing shards are the first
+        // dataShardCount shards that are present.
+        MemorySegment [] subShards = new MemorySegment [dataShardCount];
+        {
+            int subMatrixRow = 0;
+            for (int matrixRow = 0; matrixRow < totalShardCount && subMatrixRow < dataShardCount; matrixRow++) {
+                if (shardPresent[matrixRow]) {
+                    subShards[subMatrixRow] = shards[matrixRow];
+                    subMatrixRow += 1;
+                }
+            }
+        }
+
+        // Re-create all of the missing shards, data and parity, in
+        // one pass.
+        byte [] [] matrixRows = codec.getDecodeRows(shardPresent);
+        MemorySegment [] outputs = new MemorySegment [parityShardCount];
+        int outputCount = 0;
+        for (int iShard = 0; iShard < totalShardCount; iShard++) {
+            if (!shardPresent[iShard]) {
+                outputs[outputCount] = shards[iShard];
+                outputCount += 1;
+            }
+        }
+        codingLoop.codeSomeShards(
+                matrixRows,
+                subShards, dataShardCount,
+                outputs, outputCount,
+                offset, byteCount);
+    }
+
+    /**
+     * Checks the consistency of arguments passed to public methods.
+     */
+    private void checkSegmentsAndSizes(MemorySegment [] shards, long offset, long byteCount) {
+        if (shards.length != codec.getTotalShardCount()) {
+            throw new IllegalArgumentException("wrong number of shards: " + shards.length);
+        }
+        long shardLength = shards[0].byteSize();
+        for (int i = 1; i < shards.length; i++) {
+            if (shards[i].byteSize() != shardLength) {
+                throw new IllegalArgumentException("Shards are different sizes");
+            }
+        }
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset is negative: " + offset);
+        }
+        if (byteCount < 0) {
+            throw new IllegalArgumentException("byteCount is negative: " + byteCount);
+        }
+        if (shardLength < offset + byteCount) {
+            throw new IllegalArgumentException("buffers too small: " + (offset + byteCount));
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * A coding loop for shards held in MemorySegments.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * A coding loop for shards held in MemorySegments, working on eight
+ * bytes at a time the same way as InputOutputLongSwarCodingLoop.
+ *
+ * Words are read and written with ValueLayout.JAVA_LONG_UNALIGNED, so
+ * the offset doesn't need to be a multiple of eight.  The loops are
+ * nested input, output, word.
+ */
+public class MemorySegmentSwarCodingLoop implements MemorySegmentCodingLoop {
+
+    private static final ValueLayout.OfLong WORD = ValueLayout.JAVA_LONG_UNALIGNED;
+
+    private static final ValueLayout.OfByte BYTE = ValueLayout.JAVA_BYTE;
+
+    @Override
+    public void codeSomeShards(
+            byte[][] matrixRows,
+            MemorySegment[] inputs, int inputCount,
+            MemorySegment[] outputs, int outputCount,
+            long offset, long byteCount) {
+
+        for (int iInput = 0; iInput < inputCount; iInput++) {
+            final MemorySegment inputShard = inputs[iInput];
+            for (int iOutput = 0; iOutput < outputCount; iOutput++) {
+                final MemorySegment outputShard = outputs[iOutput];
+                final byte coefficient = matrixRows[iOutput][iInput];
+                multiplySegment(coefficient, inputShard, outputShard, iInput != 0, offset, byteCount);
+            }
+        }
+    }
+
+    @Override
+    public boolean checkSomeShards(
+            byte[][] matrixRows,
+            MemorySegment[] inputs, int inputCount,
+            MemorySegment[] toCheck, int checkCount,
+            long offset, long byteCount) {
+
+        // Compute each word of each output and compare it right away,
+        // so no temp buffer is needed.
+        final long wordEnd = offset + (byteCount & ~7L);
+        long iByte = offset;
+        for (; iByte < wordEnd; iByte += 8) {
+            for (int iOutput = 0; iOutput < checkCount; iOutput++) {
+                final byte [] matrixRow = matrixRows[iOutput];
+                long value = 0;
+                for (int iInput = 0; iInput < inputCount; iInput++) {
+                    value ^= InputOutputLongSwarCodingLoop.multiplyWord(
+                            inputs[iInput].get(WORD, iByte),
+                            InputOutputLongSwarCodingLoop.BIT_PRODUCTS[matrixRow[iInput] & 0xFF]);
+                }
+                if (toCheck[iOutput].get(WORD, iByte) != value) {
+                    return false;
+                }
+            }
+        }
+
+        final byte [] [] table = Galois.MULTIPLICATION_TABLE;
+        for (; iByte < offset + byteCount; iByte++) {
+            for (int iOutput = 0; iOutput < checkCount; iOutput++) {
+                final byte [] matrixRow = matrixRows[iOutput];
+                int value = 0;
+                for (int iInput = 0; iInput < inputCount; iInput++) {
+                    value ^= table[matrixRow[iInput] & 0xFF][inputs[iInput].get(BYTE, iByte) & 0xFF];
+                }
+                if (toCheck[iOutput].get(BYTE, iByte) != (byte) value) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Multiplies one input shard by a coefficient, and either stores
+     * the result in the output shard or XORs it into the output shard.
+     */
+    private static void multiplySegment(byte coefficient,
+                                        MemorySegment inputShard,
+                                        MemorySegment outputShard,
+                                        boolean accumulate,
+                                        long offset,
+                                        long byteCount) {
+
+        final long [] products = InputOutputLongSwarCodingLoop.BIT_PRODUCTS[coefficient & 0xFF];
+        final long end = offset + byteCount;
+        final long wordEnd = offset + (byteCount & ~7L);
+        long iByte = offset;
+        for (; iByte < wordEnd; iByte += 8) {
+            long product = InputOutputLongSwarCodingLoop.multiplyWord(inputShard.get(WORD, iByte), products);
+            if (accumulate) {
+                product ^= outputShard.get(WORD, iByte);
+            }
+            outputShard.set(WORD, iByte, product);
+        }
+
+        final byte [] multTableRow = Galois.MULTIPLICATION_TABLE[coefficient & 0xFF];
+        for (; iByte < end; iByte++) {
+            byte product = multTableRow[inputShard.get(BYTE, iByte) & 0xFF];
+            if (accumulate) {
+                product ^= outputShard.get(BYTE, iByte);
+            }
+            outputShard.set(BYTE, iByte, product);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Interface for a coding loop that works on packets of bits.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+/**
+ * A sibling of CodingLoop for bit-matrix (Cauchy Reed-Solomon) coding.
+ *
+ * The bytes being coded are split into groups of eight packets of
+ * packetSize bytes each.  Each packet holds one bit of a run of 8-bit
+ * symbols: bit k of symbol j in a group is bit j of packet k.  Because
+ * multiplying by a coefficient is linear over the bits, it can be done
+ * with an 8x8 matrix of bits, and each one in that matrix is an XOR of
+ * a whole packet.
+ *
+ * This is a different layout from the one CodingLoop uses, so the
+ * parity is different, and shards coded with one kind of loop can't be
+ * decoded with the other.  The matrix rows are the same, though, so
+ * the rows from ReedSolomon can be used for encoding and decoding.
+ *
+ * The packet size must be a multiple of 8, and byteCount must be a
+ * multiple of 8 * packetSize.
+ */
+public interface PacketCodingLoop {
+
+    /**
+     * Multiplies a subset of rows from a coding matrix by a full set of
+     * input shards to produce some output shards.
+     *
+     * @param matrixRows The rows from the matrix to use.
+     * @param inputs An array of byte arrays, each of which is one input shard.
+     * @param inputCount The number of input byte arrays.
+     * @param outputs Byte arrays where the computed shards are stored.
+     * @param outputCount The number of outputs to compute.
+     * @param offset The index in the inputs and output of the first byte
+     *               to process.
+     * @param byteCount The number of bytes to process.
+     * @param packetSize The number of bytes in each packet.
+     */
+    void codeSomeShards(final byte [] [] matrixRows,
+                        final byte [] [] inputs,
+                        final int inputCount,
+                        final byte [] [] outputs,
+                        final int outputCount,
+                        final int offset,
+                        final int byteCount,
+                        final int packetSize);
+
+    /**
+     * Multiplies a subset of rows from a coding matrix by a full set of
+     * input shards, and checks that the results match the shards in
+     * toCheck.
+     *
+     * @param matrixRows The rows from the matrix to use.
+     * @param inputs An array of byte arrays, each of which is one input shard.
+     * @param inputCount The number of input byte arrays.
+     * @param toCheck Byte arrays holding the shards to check.
+     * @param checkCount The number of shards to check.
+     * @param offset The index in the inputs and output of the first byte
+     *               to process.
+     * @param byteCount The number of bytes to process.
+     * @param packetSize The number of bytes in each packet.
+     */
+    boolean checkSomeShards(final byte [] [] matrixRows,
+                            final byte [] [] inputs,
+                            final int inputCount,
+                            final byte [] [] toCheck,
+                            final int checkCount,
+                            final int offset,
+                            final int byteCount,
+                            final int packetSize);
+}
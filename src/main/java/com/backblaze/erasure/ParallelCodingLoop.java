@@ -0,0 +1,213 @@
+/**
+ * A coding loop that splits the work across a fork/join pool.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A coding loop that splits the work across a fork/join pool.
+ *
+ * Each byte position in the shards is coded independently of the
+ * others, so the range [offset, offset + byteCount) can be cut into
+ * chunks that are handed to another coding loop on different threads.
+ * Because ReedSolomon does all of its work through its coding loop,
+ * wrapping a loop in this class makes encodeParity(), isParityCorrect()
+ * and decodeMissing() all run in parallel:
+ *
+ *     new ReedSolomon(17, 3, new ParallelCodingLoop(new InputOutputByteTableCodingLoop(), pool))
+ *
+ * The chunk size is the number of bytes from each shard that one task
+ * works on.  It should be small enough that one chunk of every input
+ * and output shard fits in the processor cache.  Ranges no bigger than
+ * one chunk are coded on the calling thread.
+ *
+ * ByteBuffer shards are split the same way.  If the wrapped loop
+ * doesn't work on ByteBuffers, InputOutputLongSwarCodingLoop is used
+ * for them.
+ */
+public class ParallelCodingLoop implements CodingLoop, ByteBufferCodingLoop {
+
+    /**
+     * The default number of bytes of each shard given to one task.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private final CodingLoop codingLoop;
+    private final ByteBufferCodingLoop bufferCodingLoop;
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    /**
+     * Wraps a coding loop, using the default chunk size.
+     */
+    public ParallelCodingLoop(CodingLoop codingLoop, ForkJoinPool pool) {
+        this(codingLoop, pool, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Wraps a coding loop.
+     *
+     * @param codingLoop The loop that does the coding for each chunk.
+     * @param pool The pool to run the chunks in.
+     * @param chunkSize The number of bytes of each shard in one chunk.
+     */
+    public ParallelCodingLoop(CodingLoop codingLoop, ForkJoinPool pool, int chunkSize) {
+        if (codingLoop == null) {
+            throw new IllegalArgumentException("codingLoop is null");
+        }
+        if (pool == null) {
+            throw new IllegalArgumentException("pool is null");
+        }
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize is not positive: " + chunkSize);
+        }
+        this.codingLoop = codingLoop;
+        this.bufferCodingLoop = (codingLoop instanceof ByteBufferCodingLoop)
+                ? (ByteBufferCodingLoop) codingLoop
+                : new InputOutputLongSwarCodingLoop();
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Returns the coding loop that does the work for each chunk.
+     */
+    public CodingLoop getCodingLoop() {
+        return codingLoop;
+    }
+
+    /**
+     * Returns the number of bytes of each shard in one chunk.
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    @Override
+    public void codeSomeShards(
+            final byte[][] matrixRows,
+            final byte[][] inputs, final int inputCount,
+            final byte[][] outputs, final int outputCount,
+            final int offset, final int byteCount) {
+
+        run(offset, byteCount, new RangeOperation() {
+            @Override
+            public boolean run(int rangeOffset, int rangeByteCount) {
+                codingLoop.codeSomeShards(matrixRows, inputs, inputCount, outputs, outputCount,
+                        rangeOffset, rangeByteCount);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Checks the shards in parallel.  The chunks use different parts of
+     * the temp buffer, so they can share it.
+     */
+    @Override
+    public boolean checkSomeShards(
+            final byte[][] matrixRows,
+            final byte[][] inputs, final int inputCount,
+            final byte[][] toCheck, final int checkCount,
+            final int offset, final int byteCount,
+            final byte[] tempBuffer) {
+
+        return run(offset, byteCount, new RangeOperation() {
+            @Override
+            public boolean run(int rangeOffset, int rangeByteCount) {
+                return codingLoop.checkSomeShards(matrixRows, inputs, inputCount, toCheck, checkCount,
+                        rangeOffset, rangeByteCount, tempBuffer);
+            }
+        });
+    }
+
+    @Override
+    public void codeSomeShards(
+            final byte[][] matrixRows,
+            final ByteBuffer[] inputs, final int inputCount,
+            final ByteBuffer[] outputs, final int outputCount,
+            final int offset, final int byteCount) {
+
+        run(offset, byteCount, new RangeOperation() {
+            @Override
+            public boolean run(int rangeOffset, int rangeByteCount) {
+                bufferCodingLoop.codeSomeShards(matrixRows, inputs, inputCount, outputs, outputCount,
+                        rangeOffset, rangeByteCount);
+                return true;
+            }
+        });
+    }
+
+    @Override
+    public boolean checkSomeShards(
+            final byte[][] matrixRows,
+            final ByteBuffer[] inputs, final int inputCount,
+            final ByteBuffer[] toCheck, final int checkCount,
+            final int offset, final int byteCount) {
+
+        return run(offset, byteCount, new RangeOperation() {
+            @Override
+            public boolean run(int rangeOffset, int rangeByteCount) {
+                return bufferCodingLoop.checkSomeShards(matrixRows, inputs, inputCount, toCheck, checkCount,
+                        rangeOffset, rangeByteCount);
+            }
+        });
+    }
+
+    /**
+     * Runs an operation over a range of bytes, in chunks on the pool,
+     * and returns true if it returned true for all of the chunks.
+     */
+    private boolean run(int offset, int byteCount, RangeOperation operation) {
+        if (byteCount <= chunkSize) {
+            return operation.run(offset, byteCount);
+        }
+        return pool.invoke(new RangeTask(operation, offset, byteCount));
+    }
+
+    /**
+     * Something to do to one chunk of the shards.
+     */
+    private interface RangeOperation {
+        boolean run(int offset, int byteCount);
+    }
+
+    /**
+     * Runs an operation on one range of bytes, splitting it in half, on
+     * a chunk boundary, until the pieces are no bigger than one chunk.
+     */
+    private class RangeTask extends RecursiveTask<Boolean> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient RangeOperation operation;
+        private final int offset;
+        private final int byteCount;
+
+        RangeTask(RangeOperation operation, int offset, int byteCount) {
+            this.operation = operation;
+            this.offset = offset;
+            this.byteCount = byteCount;
+        }
+
+        @Override
+        protected Boolean compute() {
+            if (byteCount <= chunkSize) {
+                return operation.run(offset, byteCount);
+            }
+            int chunks = (byteCount + chunkSize - 1) / chunkSize;
+            int firstCount = (chunks / 2) * chunkSize;
+            RangeTask second = new RangeTask(operation, offset + firstCount, byteCount - firstCount);
+            second.fork();
+            boolean firstResult = new RangeTask(operation, offset, firstCount).compute();
+            boolean secondResult = second.join();
+            return firstResult && secondResult;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/**
+ * Decodes a file from shard files, reading and writing shards in parallel.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Decodes a file from the shard files written by ParallelFileEncoder or
+ * MappedFileEncoder, with the reads for all of the shards going on at
+ * the same time.
+ *
+ * Like the encoder, it double buffers: while one window is decoded and
+ * written to the output file, the next window of every shard that's
+ * present is being read.  Only the shards needed are read: if all of
+ * the data shards are there, the parity shards are not touched.  Only
+ * the missing data shards are decoded; parity shards that aren't read
+ * are not rebuilt.
+ *
+ * A shard file is missing if it doesn't exist, can't be opened, is too
+ * short, or has a header that doesn't match the one most shard files
+ * have.
+ */
+public class ParallelFileDecoder {
+
+    private final ReedSolomon codec;
+    private final ExecutorService executor;
+    private final int bufferSize;
+
+    /**
+     * Decodes with the given codec, on a new thread pool for each file.
+     */
+    public ParallelFileDecoder(ReedSolomon codec) {
+        this(codec, null, ParallelFileEncoder.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Decodes with the given codec, doing the I/O on the given executor.
+     *
+     * @param executor Where the reads and writes are done, or null to
+     *                 make a thread pool for each file.
+     * @param bufferSize The number of bytes of each shard in one buffer.
+     */
+    public ParallelFileDecoder(ReedSolomon codec, ExecutorService executor, int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize must be positive: " + bufferSize);
+        }
+        this.codec = codec;
+        this.executor = executor;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Decodes shard files into the original file, which is created or
+     * replaced.
+     *
+     * @param shardFiles One file for each shard, data shards first.
+     *                   Missing shards can be null.
+     * @param outputFile Where to write the original file.
+     * @throws IOException if there aren't enough good shard files.
+     */
+    public void decode(File [] shardFiles, File outputFile) throws IOException {
+        final int dataShardCount = codec.getDataShardCount();
+        final int totalShardCount = codec.getTotalShardCount();
+        if (shardFiles.length != totalShardCount) {
+            throw new IllegalArgumentException("wrong number of shard files: " + shardFiles.length);
+        }
+
+        final FileChannel [] inputs = new FileChannel [totalShardCount];
+        final boolean [] shardPresent = new boolean [totalShardCount];
+        final Future<?> [] [] pending = new Future<?> [2] [];
+        final Future<?> [] [] writes = new Future<?> [2] [];
+        ExecutorService ioExecutor = null;
+        FileChannel output = null;
+        try {
+            final ShardFileHeader header = MappedFileDecoder.openShards(codec, shardFiles, inputs, shardPresent);
+            final long fileLength = header.getFileLength();
+            final long shardLength = header.getShardLength();
+
+            // Use the first dataShardCount shards that are present, so
+            // parity is only read when data is missing.
+            int used = 0;
+            for (int i = 0; i < totalShardCount; i++) {
+                if (shardPresent[i] && dataShardCount <= used) {
+                    shardPresent[i] = false;
+                    inputs[i].close();
+                    inputs[i] = null;
+                }
+                if (shardPresent[i]) {
+                    used += 1;
+                }
+            }
+
+            // Only the missing data shards are rebuilt; the parity shards
+            // that aren't read don't need buffers.
+            int missingCount = 0;
+            for (int i = 0; i < dataShardCount; i++) {
+                if (!shardPresent[i]) {
+                    missingCount += 1;
+                }
+            }
+            final int [] missingData = new int [missingCount];
+            missingCount = 0;
+            for (int i = 0; i < dataShardCount; i++) {
+                if (!shardPresent[i]) {
+                    missingData[missingCount++] = i;
+                }
+            }
+
+            ioExecutor = (executor != null) ? executor : Executors.newFixedThreadPool(totalShardCount);
+            output = FileChannel.open(outputFile.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE);
+
+            final ByteBuffer [] [] buffers = new ByteBuffer [2] [totalShardCount];
+            for (int set = 0; set < 2; set++) {
+                for (int i = 0; i < totalShardCount; i++) {
+                    if (i < dataShardCount || shardPresent[i]) {
+                        buffers[set][i] = ByteBuffer.allocateDirect((int) Math.min(bufferSize, Math.max(1, shardLength)));
+                    }
+                }
+            }
+
+            final long windowCount = (shardLength + bufferSize - 1) / bufferSize;
+            if (0 < windowCount) {
+                pending[0] = submitReads(ioExecutor, inputs, buffers[0], 0, shardLength);
+            }
+            for (long window = 0; window < windowCount; window++) {
+                final int set = (int) (window % 2);
+                final long windowStart = window * bufferSize;
+
+                // Wait for this window's shards, and fill in the missing
+                // data shards.
+                ParallelFileEncoder.awaitAll(pending[set]);
+                if (0 < missingData.length) {
+                    codec.decodeShards(buffers[set], shardPresent, missingData);
+                }
+
+                // Write the data, and start reading the next window into
+                // the other buffers once their writes are done.
+                writes[set] = submitWrites(ioExecutor, output, buffers[set], windowStart, fileLength, shardLength);
+                if (window + 1 < windowCount) {
+                    ParallelFileEncoder.awaitAll(writes[1 - set]);
+                    pending[1 - set] = submitReads(ioExecutor, inputs, buffers[1 - set],
+                            windowStart + bufferSize, shardLength);
+                }
+            }
+            ParallelFileEncoder.awaitAll(writes[0]);
+            ParallelFileEncoder.awaitAll(writes[1]);
+        }
+        finally {
+            for (int set = 0; set < 2; set++) {
+                ParallelFileEncoder.cancelAll(pending[set]);
+                ParallelFileEncoder.cancelAll(writes[set]);
+            }
+            if (executor == null && ioExecutor != null) {
+                ioExecutor.shutdown();
+            }
+            for (FileChannel input : inputs) {
+                if (input != null) {
+                    input.close();
+                }
+            }
+            if (output != null) {
+                output.close();
+            }
+        }
+    }
+
+    /**
+     * Starts reading one window of each shard that's present.  The
+     * buffers for the missing data shards are set to the same size.
+     */
+    private Future<?> [] submitReads(ExecutorService ioExecutor,
+                                     final FileChannel [] inputs,
+                                     final ByteBuffer [] buffers,
+                                     final long windowStart,
+                                     final long shardLength) {
+        final int count = (int) Math.min(bufferSize, shardLength - windowStart);
+        final Future<?> [] result = new Future<?> [codec.getDataShardCount()];
+        int taskCount = 0;
+        for (int i = 0; i < inputs.length; i++) {
+            final ByteBuffer buffer = buffers[i];
+            if (buffer == null) {
+                continue;
+            }
+            buffer.clear();
+            buffer.limit(count);
+            if (inputs[i] != null) {
+                final FileChannel input = inputs[i];
+                result[taskCount] = ioExecutor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        ParallelFileEncoder.readFully(input, buffer, ShardFileHeader.SIZE + windowStart);
+                        buffer.flip();
+                        return null;
+                    }
+                });
+                taskCount += 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Starts writing the part of each data shard that's in the file,
+     * and not padding.
+     */
+    private Future<?> [] submitWrites(ExecutorService ioExecutor,
+                                      final FileChannel output,
+                                      final ByteBuffer [] buffers,
+                                      final long windowStart,
+                                      final long fileLength,
+                                      final long shardLength) {
+        final Future<?> [] result = new Future<?> [codec.getDataShardCount()];
+        for (int i = 0; i < result.length; i++) {
+            final long start = i * shardLength + windowStart;
+            final ByteBuffer buffer = buffers[i].duplicate();
+            buffer.position(0);
+            buffer.limit((int) Math.max(0, Math.min(buffer.limit(), fileLength - start)));
+            result[i] = ioExecutor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    ParallelFileEncoder.writeFully(output, buffer, start);
+                    return null;
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Command-line program that decodes one file.
+     *
+     * The file name given should be the name of the file to decode, say
+     * "foo.txt".  The shards are read from "foo.txt.0", "foo.txt.1", and
+     * so on, and the result is written to "foo.txt.decoded".
+     */
+    public static void main(String [] arguments) throws IOException {
+        if (arguments.length != 1) {
+            System.out.println("Usage: ParallelFileDecoder <fileName>");
+            return;
+        }
+        final File originalFile = new File(arguments[0]);
+
+        File [] shardFiles = new File [Galois.FIELD_SIZE];
+        for (int i = 0; i < shardFiles.length; i++) {
+            shardFiles[i] = MappedFileEncoder.shardFile(originalFile, i);
+        }
+        ShardFileHeader header = MappedFileDecoder.readAnyHeader(shardFiles);
+        if (header == null) {
+            System.out.println("No shard files found for " + originalFile);
+            return;
+        }
+        int totalShards = header.getDataShardCount() + header.getParityShardCount();
+        File [] files = new File [totalShards];
+        System.arraycopy(shardFiles, 0, files, 0, totalShards);
+
+        File decodedFile = new File(originalFile.getParentFile(), originalFile.getName() + ".decoded");
+        ReedSolomon codec = ReedSolomon.create(header.getDataShardCount(), header.getParityShardCount());
+        new ParallelFileDecoder(codec).decode(files, decodedFile);
+        System.out.println("Wrote " + decodedFile);
+    }
+}
@@ -0,0 +1,313 @@
+/**
+ * Encodes a file into shard files, reading and writing shards in parallel.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Encodes a file into shard files, with the reads and writes for all
+ * of the shards going on at the same time.
+ *
+ * When each shard file is on a different disk, writing the shards one
+ * after another only keeps one disk busy.  This encoder gives each
+ * shard its own I/O task for each window, on an ExecutorService, so all
+ * of the disks work at once.  It also double buffers: while the shards
+ * of one window are being written, the data for the next window is
+ * read and encoded in the other set of buffers.
+ *
+ * The shard files are the same as the ones MappedFileEncoder writes,
+ * with a ShardFileHeader, and either decoder can read them.  All I/O is
+ * done with positional reads and writes on FileChannels, into direct
+ * buffers, so memory use is 2 * bufferSize * totalShardCount.
+ *
+ * The executor should have at least one thread per shard, or it can be
+ * a virtual-thread-per-task executor on Java 21 and later.  If none is
+ * given, a pool with one thread per shard is made for each call.
+ */
+public class ParallelFileEncoder {
+
+    /**
+     * The default number of bytes of each shard read or written by one
+     * task.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+    private final ReedSolomon codec;
+    private final ExecutorService executor;
+    private final int bufferSize;
+
+    /**
+     * Encodes with the given codec, on a new thread pool for each file.
+     */
+    public ParallelFileEncoder(ReedSolomon codec) {
+        this(codec, null, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Encodes with the given codec, doing the I/O on the given executor.
+     *
+     * @param executor Where the reads and writes are done, or null to
+     *                 make a thread pool for each file.
+     * @param bufferSize The number of bytes of each shard in one buffer.
+     */
+    public ParallelFileEncoder(ReedSolomon codec, ExecutorService executor, int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize must be positive: " + bufferSize);
+        }
+        this.codec = codec;
+        this.executor = executor;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Encodes a file into shard files, which are created or replaced.
+     *
+     * @param inputFile The file to encode.
+     * @param shardFiles One file for each shard, data shards first.
+     */
+    public void encode(File inputFile, File [] shardFiles) throws IOException {
+        final int dataShardCount = codec.getDataShardCount();
+        final int totalShardCount = codec.getTotalShardCount();
+        if (shardFiles.length != totalShardCount) {
+            throw new IllegalArgumentException("wrong number of shard files: " + shardFiles.length);
+        }
+
+        final ExecutorService ioExecutor = (executor != null) ? executor : Executors.newFixedThreadPool(totalShardCount);
+        final FileChannel input = FileChannel.open(inputFile.toPath(), StandardOpenOption.READ);
+        final FileChannel [] outputs = new FileChannel [totalShardCount];
+        final Future<?> [] [] pending = new Future<?> [2] [];
+        try {
+            final long fileLength = input.size();
+            final long shardLength = MappedFileEncoder.shardLength(fileLength, dataShardCount);
+            for (int i = 0; i < totalShardCount; i++) {
+                outputs[i] = FileChannel.open(shardFiles[i].toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.WRITE);
+                new ShardFileHeader(dataShardCount, codec.getParityShardCount(), i, fileLength, shardLength)
+                        .write(outputs[i]);
+            }
+
+            final ByteBuffer [] [] buffers = new ByteBuffer [2] [totalShardCount];
+            for (int set = 0; set < 2; set++) {
+                for (int i = 0; i < totalShardCount; i++) {
+                    buffers[set][i] = ByteBuffer.allocateDirect((int) Math.min(bufferSize, Math.max(1, shardLength)));
+                }
+            }
+
+            final long windowCount = (shardLength + bufferSize - 1) / bufferSize;
+            if (0 < windowCount) {
+                pending[0] = submitReads(ioExecutor, input, buffers[0], 0, fileLength, shardLength);
+            }
+            for (long window = 0; window < windowCount; window++) {
+                final int set = (int) (window % 2);
+                final long windowStart = window * bufferSize;
+
+                // Wait for this window's data, and encode it.
+                awaitAll(pending[set]);
+                codec.encodeParity(buffers[set]);
+
+                // Write it out, and start reading the next window into
+                // the other buffers once their writes are done.
+                pending[set] = submitWrites(ioExecutor, outputs, buffers[set], ShardFileHeader.SIZE + windowStart);
+                if (window + 1 < windowCount) {
+                    awaitAll(pending[1 - set]);
+                    pending[1 - set] = submitReads(ioExecutor, input, buffers[1 - set],
+                            windowStart + bufferSize, fileLength, shardLength);
+                }
+            }
+            awaitAll(pending[0]);
+            awaitAll(pending[1]);
+        }
+        finally {
+            cancelAll(pending[0]);
+            cancelAll(pending[1]);
+            if (executor == null) {
+                ioExecutor.shutdown();
+            }
+            input.close();
+            for (FileChannel output : outputs) {
+                if (output != null) {
+                    output.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts reading one window of each data shard from the input
+     * file, padding with zeros past the end of the file.
+     */
+    private Future<?> [] submitReads(ExecutorService ioExecutor,
+                                     final FileChannel input,
+                                     final ByteBuffer [] buffers,
+                                     final long windowStart,
+                                     final long fileLength,
+                                     final long shardLength) {
+        final int count = (int) Math.min(bufferSize, shardLength - windowStart);
+        final Future<?> [] result = new Future<?> [codec.getDataShardCount()];
+        for (int i = 0; i < result.length; i++) {
+            final ByteBuffer buffer = buffers[i];
+            final long start = i * shardLength + windowStart;
+            result[i] = ioExecutor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    buffer.clear();
+                    int available = (int) Math.max(0, Math.min(count, fileLength - start));
+                    buffer.limit(available);
+                    readFully(input, buffer, start);
+                    buffer.limit(count);
+                    while (buffer.hasRemaining()) {
+                        buffer.put((byte) 0);
+                    }
+                    buffer.flip();
+                    return null;
+                }
+            });
+        }
+        // The parity buffers have to be the same size as the data.
+        for (int i = result.length; i < buffers.length; i++) {
+            buffers[i].clear();
+            buffers[i].limit(count);
+        }
+        return result;
+    }
+
+    /**
+     * Starts writing the buffers to the shard files.
+     */
+    private static Future<?> [] submitWrites(ExecutorService ioExecutor,
+                                             final FileChannel [] outputs,
+                                             final ByteBuffer [] buffers,
+                                             final long position) {
+        final Future<?> [] result = new Future<?> [outputs.length];
+        for (int i = 0; i < outputs.length; i++) {
+            final FileChannel output = outputs[i];
+            final ByteBuffer buffer = buffers[i].duplicate();
+            result[i] = ioExecutor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    writeFully(output, buffer, position);
+                    return null;
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Reads from a channel until the buffer is full.
+     *
+     * @throws IOException if the channel ends first.
+     */
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, position);
+            if (count < 0) {
+                throw new IOException("unexpected end of file");
+            }
+            position += count;
+        }
+    }
+
+    /**
+     * Writes the whole buffer to a channel.
+     */
+    static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Waits for all of the tasks to finish, and throws the first
+     * exception any of them threw.
+     */
+    static void awaitAll(Future<?> [] futures) throws IOException {
+        if (futures == null) {
+            return;
+        }
+        IOException failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting for shard I/O");
+            }
+            catch (ExecutionException e) {
+                if (failure == null) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        failure = (IOException) cause;
+                    }
+                    else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    else {
+                        failure = new IOException(cause);
+                    }
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Cancels any tasks still running after a failure.
+     */
+    static void cancelAll(Future<?> [] futures) {
+        if (futures != null) {
+            for (Future<?> future : futures) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Command-line program that encodes one file.
+     */
+    public static void main(String [] arguments) throws IOException {
+        if (arguments.length != 1 && arguments.length != 3) {
+            System.out.println("Usage: ParallelFileEncoder <fileName> [<dataShards> <parityShards>]");
+            return;
+        }
+        final File inputFile = new File(arguments[0]);
+        if (!inputFile.exists()) {
+            System.out.println("Cannot read input file: " + inputFile);
+            return;
+        }
+        int dataShards = 4;
+        int parityShards = 2;
+        if (arguments.length == 3) {
+            dataShards = Integer.parseInt(arguments[1]);
+            parityShards = Integer.parseInt(arguments[2]);
+        }
+
+        ReedSolomon codec = ReedSolomon.create(dataShards, parityShards);
+        File [] shardFiles = new File [dataShards + parityShards];
+        for (int i = 0; i < shardFiles.length; i++) {
+            shardFiles[i] = MappedFileEncoder.shardFile(inputFile, i);
+        }
+        new ParallelFileEncoder(codec).encode(inputFile, shardFiles);
+        for (File shardFile : shardFiles) {
+            System.out.println("wrote " + shardFile);
+        }
+    }
+}
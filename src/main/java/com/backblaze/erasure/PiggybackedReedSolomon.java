@@ -0,0 +1,317 @@
+/**
+ * Piggybacked Reed-Solomon coding.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+/**
+ * Reed-Solomon coding with piggybacks, from "A Piggybacking Design
+ * Framework for Read-and-Download-efficient Distributed Storage Codes"
+ * by Rashmi, Shah, and Ramchandran.  It stores the same amount as the
+ * ReedSolomon codec it's built on, and can rebuild any
+ * parityShardCount lost shards, but rebuilding one data shard reads
+ * less.
+ *
+ * Each shard is split into two substripes, the first and second half
+ * of the bytes coded.  Each substripe is coded with ReedSolomon on its
+ * own, and then the XOR of the first substripes of a group of data
+ * shards is added to the second substripe of a parity shard.  There's
+ * a group for each parity shard but the first, and each data shard is
+ * in one group.
+ *
+ * To rebuild a data shard, the second substripe comes from the second
+ * substripes of the other data shards and the first parity shard, as
+ * usual.  That gives the second substripes of all of the data shards,
+ * so the parity without its piggyback can be computed, and subtracting
+ * it from the group's parity shard leaves the XOR of the group's first
+ * substripes.  The first substripe of the lost shard then takes just
+ * the rest of its group.  That's dataShardCount + (group size)
+ * substripes, instead of 2 * dataShardCount; for 10 + 4, it reads 30
+ * to 35% less.  planRepair says which substripes to read.
+ *
+ * Parity from a PiggybackedReedSolomon is not the same as from
+ * ReedSolomon.
+ */
+public class PiggybackedReedSolomon {
+
+    /**
+     * The first half of the bytes coded in a shard.
+     */
+    public static final int FIRST_SUBSTRIPE = 0;
+
+    /**
+     * The second half of the bytes coded in a shard.
+     */
+    public static final int SECOND_SUBSTRIPE = 1;
+
+    private final ReedSolomon codec;
+    private final int dataShardCount;
+    private final int parityShardCount;
+    private final int totalShardCount;
+
+    /**
+     * groupStart[j] is the first data shard piggybacked onto parity
+     * shard j.  Parity shard 0 has no group, and groupStart has an
+     * extra entry for the end of the last group.
+     */
+    private final int [] groupStart;
+
+    /**
+     * Uses the matrix and coding loop of the given codec.
+     */
+    public PiggybackedReedSolomon(ReedSolomon codec) {
+        this.codec = codec;
+        this.dataShardCount = codec.getDataShardCount();
+        this.parityShardCount = codec.getParityShardCount();
+        this.totalShardCount = codec.getTotalShardCount();
+
+        int groupCount = parityShardCount - 1;
+        groupStart = new int [parityShardCount + 1];
+        for (int j = 1; j <= parityShardCount; j++) {
+            groupStart[j] = (groupCount == 0) ? dataShardCount
+                    : ((j - 1) * dataShardCount + groupCount - 1) / groupCount;
+        }
+    }
+
+    /**
+     * Returns the codec that each substripe is coded with.
+     */
+    public ReedSolomon getCodec() {
+        return codec;
+    }
+
+    /**
+     * Returns the parity shard (0 for the first) that a data shard is
+     * piggybacked onto, or -1 if it isn't, which is only when there is
+     * one parity shard.
+     */
+    public int getPiggybackParity(int dataShardIndex) {
+        if (dataShardIndex < 0 || dataShardCount <= dataShardIndex) {
+            throw new IllegalArgumentException("bad data shard index: " + dataShardIndex);
+        }
+        for (int j = 1; j < parityShardCount; j++) {
+            if (dataShardIndex < groupStart[j + 1]) {
+                return j;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the { start, length } of a substripe of each shard.
+     *
+     * @param substripe FIRST_SUBSTRIPE or SECOND_SUBSTRIPE.
+     * @param offset The index of the first byte coded in each shard.
+     * @param byteCount The number of bytes coded in each shard.
+     */
+    public static int [] getSubstripeRange(int substripe, int offset, int byteCount) {
+        if (substripe != FIRST_SUBSTRIPE && substripe != SECOND_SUBSTRIPE) {
+            throw new IllegalArgumentException("bad substripe: " + substripe);
+        }
+        int half = byteCount / 2;
+        return new int [] { offset + substripe * half, half };
+    }
+
+    /**
+     * Encodes parity for a set of data shards.
+     *
+     * @param shards An array containing data shards followed by parity shards.
+     *               Each shard is a byte array, and they must all be the same
+     *               size.
+     * @param offset The index of the first byte in each shard to encode.
+     * @param byteCount The number of bytes to encode in each shard.  Must
+     *                  be even.
+     */
+    public void encodeParity(byte [] [] shards, int offset, int byteCount) {
+        checkByteCount(byteCount);
+        final int half = byteCount / 2;
+        codec.encodeParity(shards, offset, half);
+        codec.encodeParity(shards, offset + half, half);
+        for (int j = 1; j < parityShardCount; j++) {
+            addPiggyback(shards, j, shards[dataShardCount + j], offset, half);
+        }
+    }
+
+    /**
+     * Given a list of shards, some of which contain data, fills in the
+     * ones that don't have data.
+     *
+     * Quickly does nothing if all of the shards are present.  The shards
+     * that are present are not changed.
+     */
+    public void decodeMissing(byte [] [] shards,
+                              boolean [] shardPresent,
+                              int offset,
+                              int byteCount) {
+        checkByteCount(byteCount);
+        final int half = byteCount / 2;
+
+        // The first substripes have no piggybacks.
+        codec.decodeMissing(shards, shardPresent, offset, half);
+
+        // Now that all of the first substripes are there, take the
+        // piggybacks off of copies of the parity shards that are
+        // present, decode the second substripes, and put the
+        // piggybacks on the parity shards that were decoded.
+        byte [] [] plain = shards.clone();
+        for (int j = 1; j < parityShardCount; j++) {
+            int index = dataShardCount + j;
+            if (shardPresent[index]) {
+                plain[index] = shards[index].clone();
+                addPiggyback(shards, j, plain[index], offset, half);
+            }
+        }
+        codec.decodeMissing(plain, shardPresent, offset + half, half);
+        for (int j = 1; j < parityShardCount; j++) {
+            int index = dataShardCount + j;
+            if (!shardPresent[index]) {
+                addPiggyback(shards, j, shards[index], offset, half);
+            }
+        }
+    }
+
+    /**
+     * Returns the substripes to read to rebuild one lost shard.
+     *
+     * @return Two arrays of shard indices, in order: the shards whose
+     *         FIRST_SUBSTRIPE is needed, and the shards whose
+     *         SECOND_SUBSTRIPE is needed.
+     */
+    public int [] [] planRepair(int lostShard) {
+        if (lostShard < 0 || totalShardCount <= lostShard) {
+            throw new IllegalArgumentException("bad shard index: " + lostShard);
+        }
+        int [] otherData = new int [dataShardCount - ((lostShard < dataShardCount) ? 1 : 0)];
+        int next = 0;
+        for (int i = 0; i < dataShardCount; i++) {
+            if (i != lostShard) {
+                otherData[next++] = i;
+            }
+        }
+
+        // A parity shard is computed from all of the data.
+        if (dataShardCount <= lostShard) {
+            return new int [] [] { otherData, otherData.clone() };
+        }
+
+        // Without a piggyback, it's plain Reed-Solomon on both halves.
+        int [] withFirstParity = new int [dataShardCount];
+        System.arraycopy(otherData, 0, withFirstParity, 0, dataShardCount - 1);
+        withFirstParity[dataShardCount - 1] = dataShardCount;
+        int j = getPiggybackParity(lostShard);
+        if (j < 0) {
+            return new int [] [] { withFirstParity, withFirstParity.clone() };
+        }
+
+        // The rest of the group for the first half, and the parity
+        // shard with the piggyback for the second.
+        int [] group = new int [groupStart[j + 1] - groupStart[j] - 1];
+        next = 0;
+        for (int i = groupStart[j]; i < groupStart[j + 1]; i++) {
+            if (i != lostShard) {
+                group[next++] = i;
+            }
+        }
+        int [] second = new int [dataShardCount + 1];
+        System.arraycopy(withFirstParity, 0, second, 0, dataShardCount);
+        second[dataShardCount] = dataShardCount + j;
+        return new int [] [] { group, second };
+    }
+
+    /**
+     * Rebuilds one lost shard, reading only the substripes named by
+     * planRepair.
+     *
+     * @param lostShard The index of the shard to rebuild.
+     * @param shards All of the shard buffers.  Only the substripes in
+     *               the plan need to hold data; others may hold
+     *               anything, and are not changed.
+     * @param offset The index of the first byte coded in each shard.
+     * @param byteCount The number of bytes coded in each shard.
+     */
+    public void repair(int lostShard, byte [] [] shards, int offset, int byteCount) {
+        checkByteCount(byteCount);
+        if (lostShard < 0 || totalShardCount <= lostShard) {
+            throw new IllegalArgumentException("bad shard index: " + lostShard);
+        }
+        final int half = byteCount / 2;
+
+        if (dataShardCount <= lostShard) {
+            int j = lostShard - dataShardCount;
+            computeParity(shards, j, shards[lostShard], offset, half);
+            computeParity(shards, j, shards[lostShard], offset + half, half);
+            if (0 < j) {
+                addPiggyback(shards, j, shards[lostShard], offset, half);
+            }
+            return;
+        }
+
+        // The second substripe, from the other data shards and the
+        // first parity shard.
+        boolean [] present = new boolean [totalShardCount];
+        for (int i = 0; i <= dataShardCount; i++) {
+            present[i] = (i != lostShard);
+        }
+        int [] wanted = { lostShard };
+        byte [] [] view = shards.clone();
+        for (int i = dataShardCount + 1; i < totalShardCount; i++) {
+            view[i] = null;
+        }
+        codec.decodeShards(view, present, wanted, offset + half, half);
+
+        int j = getPiggybackParity(lostShard);
+        if (j < 0) {
+            codec.decodeShards(view, present, wanted, offset, half);
+            return;
+        }
+
+        // The piggyback is the parity shard minus its plain parity,
+        // and the lost first substripe is that minus the rest of the
+        // group.
+        byte [] piggyback = new byte [offset + byteCount];
+        computeParity(shards, j, piggyback, offset + half, half);
+        byte [] lost = shards[lostShard];
+        xorInto(shards[dataShardCount + j], offset + half, piggyback, offset + half, half);
+        for (int i = groupStart[j]; i < groupStart[j + 1]; i++) {
+            if (i != lostShard) {
+                xorInto(shards[i], offset, piggyback, offset + half, half);
+            }
+        }
+        System.arraycopy(piggyback, offset + half, lost, offset, half);
+    }
+
+    /**
+     * Computes one parity row, without piggyback, over one substripe.
+     */
+    private void computeParity(byte [] [] shards, int j, byte [] output, int offset, int byteCount) {
+        codec.getCodingLoop().codeSomeShards(
+                new byte [] [] { codec.getParityRows()[j] },
+                shards, dataShardCount,
+                new byte [] [] { output }, 1,
+                offset, byteCount);
+    }
+
+    /**
+     * XORs the first substripes of parity shard j's group into the
+     * second substripe of the output.
+     */
+    private void addPiggyback(byte [] [] shards, int j, byte [] output, int offset, int half) {
+        for (int i = groupStart[j]; i < groupStart[j + 1]; i++) {
+            xorInto(shards[i], offset, output, offset + half, half);
+        }
+    }
+
+    private static void xorInto(byte [] source, int sourcePos, byte [] dest, int destPos, int count) {
+        for (int b = 0; b < count; b++) {
+            dest[destPos + b] ^= source[sourcePos + b];
+        }
+    }
+
+    private static void checkByteCount(int byteCount) {
+        if (byteCount < 0 || byteCount % 2 != 0) {
+            throw new IllegalArgumentException("byteCount must be even: " + byteCount);
+        }
+    }
+}
@@ -6,6 +6,10 @@
 
 package com.backblaze.erasure;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
 /**
  * Reed-Solomon Coding over 8-bit values.
  */
@@ -26,6 +30,12 @@ public class ReedSolomon {
     // 计算循环策略。定义了具体的字节级计算逻辑（如查表法、AVX加速等），用于实际的矩阵乘法操作。
     private final CodingLoop codingLoop;
 
+    /**
+     * The coding loop for shards held in ByteBuffers.  This is the
+     * same as codingLoop when it can handle ByteBuffers.
+     */
+    private final ByteBufferCodingLoop bufferCodingLoop;
+
     /**
      * Rows from the matrix for encoding parity, each one as its own
      * byte array to allow for efficient access while encoding.
@@ -33,17 +43,88 @@ public class ReedSolomon {
     // 校验行缓存。从 matrix 中提取出来的专门用于计算校验片的行，为了提高编码效率，预先存储为二维字节数组。
     private final byte [] [] parityRows;
 
+    /**
+     * Remembers the loops picked by createTuned().
+     */
+    private static final CodingLoopSelector TUNED_LOOP_SELECTOR = new CodingLoopSelector();
+
+    /**
+     * Rows for rebuilding missing shards, saved from earlier calls
+     * to decodeMissing().
+     */
+    private final DecodeMatrixCache decodeMatrixCache;
+
     /**
      * Creates a ReedSolomon codec with the default coding loop.
+     *
+     * The default is VectorCodingLoop when the Vector API is available,
+     * and InputOutputByteTableCodingLoop when it's not.
      */
     public static ReedSolomon create(int dataShardCount, int parityShardCount) {
-        return new ReedSolomon(dataShardCount, parityShardCount, new InputOutputByteTableCodingLoop());
+        return new ReedSolomon(dataShardCount, parityShardCount, CodingLoops.DEFAULT_CODING_LOOP);
+    }
+
+    /**
+     * Creates a ReedSolomon codec with the coding loop that is fastest
+     * on this machine for the given layout and shard size.
+     *
+     * The first call for a layout and size class takes a moment to time
+     * the loops in CodingLoop.ALL_CODING_LOOPS.  The choice is kept for
+     * the life of the process.  To keep choices across restarts, use a
+     * CodingLoopSelector with a file.
+     */
+    // 按 (数据分片数, 校验分片数, 分片大小级别) 实测挑选最快的编码循环。
+    public static ReedSolomon createTuned(int dataShardCount, int parityShardCount, int shardSize) {
+        return TUNED_LOOP_SELECTOR.createCodec(dataShardCount, parityShardCount, shardSize);
     }
 
     /**
      * Initializes a new encoder/decoder, with a chosen coding loop.
      */
     public ReedSolomon(int dataShardCount, int parityShardCount, CodingLoop codingLoop) {
+        this(dataShardCount, parityShardCount, codingLoop, DecodeMatrixCache.DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Initializes a new encoder/decoder, with a chosen coding loop and
+     * a chosen size for the cache of decoding matrices.
+     *
+     * @param decodeMatrixCacheSize The number of different sets of
+     *                              missing shards to remember decoding
+     *                              matrices for.  Zero turns off the
+     *                              cache.
+     */
+    public ReedSolomon(int dataShardCount, int parityShardCount, CodingLoop codingLoop, int decodeMatrixCacheSize) {
+        this(dataShardCount, parityShardCount, codingLoop, new VandermondeMatrixGenerator(), decodeMatrixCacheSize);
+    }
+
+    /**
+     * Initializes a new encoder/decoder, with a chosen coding loop and
+     * a chosen way of building the encoding matrix.
+     *
+     * Codecs built with different generators produce different parity,
+     * so shards must be decoded with the same kind of matrix they were
+     * encoded with.
+     */
+    public ReedSolomon(int dataShardCount, int parityShardCount, CodingLoop codingLoop, MatrixGenerator matrixGenerator) {
+        this(dataShardCount, parityShardCount, codingLoop, matrixGenerator, DecodeMatrixCache.DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Initializes a new encoder/decoder.
+     *
+     * @param matrixGenerator Builds the encoding matrix.
+     * @param decodeMatrixCacheSize The number of different sets of
+     *                              missing shards to remember decoding
+     *                              matrices for.  Zero turns off the
+     *                              cache.
+     */
+    // 可选择编码矩阵的构造方式：范德蒙（默认）或柯西。
+    public ReedSolomon(int dataShardCount,
+                       int parityShardCount,
+                       CodingLoop codingLoop,
+                       MatrixGenerator matrixGenerator,
+                       int decodeMatrixCacheSize) {
 
         // We can have at most 256 shards total, as any more would
         // lead to duplicate rows in the Vandermonde matrix, which
@@ -58,14 +139,18 @@ public class ReedSolomon {
         this.dataShardCount = dataShardCount;
         this.parityShardCount = parityShardCount;
         this.codingLoop = codingLoop;
+        this.bufferCodingLoop = (codingLoop instanceof ByteBufferCodingLoop)
+                ? (ByteBufferCodingLoop) codingLoop
+                : new InputOutputLongSwarCodingLoop();
         this.totalShardCount = dataShardCount + parityShardCount;
         // 此时 matrix 的上半部分是一个单位矩阵，下半部分是用于生成校验数据的生成矩阵。
-        matrix = buildMatrix(dataShardCount, this.totalShardCount);
+        matrix = matrixGenerator.buildMatrix(dataShardCount, this.totalShardCount);
         // 初始化一个二维字节数组，用来存放矩阵中专门负责计算校验位的那些行。
         parityRows = new byte [parityShardCount] [];
         for (int i = 0; i < parityShardCount; i++) {
             parityRows[i] = matrix.getRow(dataShardCount + i);
         }
+        decodeMatrixCache = new DecodeMatrixCache(decodeMatrixCacheSize);
     }
 
     /**
@@ -89,6 +174,38 @@ public class ReedSolomon {
         return totalShardCount;
     }
 
+    /**
+     * Returns the coding loop used by this codec.
+     */
+    public CodingLoop getCodingLoop() {
+        return codingLoop;
+    }
+
+    /**
+     * Returns the rows of the matrix that compute the parity shards.
+     * They are shared, so they must not be modified.
+     */
+    byte [] [] getParityRows() {
+        return parityRows;
+    }
+
+    /**
+     * Returns the cache of decoding matrices, which has counts of
+     * hits and misses.
+     */
+    public DecodeMatrixCache getDecodeMatrixCache() {
+        return decodeMatrixCache;
+    }
+
+    /**
+     * Returns a new context for encoding, checking, and decoding with
+     * this codec without allocating memory.  Each thread needs its own.
+     */
+    // 每个线程一个上下文，复用临时数组，稳态下编码、校验、解码都不分配内存。
+    public CodingContext newCodingContext() {
+        return new CodingContext(this);
+    }
+
     /**
      * Encodes parity for a set of data shards.
      *
@@ -109,12 +226,19 @@ public class ReedSolomon {
     // 跳过头部信息：
     //有时候你的 shards 数组里前面存了一些元数据（如文件头、校验和），真正的负载数据（Payload）是从第 16 个字节开始的。此时你可以设置 offset = 16，算法就会自动忽略掉前面的 16 个字节。
     public void encodeParity(byte[][] shards, int offset, int byteCount) {
+        encodeParity(shards, offset, byteCount, new byte [parityShardCount] []);
+    }
+
+    /**
+     * Encodes parity, using a scratch array of parityShardCount
+     * elements for the outputs, so nothing is allocated.
+     */
+    void encodeParity(byte[][] shards, int offset, int byteCount, byte [] [] outputs) {
         // Check arguments.
         checkBuffersAndSizes(shards, offset, byteCount);
 
         // Build the array of output buffers.
-        // 创建一个新的二维数组 outputs，大小等于校验分片的数量。
-        byte [] [] outputs = new byte [parityShardCount] [];
+        // outputs 的大小等于校验分片的数量，由调用方提供，可以重复使用。
         // 将 shards 数组中存放校验分片的部分（即下标从 dataShardCount 开始的部分）的引用拷贝到 outputs 数组中。
         System.arraycopy(shards, dataShardCount, outputs, 0, parityShardCount);
 
@@ -130,6 +254,64 @@ public class ReedSolomon {
             byteCount); // offset 和 byteCount 允许你对每个分片数组（byte[]）进行局部处理，而不是强制从头到尾处理整个数组。
     }
 
+    /**
+     * Updates the parity shards after one data shard has been changed,
+     * without reading the other data shards.
+     *
+     * Parity is linear in the data, so the change in each parity shard
+     * is the change in the data shard (oldData XOR newData) times the
+     * coefficient in that parity row for the data shard.  This reads
+     * the old and new data and the parity shards, instead of all of
+     * the data shards.
+     *
+     * @param shardIndex The index of the data shard that changed.
+     * @param oldData The contents of the data shard before the change.
+     * @param newData The contents of the data shard after the change.
+     * @param parityShards The parity shards, which are updated in place.
+     * @param offset The index of the first byte in each shard to update.
+     * @param byteCount The number of bytes to update in each shard.
+     */
+    // 增量更新校验分片：只读取被修改的数据分片（新旧两份）和校验分片，不需要读取整个条带。
+    public void updateParity(int shardIndex,
+                             byte [] oldData,
+                             byte [] newData,
+                             byte [] [] parityShards,
+                             int offset,
+                             int byteCount) {
+        // Check arguments.
+        if (shardIndex < 0 || dataShardCount <= shardIndex) {
+            throw new IllegalArgumentException("not a data shard index: " + shardIndex);
+        }
+        if (parityShards.length != parityShardCount) {
+            throw new IllegalArgumentException("wrong number of parity shards: " + parityShards.length);
+        }
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset is negative: " + offset);
+        }
+        if (byteCount < 0) {
+            throw new IllegalArgumentException("byteCount is negative: " + byteCount);
+        }
+        final int end = offset + byteCount;
+        if (oldData.length < end || newData.length < end) {
+            throw new IllegalArgumentException("data buffers too small: " + end);
+        }
+        for (byte [] parityShard : parityShards) {
+            if (parityShard.length < end) {
+                throw new IllegalArgumentException("parity buffers too small: " + end);
+            }
+        }
+
+        // Add the change times the coefficient into each parity shard.
+        final byte [] [] table = Galois.MULTIPLICATION_TABLE;
+        for (int iParity = 0; iParity < parityShardCount; iParity++) {
+            final byte [] parityShard = parityShards[iParity];
+            final byte [] multTableRow = table[parityRows[iParity][shardIndex] & 0xFF];
+            for (int iByte = offset; iByte < end; iByte++) {
+                parityShard[iByte] ^= multTableRow[(oldData[iByte] ^ newData[iByte]) & 0xFF];
+            }
+        }
+    }
+
     /**
      * Returns true if the parity shards contain the right data.
      *
@@ -176,6 +358,14 @@ public class ReedSolomon {
     // 在 Reed-Solomon 算法中，校验数据是否正确需要通过数据分片重新计算出“期望的校验值”。
     // 如果没有临时缓冲区，计算引擎可能需要频繁地在堆内存中创建和销毁临时数组，这会产生大量的 GC（垃圾回收）压力。通过传入一个预先分配好的 tempBuffer，可以极大地提升在高并发或大数据量场景下的性能
     public boolean isParityCorrect(byte[][] shards, int firstByte, int byteCount, byte [] tempBuffer) {
+        return isParityCorrect(shards, firstByte, byteCount, tempBuffer, new byte [parityShardCount] []);
+    }
+
+    /**
+     * Checks parity, using a scratch array of parityShardCount elements
+     * for the shards being checked, so nothing is allocated.
+     */
+    boolean isParityCorrect(byte[][] shards, int firstByte, int byteCount, byte [] tempBuffer, byte [] [] toCheck) {
         // Check arguments.
         checkBuffersAndSizes(shards, firstByte, byteCount);
         if (tempBuffer.length < firstByte + byteCount) {
@@ -183,7 +373,6 @@ public class ReedSolomon {
         }
 
         // Build the array of buffers being checked.
-        byte [] [] toCheck = new byte [parityShardCount] [];
         System.arraycopy(shards, dataShardCount, toCheck, 0, parityShardCount);
 
         // Do the checking.
@@ -195,6 +384,126 @@ public class ReedSolomon {
                 tempBuffer);
     }
 
+    /**
+     * Finds which shards are corrupt, when isParityCorrect says
+     * something is wrong.
+     *
+     * Each byte column is checked on its own, so different columns can
+     * have different bad shards.  Up to parityShardCount / 2 bad shards
+     * can be found in each column, by Berlekamp-Massey decoding; see
+     * ErrorLocator for how.
+     *
+     * This works with the matrices from VandermondeMatrixGenerator and
+     * CauchyMatrixGenerator, when there are fewer than 256 shards.
+     *
+     * @param shards An array containing data shards followed by parity shards.
+     * @param offset The index of the first byte in each shard to check.
+     * @param byteCount The number of bytes to check in each shard.
+     * @return The indices of the shards that are wrong anywhere in the
+     *         range, in order.  The array is empty if the parity is
+     *         correct, and null if some column has too many errors to
+     *         find.
+     * @throws UnsupportedOperationException if the encoding matrix
+     *         can't be decoded this way.
+     */
+    // 利用校验行的伴随式（syndrome）逐列定位损坏的分片，每列最多 parityShardCount / 2 个。
+    public int [] locateCorruptShards(byte [] [] shards, int offset, int byteCount) {
+        return locateCorruptShards(shards, offset, byteCount, false);
+    }
+
+    /**
+     * Finds which shards are corrupt, and optionally corrects them.
+     *
+     * Shards are only changed if every column could be corrected, so
+     * when this returns null the shards are as they were.
+     *
+     * @param shards An array containing data shards followed by parity shards.
+     * @param offset The index of the first byte in each shard to check.
+     * @param byteCount The number of bytes to check in each shard.
+     * @param correct Whether to fix the bad bytes in place.
+     * @return The indices of the shards that were wrong, as above.
+     */
+    // 与上面相同，但可以就地纠正损坏的字节。
+    public int [] locateCorruptShards(byte [] [] shards, int offset, int byteCount, boolean correct) {
+        // Check arguments.
+        checkBuffersAndSizes(shards, offset, byteCount);
+        ErrorLocator locator = ErrorLocator.create(parityRows, dataShardCount, parityShardCount);
+        if (locator == null) {
+            throw new UnsupportedOperationException("the encoding matrix is not a Reed-Solomon code that can locate errors");
+        }
+
+        // Compute what the parity should be.  Each column of the
+        // syndrome is the difference between that and what's there.
+        byte [] [] expected = new byte [parityShardCount] [offset + byteCount];
+        codingLoop.codeSomeShards(
+                parityRows,
+                shards, dataShardCount,
+                expected, parityShardCount,
+                offset, byteCount);
+        for (int i = 0; i < parityShardCount; i++) {
+            byte [] parity = shards[dataShardCount + i];
+            byte [] syndrome = expected[i];
+            for (int b = offset; b < offset + byteCount; b++) {
+                syndrome[b] ^= parity[b];
+            }
+        }
+
+        // Find the bad shards in each column.  If correcting, it's done
+        // in a second pass, so nothing changes unless every column can
+        // be corrected.
+        byte [] syndrome = new byte [parityShardCount];
+        int [] positions = new int [parityShardCount];
+        byte [] errors = new byte [parityShardCount];
+        boolean [] corrupt = new boolean [totalShardCount];
+        for (int pass = 0; pass < (correct ? 2 : 1); pass++) {
+            for (int b = offset; b < offset + byteCount; b++) {
+                if (!getSyndrome(expected, b, syndrome)) {
+                    continue;
+                }
+                int errorCount = locator.locate(syndrome, positions, errors);
+                if (errorCount < 0) {
+                    return null;
+                }
+                for (int e = 0; e < errorCount; e++) {
+                    if (pass == 0) {
+                        corrupt[positions[e]] = true;
+                    }
+                    else {
+                        shards[positions[e]][b] ^= errors[e];
+                    }
+                }
+            }
+        }
+
+        int corruptCount = 0;
+        for (boolean c : corrupt) {
+            if (c) {
+                corruptCount += 1;
+            }
+        }
+        int [] result = new int [corruptCount];
+        int next = 0;
+        for (int i = 0; i < totalShardCount; i++) {
+            if (corrupt[i]) {
+                result[next++] = i;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Copies one column of the syndromes, and returns true if any of
+     * it is not zero.
+     */
+    private boolean getSyndrome(byte [] [] syndromes, int column, byte [] syndrome) {
+        boolean nonZero = false;
+        for (int i = 0; i < parityShardCount; i++) {
+            syndrome[i] = syndromes[i][column];
+            nonZero |= (syndrome[i] != 0);
+        }
+        return nonZero;
+    }
+
     /**
      * Given a list of shards, some of which contain data, fills in the
      * ones that don't have data.
@@ -209,6 +518,22 @@ public class ReedSolomon {
                               boolean [] shardPresent,
                               final int offset,
                               final int byteCount) {
+        decodeMissing(shards, shardPresent, offset, byteCount,
+                new byte [dataShardCount] [], new byte [parityShardCount] [], new BitSet(totalShardCount));
+    }
+
+    /**
+     * Decodes, using scratch arrays for the inputs, the outputs, and the
+     * decode matrix cache key, so nothing is allocated once the decode
+     * rows are in the cache.
+     */
+    void decodeMissing(byte [] [] shards,
+                       boolean [] shardPresent,
+                       final int offset,
+                       final int byteCount,
+                       byte [] [] subShards,
+                       byte [] [] outputs,
+                       BitSet key) {
         // Check arguments.
         checkBuffersAndSizes(shards, offset, byteCount);
 
@@ -234,21 +559,370 @@ public class ReedSolomon {
             throw new IllegalArgumentException("Not enough shards present");
         }
 
+        // Pull out an array holding just the first dataShardCount
+        // shards that are present.  These shards will be the input to
+        // the decoding process that re-creates the missing shards.
+        // 存储对应的存活分片数据。
+        {
+            int subMatrixRow = 0;
+            for (int matrixRow = 0; matrixRow < totalShardCount && subMatrixRow < dataShardCount; matrixRow++) {
+                if (shardPresent[matrixRow]) {
+                    subShards[subMatrixRow] = shards[matrixRow];
+                    subMatrixRow += 1;
+                }
+            }
+        }
+
+        // Re-create all of the missing shards, data and parity, in
+        // one pass.
+        //
+        // The input to the coding is the shards we actually have, and
+        // the output is the missing shards.  The computation is done
+        // using the special decode matrix rows for this set of present
+        // shards.  The rows for parity shards already include the
+        // decoding, so there's no need to rebuild the data shards
+        // first.
+        // 数据分片和校验分片一次性恢复：校验行已经预先乘上了逆矩阵。
+        byte [] [] matrixRows = getDecodeRows(shardPresent, key);
+        int outputCount = 0;
+        for (int iShard = 0; iShard < totalShardCount; iShard++) {
+            if (!shardPresent[iShard]) {
+                outputs[outputCount] = shards[iShard];
+                outputCount += 1;
+            }
+        }
+        codingLoop.codeSomeShards(
+                matrixRows,
+                subShards, dataShardCount,
+                outputs, outputCount,
+                offset, byteCount);
+    }
+
+    /**
+     * Rebuilds just the requested shards, instead of all of the missing
+     * ones.
+     *
+     * Only the rows of the decoding matrix for the wanted shards are
+     * used.  Parity shards are computed straight from the shards that
+     * are present, so shards that are neither present nor wanted may
+     * be null, and no buffers are needed for them.
+     *
+     * @param shards An array containing data shards followed by parity shards.
+     * @param shardPresent Which of the shards hold data.
+     * @param wanted The indices of the shards to rebuild.  Shards that
+     *               are already present are left alone.
+     * @param offset The index of the first byte in each shard to decode.
+     * @param byteCount The number of bytes to decode in each shard.
+     */
+    // 只恢复调用方需要的分片：只取需要的解码矩阵行，其余缺失分片可以传 null。
+    public void decodeShards(byte [] [] shards,
+                             boolean [] shardPresent,
+                             int [] wanted,
+                             final int offset,
+                             final int byteCount) {
+        decodeShards(shards, shardPresent, wanted, offset, byteCount,
+                new byte [dataShardCount] [], new byte [parityShardCount] [], new byte [parityShardCount] [],
+                new boolean [totalShardCount], new BitSet(totalShardCount));
+    }
+
+    /**
+     * Rebuilds the wanted shards, using scratch arrays for the inputs,
+     * the outputs and their matrix rows, the wanted flags, and the
+     * decode matrix cache key, so nothing is allocated once the decode
+     * rows are in the cache.
+     */
+    void decodeShards(byte [] [] shards,
+                      boolean [] shardPresent,
+                      int [] wanted,
+                      final int offset,
+                      final int byteCount,
+                      byte [] [] subShards,
+                      byte [] [] outputs,
+                      byte [] [] matrixRows,
+                      boolean [] shardWanted,
+                      BitSet key) {
+        // Figure out which shards need to be computed.
+        Arrays.fill(shardWanted, false);
+        for (int index : wanted) {
+            if (index < 0 || totalShardCount <= index) {
+                throw new IllegalArgumentException("shard index out of range: " + index);
+            }
+            if (!shardPresent[index]) {
+                shardWanted[index] = true;
+            }
+        }
+
+        // Check arguments.
+        checkPartialBuffersAndSizes(shards, shardPresent, shardWanted, offset, byteCount);
+        int numberPresent = 0;
+        for (int i = 0; i < totalShardCount; i++) {
+            if (shardPresent[i]) {
+                numberPresent += 1;
+            }
+        }
+        if (numberPresent < dataShardCount) {
+            throw new IllegalArgumentException("Not enough shards present");
+        }
+
+        // Pick out the decoding rows for the wanted shards.  There is
+        // one row for each missing shard, in order.
+        byte [] [] decodeRows = getDecodeRows(shardPresent, key);
+        int outputCount = 0;
+        int iDecodeRow = 0;
+        for (int iShard = 0; iShard < totalShardCount; iShard++) {
+            if (!shardPresent[iShard]) {
+                if (shardWanted[iShard]) {
+                    outputs[outputCount] = shards[iShard];
+                    matrixRows[outputCount] = decodeRows[iDecodeRow];
+                    outputCount += 1;
+                }
+                iDecodeRow += 1;
+            }
+        }
+        if (outputCount == 0) {
+            return;
+        }
+
+        int subMatrixRow = 0;
+        for (int matrixRow = 0; matrixRow < totalShardCount && subMatrixRow < dataShardCount; matrixRow++) {
+            if (shardPresent[matrixRow]) {
+                subShards[subMatrixRow] = shards[matrixRow];
+                subMatrixRow += 1;
+            }
+        }
+        codingLoop.codeSomeShards(
+                matrixRows,
+                subShards, dataShardCount,
+                outputs, outputCount,
+                offset, byteCount);
+    }
+
+    /**
+     * Encodes parity for a set of data shards held in ByteBuffers.
+     *
+     * The bytes encoded in each shard are the ones between its position
+     * and its limit, and all of the shards must have the same number of
+     * bytes remaining.  The buffers can be heap or direct buffers; the
+     * data is not copied.  Positions and limits are not changed.
+     *
+     * @param shards An array containing data shards followed by parity shards.
+     */
+    // ByteBuffer 版本的 encodeParity，直接在堆外/堆内缓冲区上计算，不拷贝数据。
+    public void encodeParity(ByteBuffer [] shards) {
+        // Check arguments.
+        final int byteCount = checkBuffersAndSizes(shards);
+
+        // Build the array of output buffers.
+        ByteBuffer [] outputs = new ByteBuffer [parityShardCount];
+        System.arraycopy(shards, dataShardCount, outputs, 0, parityShardCount);
+
+        // Do the coding.
+        bufferCodingLoop.codeSomeShards(
+                parityRows,
+                shards, dataShardCount,
+                outputs, parityShardCount,
+                0, byteCount);
+    }
+
+    /**
+     * Returns true if the parity shards, held in ByteBuffers, contain the
+     * right data.
+     *
+     * The bytes checked are the ones between each shard's position and
+     * its limit.
+     *
+     * @param shards An array containing data shards followed by parity shards.
+     */
+    public boolean isParityCorrect(ByteBuffer [] shards) {
+        // Check arguments.
+        final int byteCount = checkBuffersAndSizes(shards);
+
+        // Build the array of buffers being checked.
+        ByteBuffer [] toCheck = new ByteBuffer [parityShardCount];
+        System.arraycopy(shards, dataShardCount, toCheck, 0, parityShardCount);
+
+        // Do the checking.
+        return bufferCodingLoop.checkSomeShards(
+                parityRows,
+                shards, dataShardCount,
+                toCheck, parityShardCount,
+                0, byteCount);
+    }
+
+    /**
+     * Given a list of shards held in ByteBuffers, some of which contain
+     * data, fills in the ones that don't have data.
+     *
+     * The bytes used are the ones between each shard's position and its
+     * limit.  Buffers for missing shards must be writable, with the same
+     * number of bytes remaining as the others.
+     */
+    public void decodeMissing(ByteBuffer [] shards, boolean [] shardPresent) {
+        // Check arguments.
+        final int byteCount = checkBuffersAndSizes(shards);
+
+        // Quick check: are all of the shards present?  If so, there's
+        // nothing to do.
+        int numberPresent = 0;
+        for (int i = 0; i < totalShardCount; i++) {
+            if (shardPresent[i]) {
+                numberPresent += 1;
+            }
+        }
+        if (numberPresent == totalShardCount) {
+            return;
+        }
+        if (numberPresent < dataShardCount) {
+            throw new IllegalArgumentException("Not enough shards present");
+        }
+
+        // The inputs for rebuilding the data shards are the first
+        // dataShardCount shards that are present.
+        ByteBuffer [] subShards = new ByteBuffer [dataShardCount];
+        {
+            int subMatrixRow = 0;
+            for (int matrixRow = 0; matrixRow < totalShardCount && subMatrixRow < dataShardCount; matrixRow++) {
+                if (shardPresent[matrixRow]) {
+                    subShards[subMatrixRow] = shards[matrixRow];
+                    subMatrixRow += 1;
+                }
+            }
+        }
+
+        // Re-create all of the missing shards, data and parity, in
+        // one pass.
+        byte [] [] matrixRows = getDecodeRows(shardPresent);
+        ByteBuffer [] outputs = new ByteBuffer [parityShardCount];
+        int outputCount = 0;
+        for (int iShard = 0; iShard < totalShardCount; iShard++) {
+            if (!shardPresent[iShard]) {
+                outputs[outputCount] = shards[iShard];
+                outputCount += 1;
+            }
+        }
+        bufferCodingLoop.codeSomeShards(
+                matrixRows,
+                subShards, dataShardCount,
+                outputs, outputCount,
+                0, byteCount);
+    }
+
+    /**
+     * Rebuilds just the requested shards, held in ByteBuffers, instead
+     * of all of the missing ones.
+     *
+     * The bytes used are the ones between each shard's position and its
+     * limit.  Shards that are neither present nor wanted may be null.
+     *
+     * @param shards An array containing data shards followed by parity shards.
+     * @param shardPresent Which of the shards hold data.
+     * @param wanted The indices of the shards to rebuild.  Shards that
+     *               are already present are left alone.
+     */
+    // ByteBuffer 版本的 decodeShards，只恢复调用方需要的分片。
+    public void decodeShards(ByteBuffer [] shards, boolean [] shardPresent, int [] wanted) {
+        // Figure out which shards need to be computed.
+        boolean [] shardWanted = new boolean [totalShardCount];
+        for (int index : wanted) {
+            if (index < 0 || totalShardCount <= index) {
+                throw new IllegalArgumentException("shard index out of range: " + index);
+            }
+            if (!shardPresent[index]) {
+                shardWanted[index] = true;
+            }
+        }
+
+        // Check arguments.
+        final int byteCount = checkPartialBuffersAndSizes(shards, shardPresent, shardWanted);
+        int numberPresent = 0;
+        for (int i = 0; i < totalShardCount; i++) {
+            if (shardPresent[i]) {
+                numberPresent += 1;
+            }
+        }
+        if (numberPresent < dataShardCount) {
+            throw new IllegalArgumentException("Not enough shards present");
+        }
+
+        // Pick out the decoding rows for the wanted shards.
+        byte [] [] decodeRows = getDecodeRows(shardPresent);
+        byte [] [] matrixRows = new byte [parityShardCount] [];
+        ByteBuffer [] outputs = new ByteBuffer [parityShardCount];
+        int outputCount = 0;
+        int iDecodeRow = 0;
+        for (int iShard = 0; iShard < totalShardCount; iShard++) {
+            if (!shardPresent[iShard]) {
+                if (shardWanted[iShard]) {
+                    outputs[outputCount] = shards[iShard];
+                    matrixRows[outputCount] = decodeRows[iDecodeRow];
+                    outputCount += 1;
+                }
+                iDecodeRow += 1;
+            }
+        }
+        if (outputCount == 0) {
+            return;
+        }
+
+        ByteBuffer [] subShards = new ByteBuffer [dataShardCount];
+        int subMatrixRow = 0;
+        for (int matrixRow = 0; matrixRow < totalShardCount && subMatrixRow < dataShardCount; matrixRow++) {
+            if (shardPresent[matrixRow]) {
+                subShards[subMatrixRow] = shards[matrixRow];
+                subMatrixRow += 1;
+            }
+        }
+        bufferCodingLoop.codeSomeShards(
+                matrixRows,
+                subShards, dataShardCount,
+                outputs, outputCount,
+                0, byteCount);
+    }
+
+    /**
+     * Returns the rows of the decoding matrix that rebuild the missing
+     * shards, in order, given which shards are present.  The inputs to
+     * these rows are the first dataShardCount shards that are present.
+     *
+     * Rows for missing data shards come straight from the inverted
+     * matrix.  Rows for missing parity shards are the parity row of the
+     * encoding matrix multiplied by the inverted matrix, so parity can
+     * be rebuilt from the shards that are present, without first
+     * rebuilding the data.
+     *
+     * The rows come from the cache when possible.  They are shared, so
+     * they must not be modified.
+     */
+    byte [] [] getDecodeRows(boolean [] shardPresent) {
+        return getDecodeRows(shardPresent, new BitSet(totalShardCount));
+    }
+
+    /**
+     * Returns the decode rows, using the given BitSet for looking them
+     * up in the cache.  It's copied before being stored in the cache,
+     * so it can be reused.
+     */
+    // 按 shardPresent 查缓存；未命中时才构造子矩阵并求逆。
+    private byte [] [] getDecodeRows(boolean [] shardPresent, BitSet key) {
+        key.clear();
+        for (int i = 0; i < totalShardCount; i++) {
+            if (shardPresent[i]) {
+                key.set(i);
+            }
+        }
+        byte [] [] result = decodeMatrixCache.get(key);
+        if (result != null) {
+            return result;
+        }
+
         // Pull out the rows of the matrix that correspond to the
         // shards that we have and build a square matrix.  This
         // matrix could be used to generate the shards that we have
         // from the original data.
-        //
-        // Also, pull out an array holding just the shards that
-        // correspond to the rows of the submatrix.  These shards
-        // will be the input to the decoding process that re-creates
-        // the missing data shards.
         // 从原本 $N+M$ 行的编码矩阵中，挑选出存活的那 $N$ 行，组成一个新的 $N \times N$ 方阵。
         // 原始数据的编码公式是 $Matrix \times Data = Shards$。现在我们有了部分 $Shards$ 和对应的部分 $Matrix$，只要这部分矩阵可逆，就能求出 $Data$。
         // 存储挑选出来的矩阵行。
         Matrix subMatrix = new Matrix(dataShardCount, dataShardCount);
-        // 存储对应的存活分片数据。
-        byte [] [] subShards = new byte [dataShardCount] [];
         {
             int subMatrixRow = 0;
             for (int matrixRow = 0; matrixRow < totalShardCount && subMatrixRow < dataShardCount; matrixRow++) {
@@ -256,7 +930,6 @@ public class ReedSolomon {
                     for (int c = 0; c < dataShardCount; c++) {
                         subMatrix.set(subMatrixRow, c, matrix.get(matrixRow, c));
                     }
-                    subShards[subMatrixRow] = shards[matrixRow];
                     subMatrixRow += 1;
                 }
             }
@@ -271,46 +944,47 @@ public class ReedSolomon {
         // 如果原矩阵是把“数据”变“分片”，那么逆矩阵就是把“分片”变回“原始数据”。
         Matrix dataDecodeMatrix = subMatrix.invert();
 
-        // Re-create any data shards that were missing.
-        //
-        // The input to the coding is all of the shards we actually
-        // have, and the output is the missing data shards.  The computation
-        // is done using the special decode matrix we just built.
-        byte [] [] outputs = new byte [parityShardCount] [];
-        byte [] [] matrixRows = new byte [parityShardCount] [];
-        int outputCount = 0;
-        for (int iShard = 0; iShard < dataShardCount; iShard++) {
+        int missingCount = 0;
+        for (int iShard = 0; iShard < totalShardCount; iShard++) {
             if (!shardPresent[iShard]) {
-                outputs[outputCount] = shards[iShard];
-                matrixRows[outputCount] = dataDecodeMatrix.getRow(iShard);
-                outputCount += 1;
+                missingCount += 1;
             }
         }
-        codingLoop.codeSomeShards(
-                matrixRows,
-                subShards, dataShardCount,
-                outputs, outputCount,
-                offset, byteCount);
-
-        // Now that we have all of the data shards intact, we can
-        // compute any of the parity that is missing.
-        //
-        // The input to the coding is ALL of the data shards, including
-        // any that we just calculated.  The output is whichever of the
-        // data shards were missing.
-        outputCount = 0;
-        for (int iShard = dataShardCount; iShard < totalShardCount; iShard++) {
+        result = new byte [missingCount] [];
+        int iRow = 0;
+        for (int iShard = 0; iShard < totalShardCount; iShard++) {
             if (!shardPresent[iShard]) {
-                outputs[outputCount] = shards[iShard];
-                matrixRows[outputCount] = parityRows[iShard - dataShardCount];
-                outputCount += 1;
+                if (iShard < dataShardCount) {
+                    result[iRow] = dataDecodeMatrix.getRow(iShard);
+                }
+                else {
+                    // A parity shard is its parity row times the data,
+                    // and the data is the inverted matrix times the
+                    // shards we have, so the two rows can be combined.
+                    // 校验行乘以逆矩阵，直接由存活分片算出缺失的校验分片。
+                    result[iRow] = multiplyRow(parityRows[iShard - dataShardCount], dataDecodeMatrix);
+                }
+                iRow += 1;
             }
         }
-        codingLoop.codeSomeShards(
-                matrixRows,
-                shards, dataShardCount,
-                outputs, outputCount,
-                offset, byteCount);
+
+        decodeMatrixCache.put((BitSet) key.clone(), result);
+        return result;
+    }
+
+    /**
+     * Multiplies a row vector by a square matrix.
+     */
+    private byte [] multiplyRow(byte [] row, Matrix m) {
+        byte [] result = new byte [dataShardCount];
+        for (int c = 0; c < dataShardCount; c++) {
+            byte value = 0;
+            for (int i = 0; i < dataShardCount; i++) {
+                value ^= Galois.multiply(row[i], m.get(i, c));
+            }
+            result[c] = value;
+        }
+        return result;
     }
 
     /**
@@ -351,66 +1025,91 @@ public class ReedSolomon {
     }
 
     /**
-     * Create the matrix to use for encoding, given the number of
-     * data shards and the number of total shards.
-     *
-     * The top square of the matrix is guaranteed to be an identity
-     * matrix, which means that the data shards are unchanged after
-     * encoding.
-     */
-    // 生成一个特定的编码矩阵，使得原始数据在编码后能够保持不变（即“系统码”特性），同时保证任何分片丢失都能通过数学逆运算恢复。
-    private static Matrix buildMatrix(int dataShards, int totalShards) {
-        // Start with a Vandermonde matrix.  This matrix would work,
-        // in theory, but doesn't have the property that the data
-        // shards are unchanged after encoding.
-        // 创建一个 $totalShards \times dataShards$（总分片数 $\times$ 数据分片数）的范德蒙矩阵
-        // 范德蒙矩阵的特点是其任意 $n \times n$ 的子矩阵都是可逆的（非奇异的）。这意味着只要你有任意 $n$ 个分片，理论上都能找回原始数据。
-        // 局限性：直接使用范德蒙矩阵进行编码，会导致输出的所有分片（包括数据分片）都变成了经过编码后的“乱码”，不符合我们“前 $n$ 个分片是原始数据”的直观需求。
-        Matrix vandermonde = vandermonde(totalShards, dataShards);
-
-        // Multiple by the inverse of the top square of the matrix.
-        // This will make the top square be the identity matrix, but
-        // preserve the property that any square subset of rows is
-        // invertible.
-        // 从范德蒙矩阵中截取最上面的 $dataShards \times dataShards$ 部分
-        // 目的：为了将这个顶部方阵转化为单位矩阵（Identity Matrix）。在矩阵运算中，单位矩阵乘以原始数据等于数据本身。
-        Matrix top = vandermonde.submatrix(0, 0, dataShards, dataShards);
-        // 计算顶部方阵的逆矩阵 $Top^{-1}$。
-        // 根据线性代数，一个矩阵乘以自身的逆矩阵等于单位矩阵：$Top \times Top^{-1} = I$
-        // 将整个范德蒙矩阵乘以刚才求得的逆矩阵。
-        // 上半部分：变成了 $Top \times Top^{-1} = I$（单位矩阵）。这意味着前 $n$ 个分片编码后依然是原始数据。
-        // 下半部分：变成了 $Parity \times Top^{-1}$。这部分矩阵专门用于生成校验分片。
-        return vandermonde.times(top.invert());
-    }
-
-    /**
-     * Create a Vandermonde matrix, which is guaranteed to have the
-     * property that any subset of rows that forms a square matrix
-     * is invertible.
-     *
-     * @param rows Number of rows in the result.
-     * @param cols Number of columns in the result.
-     * @return A Matrix.
-     */
-    // 构建一个基础的范德蒙矩阵（Vandermonde Matrix）
-    // 在纠错码理论中，这种矩阵的神奇之处在于：从该矩阵中任意挑选 $n$ 行组成的方阵，在数学上都是可逆的。这是 Reed-Solomon 算法能够从部分丢失的数据中恢复出原始数据的基石。
-    // 范德蒙矩阵（Vandermonde Matrix） 的数学定义就是：每一行都是一个几何级数（等比数列）。
-    // 之所以费力气在代码里构造这样一个矩阵，是因为它有一个极其重要的特性：任意子方阵都可逆（Invertible）。
-    // 纠错应用：在 Reed-Solomon 中，丢失分片等同于从矩阵中删掉几行。剩下的行组成的矩阵依然是一个类范德蒙矩阵，依然可逆。只要可逆，就能通过矩阵求逆运算找回丢失的数据。
-    private static Matrix vandermonde(int rows, int cols) {
-        // 根据传入的参数，创建一个行数为 rows（总分片数 $n+m$），列数为 cols（原始数据分片数 $n$）的新矩阵实例。
-        Matrix result = new Matrix(rows, cols);
-        // 通过双重循环，依次确定矩阵中每一个坐标点 $(r, c)$ 的值。
-        for (int r = 0; r < rows; r++) {
-            for (int c = 0; c < cols; c++) {
-                // 计算 $r^c$。
-                // 逻辑：
-                // 当 $c=0$ 时，$r^0 = 1$（矩阵的第一列全是 1）。
-                // 当 $c=1$ 时，$r^1 = r$（第二列是行号的字节值）。
-                // 当 $c=2$ 时，$r^2 = r \cdot r$（在伽罗瓦域内的乘法）。
-                result.set(r, c, Galois.exp((byte) r, c));
+     * Checks the consistency of arguments to methods that allow some
+     * of the shards to be null.  Shards that are present or needed
+     * must not be null.
+     */
+    private void checkPartialBuffersAndSizes(byte [] [] shards,
+                                             boolean [] shardPresent,
+                                             boolean [] shardNeeded,
+                                             int offset,
+                                             int byteCount) {
+        if (shards.length != totalShardCount) {
+            throw new IllegalArgumentException("wrong number of shards: " + shards.length);
+        }
+        if (shardPresent.length != totalShardCount) {
+            throw new IllegalArgumentException("wrong number of shardPresent flags: " + shardPresent.length);
+        }
+        int shardLength = -1;
+        for (int i = 0; i < totalShardCount; i++) {
+            if (shards[i] == null) {
+                if (shardPresent[i] || shardNeeded[i]) {
+                    throw new IllegalArgumentException("shard " + i + " is null");
+                }
+            }
+            else if (shardLength == -1) {
+                shardLength = shards[i].length;
+            }
+            else if (shards[i].length != shardLength) {
+                throw new IllegalArgumentException("Shards are different sizes");
             }
         }
-        return result;
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset is negative: " + offset);
+        }
+        if (byteCount < 0) {
+            throw new IllegalArgumentException("byteCount is negative: " + byteCount);
+        }
+        if (shardLength < offset + byteCount) {
+            throw new IllegalArgumentException("buffers too small: " + (offset + byteCount));
+        }
+    }
+
+    /**
+     * Checks the consistency of ByteBuffer shards passed to public
+     * methods, and returns the number of bytes remaining in each.
+     */
+    private int checkBuffersAndSizes(ByteBuffer [] shards) {
+        if (shards.length != totalShardCount) {
+            throw new IllegalArgumentException("wrong number of shards: " + shards.length);
+        }
+        final int byteCount = shards[0].remaining();
+        for (int i = 1; i < shards.length; i++) {
+            if (shards[i].remaining() != byteCount) {
+                throw new IllegalArgumentException("Shards are different sizes");
+            }
+        }
+        return byteCount;
+    }
+
+    /**
+     * Checks the ByteBuffer shards passed to decodeShards, where only
+     * the present and wanted shards are needed, and returns the number
+     * of bytes remaining in each.
+     */
+    private int checkPartialBuffersAndSizes(ByteBuffer [] shards,
+                                            boolean [] shardPresent,
+                                            boolean [] shardNeeded) {
+        if (shards.length != totalShardCount) {
+            throw new IllegalArgumentException("wrong number of shards: " + shards.length);
+        }
+        if (shardPresent.length != totalShardCount) {
+            throw new IllegalArgumentException("wrong number of shardPresent flags: " + shardPresent.length);
+        }
+        int byteCount = -1;
+        for (int i = 0; i < totalShardCount; i++) {
+            if (shards[i] == null) {
+                if (shardPresent[i] || shardNeeded[i]) {
+                    throw new IllegalArgumentException("shard " + i + " is null");
+                }
+            }
+            else if (byteCount == -1) {
+                byteCount = shards[i].remaining();
+            }
+            else if (shards[i].remaining() != byteCount) {
+                throw new IllegalArgumentException("Shards are different sizes");
+            }
+        }
+        return Math.max(0, byteCount);
     }
 }
@@ -0,0 +1,380 @@
+/**
+ * Reed-Solomon Coding over 16-bit values.
+ *
+ * Copyright 2015, Backblaze, Inc.
+ */
+
+package com.backblaze.erasure;
+
+import java.util.BitSet;
+
+/**
+ * Reed-Solomon Coding over 16-bit values, for codes with more than 256
+ * shards.
+ *
+ * This works the same way as ReedSolomon, using Galois16 and Matrix16
+ * instead of Galois and Matrix, so there can be up to 65536 shards in
+ * total.  Each pair of bytes in a shard is one 16-bit symbol, high byte
+ * first, so offsets and byte counts must be even.
+ *
+ * The split multiplication tables for the parity rows are built once,
+ * when the codec is made.  They take 1KB for each element of the
+ * parity part of the matrix, so 200 data shards with 40 parity shards
+ * use about 8MB.
+ *
+ * Decoding inverts a dataShardCount square matrix, which is slow for
+ * wide codes, so the tables for the missing shards are kept in a
+ * DecodeMatrixCache, keyed by which shards are present, as ReedSolomon
+ * does.  An entry takes 1KB for each data shard times each missing
+ * shard, so the default cache is small.
+ */
+// 16 位版本的 ReedSolomon：支持超过 256 个分片，例如整机架的 200+40 宽条带。
+public class ReedSolomon16 {
+
+    private final int dataShardCount;
+    private final int parityShardCount;
+    private final int totalShardCount;
+    private final Matrix16 matrix;
+    private final CodingLoop16 codingLoop;
+
+    /**
+     * Split multiplication tables for the parity rows of the matrix:
+     * parityTables[iParity][iData].
+     */
+    private final char [] [] [] parityTables;
+
+    /**
+     * The default number of sets of missing shards to keep decoding
+     * tables for.
+     */
+    public static final int DEFAULT_DECODE_CACHE_SIZE = 8;
+
+    /**
+     * Split multiplication tables for rebuilding the missing shards,
+     * keyed by which shards are present.
+     */
+    private final DecodeMatrixCache decodeMatrixCache;
+
+    /**
+     * Creates a codec with the default coding loop.
+     */
+    public static ReedSolomon16 create(int dataShardCount, int parityShardCount) {
+        return new ReedSolomon16(dataShardCount, parityShardCount, new InputOutputSplitTableCodingLoop16());
+    }
+
+    /**
+     * Initializes a new encoder/decoder, with a chosen coding loop.
+     */
+    public ReedSolomon16(int dataShardCount, int parityShardCount, CodingLoop16 codingLoop) {
+        this(dataShardCount, parityShardCount, codingLoop, DEFAULT_DECODE_CACHE_SIZE);
+    }
+
+    /**
+     * Initializes a new encoder/decoder, with a chosen coding loop and
+     * a chosen size for the cache of decoding tables.
+     *
+     * @param decodeCacheSize The number of different sets of missing
+     *                        shards to remember decoding tables for.
+     *                        Zero turns off the cache.
+     */
+    public ReedSolomon16(int dataShardCount, int parityShardCount, CodingLoop16 codingLoop, int decodeCacheSize) {
+
+        // The Vandermonde matrix has one row for each element of the
+        // field, so that limits the number of shards.
+        if (dataShardCount <= 0) {
+            throw new IllegalArgumentException("dataShardCount is not positive: " + dataShardCount);
+        }
+        if (parityShardCount < 0) {
+            throw new IllegalArgumentException("parityShardCount is negative: " + parityShardCount);
+        }
+        if (Galois16.FIELD_SIZE < dataShardCount + parityShardCount) {
+            throw new IllegalArgumentException("too many shards - max is " + Galois16.FIELD_SIZE);
+        }
+
+        this.dataShardCount = dataShardCount;
+        this.parityShardCount = parityShardCount;
+        this.codingLoop = codingLoop;
+        this.totalShardCount = dataShardCount + parityShardCount;
+        matrix = buildMatrix(dataShardCount, this.totalShardCount);
+        parityTables = new char [parityShardCount] [] [];
+        for (int i = 0; i < parityShardCount; i++) {
+            parityTables[i] = rowTables(matrix.getRow(dataShardCount + i));
+        }
+        decodeMatrixCache = new DecodeMatrixCache(decodeCacheSize);
+    }
+
+    /**
+     * Returns the cache of decoding tables.
+     */
+    public DecodeMatrixCache getDecodeMatrixCache() {
+        return decodeMatrixCache;
+    }
+
+    /**
+     * Returns the number of data shards.
+     */
+    public int getDataShardCount() {
+        return dataShardCount;
+    }
+
+    /**
+     * Returns the number of parity shards.
+     */
+    public int getParityShardCount() {
+        return parityShardCount;
+    }
+
+    /**
+     * Returns the total number of shards.
+     */
+    public int getTotalShardCount() {
+        return totalShardCount;
+    }
+
+    /**
+     * Encodes parity for a set of data shards.
+     *
+     * @param shards An array containing data shards followed by parity shards.
+     *               Each shard is a byte array, and they must all be the same
+     *               size.
+     * @param offset The index of the first byte in each shard to encode.
+     *               Must be even.
+     * @param byteCount The number of bytes to encode in each shard.
+     *                  Must be even.
+     */
+    public void encodeParity(byte[][] shards, int offset, int byteCount) {
+        checkBuffersAndSizes(shards, offset, byteCount);
+
+        byte [] [] outputs = new byte [parityShardCount] [];
+        System.arraycopy(shards, dataShardCount, outputs, 0, parityShardCount);
+
+        codingLoop.codeSomeShards(
+                parityTables,
+                shards, dataShardCount,
+                outputs, parityShardCount,
+                offset, byteCount);
+    }
+
+    /**
+     * Returns true if the parity shards contain the right data.
+     *
+     * @param shards An array containing data shards followed by parity shards.
+     *               Each shard is a byte array, and they must all be the same
+     *               size.
+     * @param firstByte The index of the first byte in each shard to check.
+     *                  Must be even.
+     * @param byteCount The number of bytes to check in each shard.
+     *                  Must be even.
+     */
+    public boolean isParityCorrect(byte[][] shards, int firstByte, int byteCount) {
+        checkBuffersAndSizes(shards, firstByte, byteCount);
+
+        byte [] [] toCheck = new byte [parityShardCount] [];
+        System.arraycopy(shards, dataShardCount, toCheck, 0, parityShardCount);
+
+        return codingLoop.checkSomeShards(
+                parityTables,
+                shards, dataShardCount,
+                toCheck, parityShardCount,
+                firstByte, byteCount,
+                new byte [firstByte + byteCount]);
+    }
+
+    /**
+     * Given a list of shards, some of which contain data, fills in the
+     * ones that don't have data.
+     *
+     * Quickly does nothing if all of the shards are present.
+     *
+     * If any shards are missing (based on the flags in shardsPresent),
+     * the data in those shards is recomputed and filled in.
+     */
+    public void decodeMissing(byte [] [] shards,
+                              boolean [] shardPresent,
+                              final int offset,
+                              final int byteCount) {
+        // Check arguments.
+        checkBuffersAndSizes(shards, offset, byteCount);
+
+        // Quick check: are all of the shards present?  If so, there's
+        // nothing to do.
+        int numberPresent = 0;
+        for (int i = 0; i < totalShardCount; i++) {
+            if (shardPresent[i]) {
+                numberPresent += 1;
+            }
+        }
+        if (numberPresent == totalShardCount) {
+            // Cool.  All of the shards have data.  We don't
+            // need to do anything.
+            return;
+        }
+
+        // More complete sanity check
+        if (numberPresent < dataShardCount) {
+            throw new IllegalArgumentException("Not enough shards present");
+        }
+
+        // The inputs are the first dataShardCount shards that are
+        // present, and the outputs are the missing shards.
+        byte [] [] subShards = new byte [dataShardCount] [];
+        {
+            int subMatrixRow = 0;
+            for (int matrixRow = 0; matrixRow < totalShardCount && subMatrixRow < dataShardCount; matrixRow++) {
+                if (shardPresent[matrixRow]) {
+                    subShards[subMatrixRow] = shards[matrixRow];
+                    subMatrixRow += 1;
+                }
+            }
+        }
+        byte [] [] outputs = new byte [parityShardCount] [];
+        int outputCount = 0;
+        for (int iShard = 0; iShard < totalShardCount; iShard++) {
+            if (!shardPresent[iShard]) {
+                outputs[outputCount] = shards[iShard];
+                outputCount += 1;
+            }
+        }
+        codingLoop.codeSomeShards(
+                getDecodeTables(shardPresent),
+                subShards, dataShardCount,
+                outputs, outputCount,
+                offset, byteCount);
+    }
+
+    /**
+     * Returns the split multiplication tables that rebuild the missing
+     * shards, in order, from the first dataShardCount shards that are
+     * present.  They come from the cache when possible, and are shared,
+     * so they must not be modified.
+     */
+    private char [] [] [] getDecodeTables(boolean [] shardPresent) {
+        BitSet key = new BitSet(totalShardCount);
+        for (int i = 0; i < totalShardCount; i++) {
+            if (shardPresent[i]) {
+                key.set(i);
+            }
+        }
+        char [] [] [] result = (char [] [] []) decodeMatrixCache.getEntry(key);
+        if (result != null) {
+            return result;
+        }
+
+        // Pull out the rows of the matrix that correspond to the
+        // shards that we have and build a square matrix.
+        Matrix16 subMatrix = new Matrix16(dataShardCount, dataShardCount);
+        {
+            int subMatrixRow = 0;
+            for (int matrixRow = 0; matrixRow < totalShardCount && subMatrixRow < dataShardCount; matrixRow++) {
+                if (shardPresent[matrixRow]) {
+                    for (int c = 0; c < dataShardCount; c++) {
+                        subMatrix.set(subMatrixRow, c, matrix.get(matrixRow, c));
+                    }
+                    subMatrixRow += 1;
+                }
+            }
+        }
+
+        // Invert the matrix, so we can go from the encoded shards back
+        // to the original data.  A missing data shard uses its row of
+        // the inverse.  A missing parity shard uses its parity row
+        // times the inverse, so all of the missing shards are rebuilt
+        // in one pass over the shards we have.
+        Matrix16 dataDecodeMatrix = subMatrix.invert();
+        int missingCount = totalShardCount - key.cardinality();
+        result = new char [missingCount] [] [];
+        int iRow = 0;
+        for (int iShard = 0; iShard < totalShardCount; iShard++) {
+            if (!shardPresent[iShard]) {
+                Matrix16 row = matrix.submatrix(iShard, 0, iShard + 1, dataShardCount);
+                result[iRow] = rowTables(row.times(dataDecodeMatrix).getRow(0));
+                iRow += 1;
+            }
+        }
+
+        decodeMatrixCache.putEntry(key, result);
+        return result;
+    }
+
+    /**
+     * Returns the split multiplication tables for one row of a matrix.
+     */
+    private static char [] [] rowTables(int [] row) {
+        char [] [] result = new char [row.length] [];
+        for (int c = 0; c < row.length; c++) {
+            result[c] = Galois16.splitTable(row[c]);
+        }
+        return result;
+    }
+
+    /**
+     * Checks the consistency of arguments passed to public methods.
+     */
+    private void checkBuffersAndSizes(byte [] [] shards, int offset, int byteCount) {
+        // The number of buffers should be equal to the number of
+        // data shards plus the number of parity shards.
+        if (shards.length != totalShardCount) {
+            throw new IllegalArgumentException("wrong number of shards: " + shards.length);
+        }
+
+        // All of the shard buffers should be the same length.
+        int shardLength = shards[0].length;
+        for (int i = 1; i < shards.length; i++) {
+            if (shards[i].length != shardLength) {
+                throw new IllegalArgumentException("Shards are different sizes");
+            }
+        }
+
+        // The offset and byteCount must be non-negative, even, and fit
+        // in the buffers.
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset is negative: " + offset);
+        }
+        if (byteCount < 0) {
+            throw new IllegalArgumentException("byteCount is negative: " + byteCount);
+        }
+        if ((offset & 1) != 0 || (byteCount & 1) != 0) {
+            throw new IllegalArgumentException("offset and byteCount must be even: " + offset + ", " + byteCount);
+        }
+        if (shardLength < offset + byteCount) {
+            throw new IllegalArgumentException("buffers too small: " + (offset + byteCount));
+        }
+    }
+
+    /**
+     * Create the matrix to use for encoding, given the number of
+     * data shards and the number of total shards.
+     *
+     * The top square of the matrix is guaranteed to be an identity
+     * matrix, which means that the data shards are unchanged after
+     * encoding.
+     */
+    private static Matrix16 buildMatrix(int dataShards, int totalShards) {
+        // Start with a Vandermonde matrix.  This matrix would work,
+        // in theory, but doesn't have the property that the data
+        // shards are unchanged after encoding.
+        Matrix16 vandermonde = vandermonde(totalShards, dataShards);
+
+        // Multiple by the inverse of the top square of the matrix.
+        // This will make the top square be the identity matrix, but
+        // preserve the property that any square subset of rows is
+        // invertible.
+        Matrix16 top = vandermonde.submatrix(0, 0, dataShards, dataShards);
+        return vandermonde.times(top.invert());
+    }
+
+    /**
+     * Create a Vandermonde matrix, which is guaranteed to have the
+     * property that any subset of rows that forms a square matrix
+     * is invertible.
+     */
+    private static Matrix16 vandermonde(int rows, int cols) {
+        Matrix16 result = new Matrix16(rows, cols);
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                result.set(r, c, Galois16.exp(r, c));
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,349 @@
+/**
+ * An input stream that reads erasure coded shards.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * An input stream that reads the shards written by a
+ * ReedSolomonOutputStream, and returns the original bytes.
+ *
+ * The shards are read one stripe at a time, so the original bytes
+ * start coming out as soon as the first stripe has been read, and
+ * memory use is one stripe: stripeSize * totalShardCount.
+ *
+ * Shards can be missing from the start (a null input), and they can
+ * fail part way through, either by throwing an IOException or by
+ * ending early.  A shard that fails is closed and not read again.
+ * When any data shard is missing from a stripe, decodeShards rebuilds
+ * just the missing data shards; stripes with all of the data shards
+ * are returned as they are, and missing parity is never rebuilt.
+ * If fewer than dataShardCount shards are left, reading throws an
+ * IOException, and so does every read after it, because the shards
+ * have already moved past the stripe that failed.
+ *
+ * The length of the original data is not stored in the shards, so it
+ * has to be given, along with the stripe size used to write them.
+ *
+ * Closing this stream closes all of the shard inputs.
+ */
+public class ReedSolomonInputStream extends InputStream {
+
+    private final CodingContext context;
+    private final InputStream [] shardInputs;
+    private final int dataShardCount;
+    private final int stripeSize;
+    private final long byteCount;
+
+    /**
+     * One stripe: data shards followed by parity shards.
+     */
+    private final byte [] [] shards;
+    private final boolean [] shardPresent;
+
+    /**
+     * True for each shard that was missing or has failed.
+     */
+    private final boolean [] shardFailed;
+
+    /**
+     * The data shards to rebuild in the current stripe.  It's only
+     * replaced when the number of them changes.
+     */
+    private int [] missingData = new int [0];
+
+    /**
+     * The number of bytes of each shard in the current stripe.
+     */
+    private int shardSize;
+
+    /**
+     * The number of bytes of original data in the current stripe, and
+     * how many of them have been returned.
+     */
+    private int stripeLength;
+    private int stripePosition;
+
+    private long position;
+    private boolean closed;
+
+    /**
+     * Set when a stripe couldn't be read.  The shards have moved past
+     * it by then, so nothing after it can be read either.
+     */
+    private IOException failure;
+
+    /**
+     * Reads the shards from input streams.
+     *
+     * @param codec The codec the shards were encoded with.
+     * @param stripeSize The number of bytes of each shard in one stripe.
+     * @param byteCount The length of the original data.
+     * @param shardInputs One input for each shard, data shards first.
+     *                    Missing shards are null.
+     */
+    public ReedSolomonInputStream(ReedSolomon codec, int stripeSize, long byteCount, InputStream [] shardInputs) {
+        if (stripeSize <= 0) {
+            throw new IllegalArgumentException("stripeSize must be positive: " + stripeSize);
+        }
+        if (byteCount < 0) {
+            throw new IllegalArgumentException("byteCount is negative: " + byteCount);
+        }
+        if (shardInputs.length != codec.getTotalShardCount()) {
+            throw new IllegalArgumentException("wrong number of shard inputs: " + shardInputs.length);
+        }
+        this.context = codec.newCodingContext();
+        this.shardInputs = shardInputs.clone();
+        this.dataShardCount = codec.getDataShardCount();
+        this.stripeSize = stripeSize;
+        this.byteCount = byteCount;
+        this.shards = new byte [codec.getTotalShardCount()] [stripeSize];
+        this.shardPresent = new boolean [codec.getTotalShardCount()];
+        this.shardFailed = new boolean [codec.getTotalShardCount()];
+        for (int i = 0; i < shardInputs.length; i++) {
+            shardFailed[i] = (shardInputs[i] == null);
+        }
+    }
+
+    /**
+     * Reads the shards from channels.
+     *
+     * @param codec The codec the shards were encoded with.
+     * @param stripeSize The number of bytes of each shard in one stripe.
+     * @param byteCount The length of the original data.
+     * @param shardChannels One channel for each shard, data shards first.
+     *                      Missing shards are null.
+     */
+    public ReedSolomonInputStream(ReedSolomon codec, int stripeSize, long byteCount, ReadableByteChannel [] shardChannels) {
+        this(codec, stripeSize, byteCount, toInputStreams(shardChannels));
+    }
+
+    /**
+     * Returns the number of shards that have failed or were missing.
+     */
+    public int getFailedShardCount() {
+        int result = 0;
+        for (boolean failed : shardFailed) {
+            if (failed) {
+                result += 1;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fillStripe()) {
+            return -1;
+        }
+        int result = shards[stripePosition / shardSize][stripePosition % shardSize] & 0xFF;
+        stripePosition += 1;
+        position += 1;
+        return result;
+    }
+
+    @Override
+    public int read(byte [] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || b.length - off < len) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (!fillStripe()) {
+            return -1;
+        }
+        int total = 0;
+        while (total < len && stripePosition < stripeLength) {
+            int shardIndex = stripePosition / shardSize;
+            int shardOffset = stripePosition % shardSize;
+            int count = Math.min(len - total, Math.min(shardSize - shardOffset, stripeLength - stripePosition));
+            System.arraycopy(shards[shardIndex], shardOffset, b, off + total, count);
+            total += count;
+            stripePosition += count;
+        }
+        position += total;
+        return total;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (closed) {
+            return 0;
+        }
+        checkNotFailed();
+        return stripeLength - stripePosition;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        IOException failure = null;
+        for (int i = 0; i < shardInputs.length; i++) {
+            if (!shardFailed[i]) {
+                try {
+                    shardInputs[i].close();
+                }
+                catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Makes sure there are bytes in the current stripe, reading the
+     * next stripe if needed.  Returns false at the end of the data.
+     */
+    private boolean fillStripe() throws IOException {
+        if (closed) {
+            throw new IOException("stream is closed");
+        }
+        checkNotFailed();
+        if (stripePosition < stripeLength) {
+            return true;
+        }
+        long remaining = byteCount - position;
+        if (remaining == 0) {
+            return false;
+        }
+        long stripeBytes = (long) dataShardCount * stripeSize;
+        shardSize = (stripeBytes <= remaining)
+                ? stripeSize
+                : ReedSolomonOutputStream.lastStripeShardSize(remaining, dataShardCount, stripeSize);
+        stripeLength = 0;
+        stripePosition = 0;
+        try {
+            readStripe();
+        }
+        catch (IOException e) {
+            failure = e;
+            throw e;
+        }
+        stripeLength = (int) Math.min(remaining, (long) dataShardCount * shardSize);
+        return true;
+    }
+
+    /**
+     * Throws if an earlier stripe couldn't be read.
+     */
+    private void checkNotFailed() throws IOException {
+        if (failure != null) {
+            throw new IOException("an earlier stripe could not be read", failure);
+        }
+    }
+
+    /**
+     * Reads shardSize bytes from each shard that's still working, and
+     * rebuilds the missing data shards.
+     */
+    private void readStripe() throws IOException {
+        int presentCount = 0;
+        int dataMissingCount = 0;
+        for (int i = 0; i < shards.length; i++) {
+            shardPresent[i] = !shardFailed[i] && tryReadShard(i);
+            if (shardPresent[i]) {
+                presentCount += 1;
+            }
+            else if (i < dataShardCount) {
+                dataMissingCount += 1;
+            }
+        }
+        if (presentCount < dataShardCount) {
+            throw new IOException("not enough shards: " + presentCount + " of " + dataShardCount + " needed");
+        }
+        if (0 < dataMissingCount) {
+            if (missingData.length != dataMissingCount) {
+                missingData = new int [dataMissingCount];
+            }
+            int next = 0;
+            for (int i = 0; i < dataShardCount; i++) {
+                if (!shardPresent[i]) {
+                    missingData[next++] = i;
+                }
+            }
+            context.decodeShards(shards, shardPresent, missingData, 0, shardSize);
+        }
+    }
+
+    /**
+     * Reads shardSize bytes of one shard.  If the shard fails, closes
+     * it and returns false.  If it's only bad in this stripe, returns
+     * false.
+     */
+    private boolean tryReadShard(int shardIndex) {
+        final InputStream in = shardInputs[shardIndex];
+        try {
+            return readShard(shardIndex, in, shards[shardIndex], shardSize);
+        }
+        catch (IOException e) {
+            // The shard has failed; decode around it.
+        }
+        shardFailed[shardIndex] = true;
+        try {
+            in.close();
+        }
+        catch (IOException e) {
+            // It's already failed.
+        }
+        return false;
+    }
+
+    /**
+     * Reads one shard of a stripe.  Subclasses can override this to
+     * check framing, such as a checksum, around each stripe.
+     *
+     * @param shardIndex The index of the shard, data shards first.
+     * @param in The input for the shard.
+     * @param buffer Where to put the bytes of the shard.
+     * @param shardSize The number of bytes of the shard in this stripe.
+     * @return false if the shard's bytes in this stripe are bad, and
+     *         should be decoded from the other shards.
+     * @throws IOException if the shard can't be read any more.  It
+     *                     isn't read again.
+     */
+    protected boolean readShard(int shardIndex, InputStream in, byte [] buffer, int shardSize) throws IOException {
+        readFully(in, buffer, shardSize);
+        return true;
+    }
+
+    /**
+     * Reads exactly count bytes into the start of the buffer.
+     *
+     * @throws EOFException if the input ends first.
+     */
+    protected static void readFully(InputStream in, byte [] buffer, int count) throws IOException {
+        int position = 0;
+        while (position < count) {
+            int n = in.read(buffer, position, count - position);
+            if (n < 0) {
+                throw new EOFException("shard ended early");
+            }
+            position += n;
+        }
+    }
+
+    private static InputStream [] toInputStreams(ReadableByteChannel [] channels) {
+        InputStream [] result = new InputStream [channels.length];
+        for (int i = 0; i < channels.length; i++) {
+            result[i] = (channels[i] == null) ? null : Channels.newInputStream(channels[i]);
+        }
+        return result;
+    }
+}
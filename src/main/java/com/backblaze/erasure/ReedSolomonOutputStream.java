@@ -0,0 +1,253 @@
+/**
+ * An output stream that erasure codes what's written to it.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * An output stream that erasure codes the bytes written to it, and
+ * writes each data and parity shard to its own output stream.
+ *
+ * The bytes are cut into stripes of dataShardCount * stripeSize bytes.
+ * The first stripeSize bytes of a stripe go to data shard 0, the next
+ * stripeSize bytes to data shard 1, and so on.  When a stripe is full,
+ * its parity is computed, and stripeSize bytes are written to each of
+ * the shard outputs.  Only one stripe is held in memory, so the stream
+ * can be any length, and memory use is stripeSize * totalShardCount.
+ *
+ * The last stripe is usually not full.  When the stream is closed, it
+ * is written with a smaller shard size: the remaining bytes divided by
+ * the number of data shards, rounded up, with zeros after the end of
+ * the data.  The length of the stream is not written anywhere, so it
+ * has to be kept with the shards to decode them.  getByteCount() says
+ * what it is.  ReedSolomonInputStream reads shards written this way.
+ *
+ * flush() flushes the stripes written so far.  It can't write part of
+ * a stripe, because the parity isn't known until the stripe is full.
+ *
+ * Closing this stream closes all of the shard outputs.
+ */
+public class ReedSolomonOutputStream extends OutputStream {
+
+    private final CodingContext context;
+    private final OutputStream [] shardOutputs;
+    private final int dataShardCount;
+    private final int stripeSize;
+
+    /**
+     * One stripe: data shards followed by parity shards.
+     */
+    private final byte [] [] shards;
+
+    /**
+     * The number of bytes of the current stripe filled in so far.
+     */
+    private int stripePosition;
+
+    private long byteCount;
+    private boolean closed;
+
+    /**
+     * Writes the shards to output streams.
+     *
+     * @param codec The codec that computes parity.
+     * @param stripeSize The number of bytes of each shard in one stripe.
+     * @param shardOutputs One output for each shard, data shards first.
+     */
+    public ReedSolomonOutputStream(ReedSolomon codec, int stripeSize, OutputStream [] shardOutputs) {
+        if (stripeSize <= 0) {
+            throw new IllegalArgumentException("stripeSize must be positive: " + stripeSize);
+        }
+        if (shardOutputs.length != codec.getTotalShardCount()) {
+            throw new IllegalArgumentException("wrong number of shard outputs: " + shardOutputs.length);
+        }
+        for (OutputStream shardOutput : shardOutputs) {
+            if (shardOutput == null) {
+                throw new IllegalArgumentException("shard output is null");
+            }
+        }
+        this.context = codec.newCodingContext();
+        this.shardOutputs = shardOutputs.clone();
+        this.dataShardCount = codec.getDataShardCount();
+        this.stripeSize = stripeSize;
+        this.shards = new byte [codec.getTotalShardCount()] [stripeSize];
+    }
+
+    /**
+     * Writes the shards to channels.
+     *
+     * @param codec The codec that computes parity.
+     * @param stripeSize The number of bytes of each shard in one stripe.
+     * @param shardChannels One channel for each shard, data shards first.
+     */
+    public ReedSolomonOutputStream(ReedSolomon codec, int stripeSize, WritableByteChannel [] shardChannels) {
+        this(codec, stripeSize, toOutputStreams(shardChannels));
+    }
+
+    /**
+     * Returns the number of bytes of each shard in one stripe.
+     */
+    public int getStripeSize() {
+        return stripeSize;
+    }
+
+    /**
+     * Returns the number of bytes written to this stream so far.
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        checkOpen();
+        shards[stripePosition / stripeSize][stripePosition % stripeSize] = (byte) b;
+        stripePosition += 1;
+        byteCount += 1;
+        if (stripePosition == dataShardCount * stripeSize) {
+            writeStripe(stripeSize);
+        }
+    }
+
+    @Override
+    public void write(byte [] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || b.length - off < len) {
+            throw new IndexOutOfBoundsException();
+        }
+        checkOpen();
+        while (0 < len) {
+            int shardIndex = stripePosition / stripeSize;
+            int shardOffset = stripePosition % stripeSize;
+            int count = Math.min(len, stripeSize - shardOffset);
+            System.arraycopy(b, off, shards[shardIndex], shardOffset, count);
+            off += count;
+            len -= count;
+            stripePosition += count;
+            byteCount += count;
+            if (stripePosition == dataShardCount * stripeSize) {
+                writeStripe(stripeSize);
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        checkOpen();
+        for (OutputStream shardOutput : shardOutputs) {
+            shardOutput.flush();
+        }
+    }
+
+    /**
+     * Writes the last stripe, if there is one, and closes the shard
+     * outputs.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        IOException failure = null;
+        try {
+            if (0 < stripePosition) {
+                writeLastStripe();
+            }
+        }
+        catch (IOException e) {
+            failure = e;
+        }
+        for (OutputStream shardOutput : shardOutputs) {
+            try {
+                shardOutput.close();
+            }
+            catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Returns the number of bytes of each shard in the last stripe, for
+     * a stream of the given length.  If the length is a multiple of the
+     * size of a stripe, the last stripe is full.
+     */
+    static int lastStripeShardSize(long byteCount, int dataShardCount, int stripeSize) {
+        long stripeBytes = (long) dataShardCount * stripeSize;
+        long remaining = byteCount % stripeBytes;
+        if (remaining == 0) {
+            return (byteCount == 0) ? 0 : stripeSize;
+        }
+        return (int) ((remaining + dataShardCount - 1) / dataShardCount);
+    }
+
+    /**
+     * Moves the bytes of a partial stripe into shards of the smaller
+     * size, pads the rest with zeros, and writes it.
+     */
+    private void writeLastStripe() throws IOException {
+        final int shardSize = lastStripeShardSize(stripePosition, dataShardCount, stripeSize);
+        // Byte i moves to where byte (i / shardSize) * stripeSize +
+        // (i % shardSize) is now, which is never before i.  Going
+        // backwards, that byte has already been moved.
+        for (int i = dataShardCount * shardSize - 1; 0 <= i; i--) {
+            byte value = (i < stripePosition) ? shards[i / stripeSize][i % stripeSize] : 0;
+            shards[i / shardSize][i % shardSize] = value;
+        }
+        writeStripe(shardSize);
+    }
+
+    /**
+     * Computes the parity for the current stripe, and writes shardSize
+     * bytes of each shard.
+     */
+    private void writeStripe(int shardSize) throws IOException {
+        context.encodeParity(shards, 0, shardSize);
+        for (int i = 0; i < shards.length; i++) {
+            writeShard(i, shardOutputs[i], shards[i], shardSize);
+        }
+        stripePosition = 0;
+    }
+
+    /**
+     * Writes one shard of a stripe.  Subclasses can override this to
+     * add framing, such as a checksum, around each stripe.
+     *
+     * @param shardIndex The index of the shard, data shards first.
+     * @param out The output for the shard.
+     * @param shard The bytes of the shard.
+     * @param shardSize The number of bytes of the shard in this stripe.
+     */
+    protected void writeShard(int shardIndex, OutputStream out, byte [] shard, int shardSize) throws IOException {
+        out.write(shard, 0, shardSize);
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("stream is closed");
+        }
+    }
+
+    private static OutputStream [] toOutputStreams(WritableByteChannel [] channels) {
+        OutputStream [] result = new OutputStream [channels.length];
+        for (int i = 0; i < channels.length; i++) {
+            if (channels[i] == null) {
+                throw new IllegalArgumentException("shard channel is null");
+            }
+            result[i] = Channels.newOutputStream(channels[i]);
+        }
+        return result;
+    }
+}
@@ -27,6 +27,9 @@ import java.nio.ByteBuffer;
  * contents of the file, and then padded to a multiple of four bytes
  * with zeros.  The padding is because all four data shards must be
  * the same size.
+ *
+ * This reads the whole file into memory, so it only works for files
+ * smaller than 2GB.  MappedFileEncoder handles files of any size.
  */
 // SampleEncoder 的主要作用是将一个原始文件切分为多个数据分片（Data Shards），并生成额外的校验分片（Parity Shards）。
 // 具体逻辑如下：
@@ -0,0 +1,161 @@
+/**
+ * The header at the start of each shard file.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The header at the start of each shard file written by
+ * MappedFileEncoder.
+ *
+ * It holds everything needed to decode the file from its shards: the
+ * number of data and parity shards, which shard this is, the length of
+ * the original file, and the length of each shard.  The shard's bytes
+ * follow the header.  All values are big-endian.
+ *
+ * <pre>
+ *    0  int   magic number, "RSMF"
+ *    4  int   data shard count
+ *    8  int   parity shard count
+ *   12  int   index of this shard
+ *   16  long  length of the original file
+ *   24  long  length of each shard, not counting the header
+ * </pre>
+ */
+public class ShardFileHeader {
+
+    /**
+     * The first four bytes of every shard file.
+     */
+    public static final int MAGIC = 0x52534D46;
+
+    /**
+     * The number of bytes in the header.
+     */
+    public static final int SIZE = 32;
+
+    private final int dataShardCount;
+    private final int parityShardCount;
+    private final int shardIndex;
+    private final long fileLength;
+    private final long shardLength;
+
+    /**
+     * Makes a header for one shard of a file.
+     */
+    public ShardFileHeader(int dataShardCount, int parityShardCount, int shardIndex, long fileLength, long shardLength) {
+        if (dataShardCount <= 0 || parityShardCount < 0) {
+            throw new IllegalArgumentException("bad shard counts: " + dataShardCount + "+" + parityShardCount);
+        }
+        if (shardIndex < 0 || dataShardCount + parityShardCount <= shardIndex) {
+            throw new IllegalArgumentException("bad shard index: " + shardIndex);
+        }
+        if (fileLength < 0 || shardLength < 0 || shardLength * dataShardCount < fileLength) {
+            throw new IllegalArgumentException("bad lengths: " + fileLength + ", " + shardLength);
+        }
+        this.dataShardCount = dataShardCount;
+        this.parityShardCount = parityShardCount;
+        this.shardIndex = shardIndex;
+        this.fileLength = fileLength;
+        this.shardLength = shardLength;
+    }
+
+    /**
+     * Returns the number of data shards.
+     */
+    public int getDataShardCount() {
+        return dataShardCount;
+    }
+
+    /**
+     * Returns the number of parity shards.
+     */
+    public int getParityShardCount() {
+        return parityShardCount;
+    }
+
+    /**
+     * Returns the index of this shard; data shards come first.
+     */
+    public int getShardIndex() {
+        return shardIndex;
+    }
+
+    /**
+     * Returns the length of the original file.
+     */
+    public long getFileLength() {
+        return fileLength;
+    }
+
+    /**
+     * Returns the length of each shard, not counting the header.
+     */
+    public long getShardLength() {
+        return shardLength;
+    }
+
+    /**
+     * Returns true if the other header is for a shard of the same file.
+     */
+    public boolean isSameFile(ShardFileHeader other) {
+        return dataShardCount == other.dataShardCount &&
+                parityShardCount == other.parityShardCount &&
+                fileLength == other.fileLength &&
+                shardLength == other.shardLength;
+    }
+
+    /**
+     * Writes the header at the start of a file.
+     */
+    public void write(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+        buffer.putInt(MAGIC);
+        buffer.putInt(dataShardCount);
+        buffer.putInt(parityShardCount);
+        buffer.putInt(shardIndex);
+        buffer.putLong(fileLength);
+        buffer.putLong(shardLength);
+        buffer.flip();
+        long position = 0;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Reads the header from the start of a file.
+     *
+     * @throws IOException if the file is too short, or doesn't start
+     *                     with a valid header.
+     */
+    public static ShardFileHeader read(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) {
+                throw new IOException("shard file too short for header");
+            }
+        }
+        buffer.flip();
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("not a shard file");
+        }
+        int dataShardCount = buffer.getInt();
+        int parityShardCount = buffer.getInt();
+        int shardIndex = buffer.getInt();
+        long fileLength = buffer.getLong();
+        long shardLength = buffer.getLong();
+        try {
+            return new ShardFileHeader(dataShardCount, parityShardCount, shardIndex, fileLength, shardLength);
+        }
+        catch (IllegalArgumentException e) {
+            throw new IOException("bad shard file header: " + e.getMessage());
+        }
+    }
+}
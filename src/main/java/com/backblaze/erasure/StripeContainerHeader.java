@@ -0,0 +1,282 @@
+/**
+ * The header at the start of each shard in a stripe container.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+/**
+ * The header at the start of each shard file written by
+ * StripeContainerOutputStream.
+ *
+ * It describes everything needed to decode the shards: the number of
+ * data and parity shards, which shard this is, the field and the
+ * matrix the parity was computed with, the stripe size, and the length
+ * of the original data.  It ends with a CRC32C of the bytes before it,
+ * so a damaged header is noticed.  All values are big-endian.
+ *
+ * <pre>
+ *    0  int   magic number, "RSSC"
+ *    4  int   format version, 1
+ *    8  int   data shard count
+ *   12  int   parity shard count
+ *   16  int   index of this shard
+ *   20  int   bits in each field element, 8
+ *   24  int   generating polynomial of the field, without the top bit
+ *   28  int   matrix type: MATRIX_VANDERMONDE, MATRIX_CAUCHY, or
+ *             MATRIX_CAUCHY_MIN_XORS
+ *   32  int   stripe size: bytes of each shard in a full stripe
+ *   36  long  length of the original data, or -1 while it's written
+ *   44  int   CRC32C of bytes 0 through 43
+ * </pre>
+ *
+ * After the header come the stripes.  For each one, the shard has a
+ * CRC32C of the shard's bytes in the stripe, followed by those bytes.
+ * The stripes are laid out the same way as by ReedSolomonOutputStream,
+ * so the last one can be shorter.
+ */
+public class StripeContainerHeader {
+
+    /**
+     * The first four bytes of every shard file.
+     */
+    public static final int MAGIC = 0x52535343;
+
+    /**
+     * The version of the format described here.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * The number of bytes in the header.
+     */
+    public static final int SIZE = 48;
+
+    /**
+     * The number of bytes of checksum before each stripe of a shard.
+     */
+    public static final int CHECKSUM_SIZE = 4;
+
+    /**
+     * Matrix built by VandermondeMatrixGenerator.
+     */
+    public static final int MATRIX_VANDERMONDE = 0;
+
+    /**
+     * Matrix built by new CauchyMatrixGenerator(false).
+     */
+    public static final int MATRIX_CAUCHY = 1;
+
+    /**
+     * Matrix built by new CauchyMatrixGenerator(true).
+     */
+    public static final int MATRIX_CAUCHY_MIN_XORS = 2;
+
+    /**
+     * The length written while the data is still being written.
+     */
+    static final long UNKNOWN_LENGTH = -1;
+
+    private static final int FIELD_BITS = 8;
+
+    private final int dataShardCount;
+    private final int parityShardCount;
+    private final int shardIndex;
+    private final int matrixType;
+    private final int stripeSize;
+    private final long dataLength;
+
+    /**
+     * Makes a header for one shard.
+     */
+    public StripeContainerHeader(int dataShardCount,
+                                 int parityShardCount,
+                                 int shardIndex,
+                                 int matrixType,
+                                 int stripeSize,
+                                 long dataLength) {
+        if (dataShardCount <= 0 || parityShardCount <= 0 || Galois.FIELD_SIZE < dataShardCount + parityShardCount) {
+            throw new IllegalArgumentException("bad shard counts: " + dataShardCount + "+" + parityShardCount);
+        }
+        if (shardIndex < 0 || dataShardCount + parityShardCount <= shardIndex) {
+            throw new IllegalArgumentException("bad shard index: " + shardIndex);
+        }
+        if (matrixType < MATRIX_VANDERMONDE || MATRIX_CAUCHY_MIN_XORS < matrixType) {
+            throw new IllegalArgumentException("bad matrix type: " + matrixType);
+        }
+        if (stripeSize <= 0) {
+            throw new IllegalArgumentException("stripeSize must be positive: " + stripeSize);
+        }
+        if (dataLength < UNKNOWN_LENGTH) {
+            throw new IllegalArgumentException("bad data length: " + dataLength);
+        }
+        this.dataShardCount = dataShardCount;
+        this.parityShardCount = parityShardCount;
+        this.shardIndex = shardIndex;
+        this.matrixType = matrixType;
+        this.stripeSize = stripeSize;
+        this.dataLength = dataLength;
+    }
+
+    /**
+     * Returns the number of data shards.
+     */
+    public int getDataShardCount() {
+        return dataShardCount;
+    }
+
+    /**
+     * Returns the number of parity shards.
+     */
+    public int getParityShardCount() {
+        return parityShardCount;
+    }
+
+    /**
+     * Returns the index of this shard; data shards come first.
+     */
+    public int getShardIndex() {
+        return shardIndex;
+    }
+
+    /**
+     * Returns the kind of matrix the parity was computed with.
+     */
+    public int getMatrixType() {
+        return matrixType;
+    }
+
+    /**
+     * Returns the number of bytes of each shard in a full stripe.
+     */
+    public int getStripeSize() {
+        return stripeSize;
+    }
+
+    /**
+     * Returns the length of the original data, or -1 if the shard
+     * wasn't finished.
+     */
+    public long getDataLength() {
+        return dataLength;
+    }
+
+    /**
+     * Returns a copy of this header for another shard, or with the
+     * length filled in.
+     */
+    public StripeContainerHeader with(int newShardIndex, long newDataLength) {
+        return new StripeContainerHeader(dataShardCount, parityShardCount, newShardIndex,
+                matrixType, stripeSize, newDataLength);
+    }
+
+    /**
+     * Returns true if the other header is for a shard of the same data.
+     */
+    public boolean isSameData(StripeContainerHeader other) {
+        return dataShardCount == other.dataShardCount &&
+                parityShardCount == other.parityShardCount &&
+                matrixType == other.matrixType &&
+                stripeSize == other.stripeSize &&
+                dataLength == other.dataLength;
+    }
+
+    /**
+     * Makes a codec that codes the same way as the one that wrote the
+     * shards.
+     */
+    public ReedSolomon newCodec() {
+        return new ReedSolomon(dataShardCount, parityShardCount, CodingLoops.DEFAULT_CODING_LOOP,
+                newMatrixGenerator(matrixType));
+    }
+
+    /**
+     * Returns the matrix generator for a matrix type.
+     */
+    public static MatrixGenerator newMatrixGenerator(int matrixType) {
+        switch (matrixType) {
+            case MATRIX_VANDERMONDE:
+                return new VandermondeMatrixGenerator();
+            case MATRIX_CAUCHY:
+                return new CauchyMatrixGenerator(false);
+            case MATRIX_CAUCHY_MIN_XORS:
+                return new CauchyMatrixGenerator(true);
+            default:
+                throw new IllegalArgumentException("bad matrix type: " + matrixType);
+        }
+    }
+
+    /**
+     * Returns the bytes of the header.
+     */
+    public byte [] toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(dataShardCount);
+        buffer.putInt(parityShardCount);
+        buffer.putInt(shardIndex);
+        buffer.putInt(FIELD_BITS);
+        buffer.putInt(Galois.GENERATING_POLYNOMIAL);
+        buffer.putInt(matrixType);
+        buffer.putInt(stripeSize);
+        buffer.putLong(dataLength);
+        buffer.putInt(checksum(buffer.array(), 0, SIZE - CHECKSUM_SIZE));
+        return buffer.array();
+    }
+
+    /**
+     * Reads a header from the start of a shard.
+     *
+     * @throws IOException if the shard is too short, or doesn't start
+     *                     with a valid header.
+     */
+    public static StripeContainerHeader read(InputStream in) throws IOException {
+        byte [] bytes = new byte [SIZE];
+        ReedSolomonInputStream.readFully(in, bytes, SIZE);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("not a stripe container");
+        }
+        if (buffer.getInt(SIZE - CHECKSUM_SIZE) != checksum(bytes, 0, SIZE - CHECKSUM_SIZE)) {
+            throw new IOException("header checksum is wrong");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported version: " + version);
+        }
+        int dataShardCount = buffer.getInt();
+        int parityShardCount = buffer.getInt();
+        int shardIndex = buffer.getInt();
+        int fieldBits = buffer.getInt();
+        int polynomial = buffer.getInt();
+        if (fieldBits != FIELD_BITS || polynomial != Galois.GENERATING_POLYNOMIAL) {
+            throw new IOException("unsupported field: " + fieldBits + " bits, polynomial " + polynomial);
+        }
+        int matrixType = buffer.getInt();
+        int stripeSize = buffer.getInt();
+        long dataLength = buffer.getLong();
+        try {
+            return new StripeContainerHeader(dataShardCount, parityShardCount, shardIndex,
+                    matrixType, stripeSize, dataLength);
+        }
+        catch (IllegalArgumentException e) {
+            throw new IOException("bad header: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the CRC32C of some bytes.
+     */
+    static int checksum(byte [] bytes, int offset, int count) {
+        CRC32C crc = new CRC32C();
+        crc.update(bytes, offset, count);
+        return (int) crc.getValue();
+    }
+}
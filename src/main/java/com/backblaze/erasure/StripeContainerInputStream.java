@@ -0,0 +1,164 @@
+/**
+ * Reads erasure coded shard files with headers and checksums.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32C;
+
+/**
+ * An input stream that reads the shard files written by
+ * StripeContainerOutputStream, and returns the original bytes.
+ *
+ * Everything needed to decode comes from the headers.  Each stripe of
+ * each shard is checked against its CRC32C as it's read.  A shard whose
+ * checksum is wrong is treated as missing for that stripe only, and is
+ * decoded from the others, so silent corruption on a disk costs one
+ * local repair instead of a failed read.  Shard files that are missing,
+ * have a bad header, or fail part way through are handled the way
+ * ReedSolomonInputStream handles them.
+ */
+public class StripeContainerInputStream extends ReedSolomonInputStream {
+
+    private final StripeContainerHeader header;
+    private final CRC32C crc = new CRC32C();
+    private final byte [] checksumBytes = new byte [StripeContainerHeader.CHECKSUM_SIZE];
+    private long corruptShardStripes;
+
+    private StripeContainerInputStream(StripeContainerHeader header, InputStream [] shardInputs) {
+        super(header.newCodec(), header.getStripeSize(), header.getDataLength(), shardInputs);
+        this.header = header;
+    }
+
+    /**
+     * Opens shard files for reading.
+     *
+     * The header that the most shard files agree on is used.  Files
+     * that don't exist, or whose headers are bad or don't agree, are
+     * treated as missing.
+     *
+     * @param shardFiles One file for each shard, data shards first.
+     *                   Missing shards can be null.
+     * @throws IOException if no shard file has a good header.
+     */
+    public static StripeContainerInputStream open(File [] shardFiles) throws IOException {
+        final StripeContainerHeader [] headers = new StripeContainerHeader [shardFiles.length];
+        final InputStream [] inputs = new InputStream [shardFiles.length];
+        try {
+            for (int i = 0; i < shardFiles.length; i++) {
+                if (shardFiles[i] == null || !shardFiles[i].exists()) {
+                    continue;
+                }
+                inputs[i] = new BufferedInputStream(new FileInputStream(shardFiles[i]));
+                try {
+                    headers[i] = StripeContainerHeader.read(inputs[i]);
+                }
+                catch (IOException e) {
+                    // Treat it as missing.
+                }
+            }
+
+            // Pick the header the most shards agree on.
+            StripeContainerHeader best = null;
+            int bestVotes = 0;
+            for (StripeContainerHeader candidate : headers) {
+                if (candidate == null) {
+                    continue;
+                }
+                int votes = 0;
+                for (StripeContainerHeader other : headers) {
+                    if (other != null && other.isSameData(candidate)) {
+                        votes += 1;
+                    }
+                }
+                if (bestVotes < votes) {
+                    best = candidate;
+                    bestVotes = votes;
+                }
+            }
+            if (best == null) {
+                throw new IOException("no shard file has a good header");
+            }
+            if (best.getDataLength() == StripeContainerHeader.UNKNOWN_LENGTH) {
+                throw new IOException("shard files were not finished");
+            }
+            if (shardFiles.length != best.getDataShardCount() + best.getParityShardCount()) {
+                throw new IllegalArgumentException("wrong number of shard files: " + shardFiles.length);
+            }
+
+            // Drop the shards that don't match.
+            for (int i = 0; i < shardFiles.length; i++) {
+                if (inputs[i] != null &&
+                        (headers[i] == null || !headers[i].isSameData(best) || headers[i].getShardIndex() != i)) {
+                    inputs[i].close();
+                    inputs[i] = null;
+                }
+            }
+            return new StripeContainerInputStream(best, inputs);
+        }
+        catch (IOException e) {
+            closeAll(inputs);
+            throw e;
+        }
+        catch (RuntimeException e) {
+            closeAll(inputs);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the header of the shard files.
+     */
+    public StripeContainerHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * Returns the number of times a stripe of a shard had the wrong
+     * checksum, and was decoded instead.
+     */
+    public long getCorruptShardStripeCount() {
+        return corruptShardStripes;
+    }
+
+    /**
+     * Reads the checksum and the bytes of one shard in a stripe, and
+     * returns false if they don't match.
+     */
+    @Override
+    protected boolean readShard(int shardIndex, InputStream in, byte [] buffer, int shardSize) throws IOException {
+        readFully(in, checksumBytes, StripeContainerHeader.CHECKSUM_SIZE);
+        readFully(in, buffer, shardSize);
+        int expected = ((checksumBytes[0] & 0xFF) << 24) |
+                ((checksumBytes[1] & 0xFF) << 16) |
+                ((checksumBytes[2] & 0xFF) << 8) |
+                (checksumBytes[3] & 0xFF);
+        crc.reset();
+        crc.update(buffer, 0, shardSize);
+        if ((int) crc.getValue() != expected) {
+            corruptShardStripes += 1;
+            return false;
+        }
+        return true;
+    }
+
+    private static void closeAll(InputStream [] inputs) {
+        for (InputStream in : inputs) {
+            if (in != null) {
+                try {
+                    in.close();
+                }
+                catch (IOException e) {
+                    // Already failing.
+                }
+            }
+        }
+    }
+}
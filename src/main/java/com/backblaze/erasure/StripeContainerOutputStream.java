@@ -0,0 +1,133 @@
+/**
+ * Writes erasure coded shard files with headers and checksums.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32C;
+
+/**
+ * An output stream that erasure codes the bytes written to it into
+ * self-describing shard files, in the format described in
+ * StripeContainerHeader.
+ *
+ * Each shard file starts with a header saying how to decode it, and
+ * each stripe of each shard has a CRC32C, so StripeContainerInputStream
+ * can tell a corrupt stripe from a good one and decode around it.
+ *
+ * The length of the data isn't known until the stream is closed, so
+ * the headers are written with a length of -1 at first, and rewritten
+ * with the real length by close().  Shard files that were never closed
+ * can't be read.
+ */
+public class StripeContainerOutputStream extends ReedSolomonOutputStream {
+
+    private final File [] shardFiles;
+    private final StripeContainerHeader header;
+    private final CRC32C crc = new CRC32C();
+    private final byte [] checksumBytes = new byte [StripeContainerHeader.CHECKSUM_SIZE];
+    private boolean finished;
+
+    /**
+     * Creates the shard files, or replaces them, and writes their
+     * headers.
+     *
+     * @param dataShardCount The number of data shards.
+     * @param parityShardCount The number of parity shards.
+     * @param matrixType One of the StripeContainerHeader.MATRIX_ constants.
+     * @param stripeSize The number of bytes of each shard in one stripe.
+     * @param shardFiles One file for each shard, data shards first.
+     */
+    public StripeContainerOutputStream(int dataShardCount,
+                                       int parityShardCount,
+                                       int matrixType,
+                                       int stripeSize,
+                                       File [] shardFiles) throws IOException {
+        this(new StripeContainerHeader(dataShardCount, parityShardCount, 0, matrixType, stripeSize,
+                StripeContainerHeader.UNKNOWN_LENGTH), shardFiles);
+    }
+
+    private StripeContainerOutputStream(StripeContainerHeader header, File [] shardFiles) throws IOException {
+        super(header.newCodec(), header.getStripeSize(), openShards(header, shardFiles));
+        this.header = header;
+        this.shardFiles = shardFiles.clone();
+    }
+
+    /**
+     * Writes the checksum of the shard's bytes in this stripe, and then
+     * the bytes.
+     */
+    @Override
+    protected void writeShard(int shardIndex, OutputStream out, byte [] shard, int shardSize) throws IOException {
+        crc.reset();
+        crc.update(shard, 0, shardSize);
+        int checksum = (int) crc.getValue();
+        checksumBytes[0] = (byte) (checksum >>> 24);
+        checksumBytes[1] = (byte) (checksum >>> 16);
+        checksumBytes[2] = (byte) (checksum >>> 8);
+        checksumBytes[3] = (byte) checksum;
+        out.write(checksumBytes);
+        out.write(shard, 0, shardSize);
+    }
+
+    /**
+     * Writes the last stripe, closes the shard files, and puts the
+     * length of the data in their headers.
+     */
+    @Override
+    public void close() throws IOException {
+        super.close();
+        if (finished) {
+            return;
+        }
+        finished = true;
+        for (int i = 0; i < shardFiles.length; i++) {
+            RandomAccessFile file = new RandomAccessFile(shardFiles[i], "rw");
+            try {
+                file.write(header.with(i, getByteCount()).toBytes());
+            }
+            finally {
+                file.close();
+            }
+        }
+    }
+
+    /**
+     * Opens the shard files and writes the unfinished headers.
+     */
+    private static OutputStream [] openShards(StripeContainerHeader header, File [] shardFiles) throws IOException {
+        final int totalShardCount = header.getDataShardCount() + header.getParityShardCount();
+        if (shardFiles.length != totalShardCount) {
+            throw new IllegalArgumentException("wrong number of shard files: " + shardFiles.length);
+        }
+        OutputStream [] result = new OutputStream [totalShardCount];
+        try {
+            for (int i = 0; i < totalShardCount; i++) {
+                result[i] = new BufferedOutputStream(new FileOutputStream(shardFiles[i]));
+                result[i].write(header.with(i, StripeContainerHeader.UNKNOWN_LENGTH).toBytes());
+            }
+        }
+        catch (IOException e) {
+            for (OutputStream out : result) {
+                if (out != null) {
+                    try {
+                        out.close();
+                    }
+                    catch (IOException e2) {
+                        // Reporting the first one.
+                    }
+                }
+            }
+            throw e;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,234 @@
+/**
+ * A coding loop that works on cache-sized blocks of the shards.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A coding loop that works on cache-sized blocks of the shards.
+ *
+ * Loops like InputOutputByteTableCodingLoop go over every output shard
+ * once for each input shard.  When the shards are much bigger than the
+ * processor cache, each of those passes goes to memory.  This loop
+ * cuts the range [offset, offset + byteCount) into blocks, and has the
+ * wrapped loop do all of the inputs and outputs for one block before
+ * moving on to the next, so one block of every shard stays in the
+ * cache while it's being worked on.  Memory traffic is then one read
+ * of each input and one write of each output.
+ *
+ * The block size can be given, or it can be worked out for each call
+ * so that one block of all of the inputs and outputs fits in half of
+ * the L2 cache.  The size of the L2 cache is read from /sys on Linux;
+ * elsewhere it's assumed to be 256KB.
+ *
+ * ByteBuffer shards are split the same way.  If the wrapped loop
+ * doesn't work on ByteBuffers, InputOutputLongSwarCodingLoop is used
+ * for them.
+ */
+public class TiledCodingLoop implements CodingLoop, ByteBufferCodingLoop {
+
+    /**
+     * The size of the L2 cache, or a guess if it can't be found.
+     */
+    public static final int CACHE_SIZE = detectCacheSize(256 * 1024);
+
+    /**
+     * Blocks are never smaller than this, so the per-block overhead
+     * stays small even with many shards.
+     */
+    private static final int MIN_BLOCK_SIZE = 1024;
+
+    private final CodingLoop codingLoop;
+    private final ByteBufferCodingLoop bufferCodingLoop;
+    private final int blockSize;
+
+    /**
+     * Wraps a coding loop, picking the block size from the size of the
+     * L2 cache and the number of shards.
+     */
+    public TiledCodingLoop(CodingLoop codingLoop) {
+        this(codingLoop, 0);
+    }
+
+    /**
+     * Wraps a coding loop, with a fixed block size.
+     *
+     * @param codingLoop The loop that does the coding for each block.
+     * @param blockSize The number of bytes of each shard in one block,
+     *                  or 0 to pick it from the size of the cache.
+     */
+    public TiledCodingLoop(CodingLoop codingLoop, int blockSize) {
+        if (codingLoop == null) {
+            throw new IllegalArgumentException("codingLoop is null");
+        }
+        if (blockSize < 0) {
+            throw new IllegalArgumentException("blockSize is negative: " + blockSize);
+        }
+        this.codingLoop = codingLoop;
+        this.bufferCodingLoop = (codingLoop instanceof ByteBufferCodingLoop)
+                ? (ByteBufferCodingLoop) codingLoop
+                : new InputOutputLongSwarCodingLoop();
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Returns the coding loop that does the work for each block.
+     */
+    public CodingLoop getCodingLoop() {
+        return codingLoop;
+    }
+
+    /**
+     * Returns the number of bytes of each shard in one block, when there
+     * are the given numbers of inputs and outputs.
+     */
+    public int getBlockSize(int inputCount, int outputCount) {
+        if (blockSize != 0) {
+            return blockSize;
+        }
+        // Use half of the cache, to leave room for the tables and
+        // everything else, and round down to a whole number of cache
+        // lines.
+        int size = (CACHE_SIZE / 2) / Math.max(1, inputCount + outputCount);
+        return Math.max(MIN_BLOCK_SIZE, size & ~63);
+    }
+
+    @Override
+    public void codeSomeShards(
+            byte[][] matrixRows,
+            byte[][] inputs, int inputCount,
+            byte[][] outputs, int outputCount,
+            int offset, int byteCount) {
+
+        final int end = offset + byteCount;
+        final int step = getBlockSize(inputCount, outputCount);
+        for (int block = offset; block < end; block += step) {
+            codingLoop.codeSomeShards(matrixRows, inputs, inputCount, outputs, outputCount,
+                    block, Math.min(step, end - block));
+        }
+    }
+
+    @Override
+    public boolean checkSomeShards(
+            byte[][] matrixRows,
+            byte[][] inputs, int inputCount,
+            byte[][] toCheck, int checkCount,
+            int offset, int byteCount,
+            byte[] tempBuffer) {
+
+        final int end = offset + byteCount;
+        final int step = getBlockSize(inputCount, checkCount);
+        for (int block = offset; block < end; block += step) {
+            if (!codingLoop.checkSomeShards(matrixRows, inputs, inputCount, toCheck, checkCount,
+                    block, Math.min(step, end - block), tempBuffer)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void codeSomeShards(
+            byte[][] matrixRows,
+            ByteBuffer[] inputs, int inputCount,
+            ByteBuffer[] outputs, int outputCount,
+            int offset, int byteCount) {
+
+        final int end = offset + byteCount;
+        final int step = getBlockSize(inputCount, outputCount);
+        for (int block = offset; block < end; block += step) {
+            bufferCodingLoop.codeSomeShards(matrixRows, inputs, inputCount, outputs, outputCount,
+                    block, Math.min(step, end - block));
+        }
+    }
+
+    @Override
+    public boolean checkSomeShards(
+            byte[][] matrixRows,
+            ByteBuffer[] inputs, int inputCount,
+            ByteBuffer[] toCheck, int checkCount,
+            int offset, int byteCount) {
+
+        final int end = offset + byteCount;
+        final int step = getBlockSize(inputCount, checkCount);
+        for (int block = offset; block < end; block += step) {
+            if (!bufferCodingLoop.checkSomeShards(matrixRows, inputs, inputCount, toCheck, checkCount,
+                    block, Math.min(step, end - block))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the size of the L2 data cache of the first processor, as
+     * reported by Linux, or the default if it can't be found.
+     */
+    static int detectCacheSize(int defaultSize) {
+        File cacheDir = new File("/sys/devices/system/cpu/cpu0/cache");
+        File [] indexDirs = cacheDir.listFiles();
+        if (indexDirs == null) {
+            return defaultSize;
+        }
+        for (File indexDir : indexDirs) {
+            if (!indexDir.getName().startsWith("index")) {
+                continue;
+            }
+            try {
+                String level = readLine(new File(indexDir, "level"));
+                String type = readLine(new File(indexDir, "type"));
+                if ("2".equals(level) && !"Instruction".equals(type)) {
+                    return parseSize(readLine(new File(indexDir, "size")), defaultSize);
+                }
+            }
+            catch (IOException e) {
+                // Try the next one.
+            }
+        }
+        return defaultSize;
+    }
+
+    /**
+     * Parses a size like "1024K" or "2M".
+     */
+    static int parseSize(String text, int defaultSize) {
+        if (text == null || text.isEmpty()) {
+            return defaultSize;
+        }
+        int multiplier = 1;
+        char last = Character.toUpperCase(text.charAt(text.length() - 1));
+        if (last == 'K') {
+            multiplier = 1024;
+        }
+        else if (last == 'M') {
+            multiplier = 1024 * 1024;
+        }
+        String digits = (multiplier == 1) ? text : text.substring(0, text.length() - 1);
+        try {
+            long size = Long.parseLong(digits.trim()) * multiplier;
+            return (0 < size && size <= Integer.MAX_VALUE) ? (int) size : defaultSize;
+        }
+        catch (NumberFormatException e) {
+            return defaultSize;
+        }
+    }
+
+    private static String readLine(File file) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line = reader.readLine();
+            return (line == null) ? null : line.trim();
+        }
+        finally {
+            reader.close();
+        }
+    }
+}
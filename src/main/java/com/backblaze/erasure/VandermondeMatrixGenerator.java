@@ -0,0 +1,83 @@
+/**
+ * Builds the encoding matrix from a Vandermonde matrix.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+/**
+ * Builds the encoding matrix from a Vandermonde matrix, by multiplying
+ * it by the inverse of its top square.
+ *
+ * This is the matrix that ReedSolomon has always used, so it's the
+ * default.  Building it takes time proportional to the cube of the
+ * number of data shards.
+ */
+public class VandermondeMatrixGenerator implements MatrixGenerator {
+
+    /**
+     * Create the matrix to use for encoding, given the number of
+     * data shards and the number of total shards.
+     *
+     * The top square of the matrix is guaranteed to be an identity
+     * matrix, which means that the data shards are unchanged after
+     * encoding.
+     */
+    // 生成一个特定的编码矩阵，使得原始数据在编码后能够保持不变（即“系统码”特性），同时保证任何分片丢失都能通过数学逆运算恢复。
+    @Override
+    public Matrix buildMatrix(int dataShards, int totalShards) {
+        // Start with a Vandermonde matrix.  This matrix would work,
+        // in theory, but doesn't have the property that the data
+        // shards are unchanged after encoding.
+        // 创建一个 $totalShards \times dataShards$（总分片数 $\times$ 数据分片数）的范德蒙矩阵
+        // 范德蒙矩阵的特点是其任意 $n \times n$ 的子矩阵都是可逆的（非奇异的）。这意味着只要你有任意 $n$ 个分片，理论上都能找回原始数据。
+        // 局限性：直接使用范德蒙矩阵进行编码，会导致输出的所有分片（包括数据分片）都变成了经过编码后的“乱码”，不符合我们“前 $n$ 个分片是原始数据”的直观需求。
+        Matrix vandermonde = vandermonde(totalShards, dataShards);
+
+        // Multiple by the inverse of the top square of the matrix.
+        // This will make the top square be the identity matrix, but
+        // preserve the property that any square subset of rows is
+        // invertible.
+        // 从范德蒙矩阵中截取最上面的 $dataShards \times dataShards$ 部分
+        // 目的：为了将这个顶部方阵转化为单位矩阵（Identity Matrix）。在矩阵运算中，单位矩阵乘以原始数据等于数据本身。
+        Matrix top = vandermonde.submatrix(0, 0, dataShards, dataShards);
+        // 计算顶部方阵的逆矩阵 $Top^{-1}$。
+        // 根据线性代数，一个矩阵乘以自身的逆矩阵等于单位矩阵：$Top \times Top^{-1} = I$
+        // 将整个范德蒙矩阵乘以刚才求得的逆矩阵。
+        // 上半部分：变成了 $Top \times Top^{-1} = I$（单位矩阵）。这意味着前 $n$ 个分片编码后依然是原始数据。
+        // 下半部分：变成了 $Parity \times Top^{-1}$。这部分矩阵专门用于生成校验分片。
+        return vandermonde.times(top.invert());
+    }
+
+    /**
+     * Create a Vandermonde matrix, which is guaranteed to have the
+     * property that any subset of rows that forms a square matrix
+     * is invertible.
+     *
+     * @param rows Number of rows in the result.
+     * @param cols Number of columns in the result.
+     * @return A Matrix.
+     */
+    // 构建一个基础的范德蒙矩阵（Vandermonde Matrix）
+    // 在纠错码理论中，这种矩阵的神奇之处在于：从该矩阵中任意挑选 $n$ 行组成的方阵，在数学上都是可逆的。这是 Reed-Solomon 算法能够从部分丢失的数据中恢复出原始数据的基石。
+    // 范德蒙矩阵（Vandermonde Matrix） 的数学定义就是：每一行都是一个几何级数（等比数列）。
+    // 之所以费力气在代码里构造这样一个矩阵，是因为它有一个极其重要的特性：任意子方阵都可逆（Invertible）。
+    // 纠错应用：在 Reed-Solomon 中，丢失分片等同于从矩阵中删掉几行。剩下的行组成的矩阵依然是一个类范德蒙矩阵，依然可逆。只要可逆，就能通过矩阵求逆运算找回丢失的数据。
+    private static Matrix vandermonde(int rows, int cols) {
+        // 根据传入的参数，创建一个行数为 rows（总分片数 $n+m$），列数为 cols（原始数据分片数 $n$）的新矩阵实例。
+        Matrix result = new Matrix(rows, cols);
+        // 通过双重循环，依次确定矩阵中每一个坐标点 $(r, c)$ 的值。
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                // 计算 $r^c$。
+                // 逻辑：
+                // 当 $c=0$ 时，$r^0 = 1$（矩阵的第一列全是 1）。
+                // 当 $c=1$ 时，$r^1 = r$（第二列是行号的字节值）。
+                // 当 $c=2$ 时，$r^2 = r \cdot r$（在伽罗瓦域内的乘法）。
+                result.set(r, c, Galois.exp((byte) r, c));
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * A coding loop that uses the Java Vector API.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A coding loop that uses the Java Vector API (jdk.incubator.vector).
+ *
+ * Each product is split in two: the product of the coefficient and the
+ * low nibble of the input byte, and the product of the coefficient and
+ * the high nibble.  Each of those has only 16 possible values, so they
+ * fit in one vector register, and a whole vector of input bytes can be
+ * looked up at once with selectFrom().  This is the same trick that
+ * ISA-L uses with the PSHUFB instruction.
+ *
+ * The loops are nested the same way as InputOutputByteTableCodingLoop.
+ *
+ * This class can only be loaded when the jdk.incubator.vector module
+ * is present, so nothing in the library refers to it directly.  Use
+ * CodingLoops.VECTOR_CODING_LOOP, which is null when it's not
+ * available.
+ */
+public class VectorCodingLoop extends CodingLoopBase {
+
+    /**
+     * The vector shape to use.  The nibble tables need at least 16
+     * lanes.
+     */
+    private static final VectorSpecies<Byte> SPECIES =
+            (ByteVector.SPECIES_PREFERRED.length() < 16) ? ByteVector.SPECIES_128 : ByteVector.SPECIES_PREFERRED;
+
+    /**
+     * For each coefficient, the products with the 16 possible low
+     * nibbles, repeated to fill a whole vector.
+     */
+    private static final byte [] [] LOW_NIBBLE_TABLES = generateNibbleTables(0);
+
+    /**
+     * For each coefficient, the products with the 16 possible high
+     * nibbles, repeated to fill a whole vector.
+     */
+    private static final byte [] [] HIGH_NIBBLE_TABLES = generateNibbleTables(4);
+
+    @Override
+    public void codeSomeShards(
+            byte[][] matrixRows,
+            byte[][] inputs, int inputCount,
+            byte[][] outputs, int outputCount,
+            int offset, int byteCount) {
+
+        for (int iInput = 0; iInput < inputCount; iInput++) {
+            final byte[] inputShard = inputs[iInput];
+            for (int iOutput = 0; iOutput < outputCount; iOutput++) {
+                final byte[] outputShard = outputs[iOutput];
+                final byte coefficient = matrixRows[iOutput][iInput];
+                multiplyShard(coefficient, inputShard, outputShard, iInput != 0, offset, byteCount);
+            }
+        }
+    }
+
+    @Override
+    public boolean checkSomeShards(
+            byte[][] matrixRows,
+            byte[][] inputs, int inputCount,
+            byte[][] toCheck, int checkCount,
+            int offset, int byteCount,
+            byte[] tempBuffer) {
+
+        if (tempBuffer == null) {
+            return super.checkSomeShards(matrixRows, inputs, inputCount, toCheck, checkCount, offset, byteCount, null);
+        }
+
+        // Compute one output at a time into the temp buffer, the same
+        // way that OutputInputByteTableCodingLoop does.
+        for (int iOutput = 0; iOutput < checkCount; iOutput++) {
+            final byte [] outputShard = toCheck[iOutput];
+            final byte[] matrixRow = matrixRows[iOutput];
+            for (int iInput = 0; iInput < inputCount; iInput++) {
+                multiplyShard(matrixRow[iInput], inputs[iInput], tempBuffer, iInput != 0, offset, byteCount);
+            }
+            for (int iByte = offset; iByte < offset + byteCount; iByte++) {
+                if (tempBuffer[iByte] != outputShard[iByte]) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Multiplies one input shard by a coefficient, and either stores
+     * the result in the output shard or XORs it into the output shard.
+     */
+    private static void multiplyShard(byte coefficient,
+                                      byte [] inputShard,
+                                      byte [] outputShard,
+                                      boolean accumulate,
+                                      int offset,
+                                      int byteCount) {
+
+        final ByteVector lowTable = ByteVector.fromArray(SPECIES, LOW_NIBBLE_TABLES[coefficient & 0xFF], 0);
+        final ByteVector highTable = ByteVector.fromArray(SPECIES, HIGH_NIBBLE_TABLES[coefficient & 0xFF], 0);
+
+        final int end = offset + byteCount;
+        final int vectorEnd = offset + SPECIES.loopBound(byteCount);
+        int iByte = offset;
+        for (; iByte < vectorEnd; iByte += SPECIES.length()) {
+            final ByteVector input = ByteVector.fromArray(SPECIES, inputShard, iByte);
+            final ByteVector lowNibbles = input.and((byte) 0x0F);
+            final ByteVector highNibbles = input.lanewise(VectorOperators.LSHR, 4);
+            ByteVector product = lowNibbles.selectFrom(lowTable).lanewise(VectorOperators.XOR, highNibbles.selectFrom(highTable));
+            if (accumulate) {
+                product = product.lanewise(VectorOperators.XOR, ByteVector.fromArray(SPECIES, outputShard, iByte));
+            }
+            product.intoArray(outputShard, iByte);
+        }
+
+        final byte [] multTableRow = Galois.MULTIPLICATION_TABLE[coefficient & 0xFF];
+        for (; iByte < end; iByte++) {
+            if (accumulate) {
+                outputShard[iByte] ^= multTableRow[inputShard[iByte] & 0xFF];
+            }
+            else {
+                outputShard[iByte] = multTableRow[inputShard[iByte] & 0xFF];
+            }
+        }
+    }
+
+    /**
+     * Builds the nibble tables for all 256 coefficients.
+     *
+     * @param shift 0 for the low nibble tables, 4 for the high ones.
+     */
+    private static byte [] [] generateNibbleTables(int shift) {
+        final int length = SPECIES.length();
+        byte [] [] result = new byte [Galois.FIELD_SIZE] [length];
+        for (int c = 0; c < Galois.FIELD_SIZE; c++) {
+            for (int i = 0; i < length; i++) {
+                result[c][i] = Galois.multiply((byte) c, (byte) ((i & 0x0F) << shift));
+            }
+        }
+        return result;
+    }
+}
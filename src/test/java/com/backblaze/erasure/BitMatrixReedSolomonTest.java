@@ -0,0 +1,112 @@
+/**
+ * Unit tests for BitMatrixReedSolomon and BitMatrixCodingLoop
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BitMatrixReedSolomonTest {
+
+    private static final int DATA_COUNT = 6;
+    private static final int PARITY_COUNT = 3;
+    private static final int TOTAL_COUNT = DATA_COUNT + PARITY_COUNT;
+    private static final int PACKET_SIZE = 16;
+    private static final int SHARD_SIZE = 4 * 8 * PACKET_SIZE;
+
+    @Test
+    public void testEncodeAndDecode() {
+        ReedSolomon codec = new ReedSolomon(DATA_COUNT, PARITY_COUNT,
+                new InputOutputByteTableCodingLoop(), new CauchyMatrixGenerator(true));
+        BitMatrixReedSolomon bitCodec = new BitMatrixReedSolomon(codec, PACKET_SIZE);
+        byte [] [] shards = makeShards();
+        bitCodec.encodeParity(shards, 0, SHARD_SIZE);
+        assertTrue(bitCodec.isParityCorrect(shards, 0, SHARD_SIZE));
+
+        boolean [] shardPresent = new boolean [TOTAL_COUNT];
+        Arrays.fill(shardPresent, true);
+        shardPresent[1] = false;
+        shardPresent[5] = false;
+        shardPresent[8] = false;
+        byte [] [] testShards = new byte [TOTAL_COUNT] [];
+        for (int i = 0; i < TOTAL_COUNT; i++) {
+            testShards[i] = shardPresent[i] ? shards[i].clone() : new byte [SHARD_SIZE];
+        }
+        bitCodec.decodeMissing(testShards, shardPresent, 0, SHARD_SIZE);
+        for (int i = 0; i < TOTAL_COUNT; i++) {
+            assertArrayEquals(shards[i], testShards[i]);
+        }
+
+        shards[2][SHARD_SIZE - 1] ^= 1;
+        assertFalse(bitCodec.isParityCorrect(shards, 0, SHARD_SIZE));
+    }
+
+    /**
+     * Checks that the packets hold real Reed-Solomon parity: taking bit
+     * k of a symbol from packet k gives the parity ReedSolomon computes.
+     */
+    @Test
+    public void testMatchesBitSlicedReedSolomon() {
+        ReedSolomon codec = ReedSolomon.create(DATA_COUNT, PARITY_COUNT);
+        byte [] [] shards = makeShards();
+        new BitMatrixReedSolomon(codec, PACKET_SIZE).encodeParity(shards, 0, SHARD_SIZE);
+
+        final int symbolsPerGroup = 8 * PACKET_SIZE;
+        byte [] [] symbols = new byte [TOTAL_COUNT] [SHARD_SIZE];
+        for (int i = 0; i < TOTAL_COUNT; i++) {
+            for (int s = 0; s < SHARD_SIZE; s++) {
+                int group = s / symbolsPerGroup;
+                int j = s % symbolsPerGroup;
+                int value = 0;
+                for (int k = 0; k < 8; k++) {
+                    int packetByte = shards[i][group * symbolsPerGroup + k * PACKET_SIZE + j / 8];
+                    value |= ((packetByte >>> (j % 8)) & 1) << k;
+                }
+                symbols[i][s] = (byte) value;
+            }
+        }
+        assertTrue(codec.isParityCorrect(symbols, 0, SHARD_SIZE));
+    }
+
+    @Test
+    public void testSmartSchedulingSavesXors() {
+        ReedSolomon codec = ReedSolomon.create(10, 4);
+        BitMatrixCodingLoop smart = new BitMatrixCodingLoop(true);
+        BitMatrixCodingLoop dumb = new BitMatrixCodingLoop(false);
+        int smartCount = smart.getOperationCount(codec.getParityRows(), 10, 4);
+        int dumbCount = dumb.getOperationCount(codec.getParityRows(), 10, 4);
+        assertTrue(smartCount < dumbCount);
+
+        // Both schedules compute the same parity.
+        byte [] [] inputs = new byte [10] [8 * PACKET_SIZE];
+        new Random(3).nextBytes(inputs[0]);
+        new Random(4).nextBytes(inputs[9]);
+        byte [] [] smartOutputs = new byte [4] [8 * PACKET_SIZE];
+        byte [] [] dumbOutputs = new byte [4] [8 * PACKET_SIZE];
+        smart.codeSomeShards(codec.getParityRows(), inputs, 10, smartOutputs, 4, 0, 8 * PACKET_SIZE, PACKET_SIZE);
+        dumb.codeSomeShards(codec.getParityRows(), inputs, 10, dumbOutputs, 4, 0, 8 * PACKET_SIZE, PACKET_SIZE);
+        for (int i = 0; i < 4; i++) {
+            assertArrayEquals(dumbOutputs[i], smartOutputs[i]);
+        }
+        assertEquals(smartCount, smart.getOperationCount(codec.getParityRows(), 10, 4));
+    }
+
+    private static byte [] [] makeShards() {
+        Random random = new Random(0);
+        byte [] [] shards = new byte [TOTAL_COUNT] [SHARD_SIZE];
+        for (int i = 0; i < DATA_COUNT; i++) {
+            random.nextBytes(shards[i]);
+        }
+        return shards;
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Unit tests for ClayCode
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ClayCodeTest {
+
+    @Test
+    public void testSubPacketization() {
+        assertEquals(8, new ClayCode(4, 2).getSubPacketization());
+        assertEquals(16, new ClayCode(5, 2).getSubPacketization());
+        assertEquals(256, new ClayCode(10, 4).getSubPacketization());
+        assertEquals(2187, new ClayCode(17, 3).getSubPacketization());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSubPacketizationTooLarge() {
+        new ClayCode(60, 2);
+    }
+
+    /**
+     * Every set of up to parityShardCount lost shards is rebuilt, with
+     * and without virtual shards filling the grid.
+     */
+    @Test
+    public void testAllLossPatterns() {
+        int [] [] layouts = { { 4, 2 }, { 5, 2 }, { 3, 3 }, { 4, 3 } };
+        for (int [] layout : layouts) {
+            ClayCode code = new ClayCode(layout[0], layout[1]);
+            int totalShardCount = code.getTotalShardCount();
+            int byteCount = 3 * code.getSubPacketization();
+            byte [] [] expected = encodeRandom(code, 5, byteCount);
+            for (int lost = 1; lost < (1 << totalShardCount); lost++) {
+                if (code.getParityShardCount() < Integer.bitCount(lost)) {
+                    continue;
+                }
+                boolean [] shardPresent = new boolean [totalShardCount];
+                byte [] [] shards = new byte [totalShardCount] [];
+                for (int i = 0; i < totalShardCount; i++) {
+                    shardPresent[i] = (lost & (1 << i)) == 0;
+                    shards[i] = expected[i].clone();
+                    if (!shardPresent[i]) {
+                        Arrays.fill(shards[i], 5, 5 + byteCount, (byte) 0);
+                    }
+                }
+                code.decodeMissing(shards, shardPresent, 5, byteCount);
+                for (int i = 0; i < totalShardCount; i++) {
+                    assertArrayEquals(expected[i], shards[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * One lost shard is rebuilt from 1 / parityShardCount of each of
+     * the others.
+     */
+    @Test
+    public void testRepair() {
+        int [] [] layouts = { { 4, 2 }, { 5, 2 }, { 4, 3 }, { 10, 4 } };
+        for (int [] layout : layouts) {
+            ClayCode code = new ClayCode(layout[0], layout[1]);
+            int totalShardCount = code.getTotalShardCount();
+            int byteCount = 2 * code.getSubPacketization();
+            int offset = 7;
+            byte [] [] expected = encodeRandom(code, offset, byteCount);
+
+            for (int lost = 0; lost < totalShardCount; lost++) {
+                int [] [] ranges = code.getRepairRanges(lost, offset, byteCount);
+                byte [] [] helperData = new byte [totalShardCount] [];
+                for (int helper : code.getRepairHelpers(lost)) {
+                    helperData[helper] = new byte [byteCount / code.getParityShardCount()];
+                    int pos = 0;
+                    for (int [] range : ranges) {
+                        System.arraycopy(expected[helper], range[0], helperData[helper], pos, range[1]);
+                        pos += range[1];
+                    }
+                    assertEquals(helperData[helper].length, pos);
+                }
+                byte [] output = new byte [offset + byteCount];
+                code.repair(lost, helperData, output, offset, byteCount);
+                for (int b = offset; b < offset + byteCount; b++) {
+                    assertEquals(expected[lost][b], output[b]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Encodes random data shards, and returns all of the shards.
+     */
+    private static byte [] [] encodeRandom(ClayCode code, int offset, int byteCount) {
+        Random random = new Random(code.getTotalShardCount());
+        byte [] [] shards = new byte [code.getTotalShardCount()] [offset + byteCount];
+        for (int i = 0; i < code.getDataShardCount(); i++) {
+            random.nextBytes(shards[i]);
+        }
+        code.encodeParity(shards, offset, byteCount);
+        return shards;
+    }
+}
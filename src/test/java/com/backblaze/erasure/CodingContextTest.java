@@ -0,0 +1,124 @@
+/**
+ * Unit tests for CodingContext
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the CodingContext class.
+ */
+public class CodingContextTest {
+
+    private static final int DATA_COUNT = 6;
+    private static final int PARITY_COUNT = 3;
+    private static final int SHARD_SIZE = 1024;
+    private static final int [] WANTED = { 0 };
+
+    @Test
+    public void testSameResultsAsCodec() {
+        ReedSolomon codec = new ReedSolomon(DATA_COUNT, PARITY_COUNT, new InputOutputByteTableCodingLoop());
+        CodingContext context = codec.newCodingContext();
+        byte [] [] shards = makeShards(new Random(1));
+        byte [] [] expected = copy(shards);
+        codec.encodeParity(expected, 0, SHARD_SIZE);
+
+        context.encodeParity(shards, 0, SHARD_SIZE);
+        for (int i = 0; i < shards.length; i++) {
+            assertArrayEquals(expected[i], shards[i]);
+        }
+        assertTrue(context.isParityCorrect(shards, 0, SHARD_SIZE));
+        shards[DATA_COUNT][7] += 1;
+        assertFalse(context.isParityCorrect(shards, 0, SHARD_SIZE));
+        shards[DATA_COUNT][7] -= 1;
+
+        // Lose one data shard and one parity shard.
+        boolean [] present = new boolean [DATA_COUNT + PARITY_COUNT];
+        Arrays.fill(present, true);
+        present[2] = false;
+        present[DATA_COUNT + 1] = false;
+        Arrays.fill(shards[2], (byte) 0);
+        Arrays.fill(shards[DATA_COUNT + 1], (byte) 0);
+        context.decodeMissing(shards, present, 0, SHARD_SIZE);
+        for (int i = 0; i < shards.length; i++) {
+            assertArrayEquals(expected[i], shards[i]);
+        }
+
+        // Rebuild just the data shard; the parity shard is left alone.
+        Arrays.fill(shards[2], (byte) 0);
+        Arrays.fill(shards[DATA_COUNT + 1], (byte) 0);
+        context.decodeShards(shards, present, new int [] { 2 }, 0, SHARD_SIZE);
+        assertArrayEquals(expected[2], shards[2]);
+        assertArrayEquals(new byte [SHARD_SIZE], shards[DATA_COUNT + 1]);
+    }
+
+    @Test
+    public void testNoAllocationInSteadyState() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        if (!threadBean.isThreadAllocatedMemorySupported()) {
+            return;
+        }
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        ReedSolomon codec = new ReedSolomon(DATA_COUNT, PARITY_COUNT, new InputOutputByteTableCodingLoop());
+        CodingContext context = codec.newCodingContext();
+        byte [] [] shards = makeShards(new Random(2));
+        boolean [] present = new boolean [DATA_COUNT + PARITY_COUNT];
+        Arrays.fill(present, true);
+        present[0] = false;
+        present[DATA_COUNT] = false;
+
+        // Warm up, which also puts the decode rows in the cache.
+        runStripes(context, shards, present, 1000);
+
+        long threadId = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        runStripes(context, shards, present, 10000);
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        // Allow a little for the measurement itself.
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    private static void runStripes(CodingContext context, byte [] [] shards, boolean [] present, int count) {
+        for (int i = 0; i < count; i++) {
+            context.encodeParity(shards, 0, SHARD_SIZE);
+            if (!context.isParityCorrect(shards, 0, SHARD_SIZE)) {
+                throw new AssertionError("parity is wrong");
+            }
+            context.decodeMissing(shards, present, 0, SHARD_SIZE);
+            context.decodeShards(shards, present, WANTED, 0, SHARD_SIZE);
+        }
+    }
+
+    private static byte [] [] makeShards(Random random) {
+        byte [] [] shards = new byte [DATA_COUNT + PARITY_COUNT] [SHARD_SIZE];
+        for (int i = 0; i < DATA_COUNT; i++) {
+            random.nextBytes(shards[i]);
+        }
+        return shards;
+    }
+
+    private static byte [] [] copy(byte [] [] shards) {
+        byte [] [] result = new byte [shards.length] [];
+        for (int i = 0; i < shards.length; i++) {
+            result[i] = shards[i].clone();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Unit tests for CodingLoopSelector
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CodingLoopSelectorTest {
+
+    @Test
+    public void testSizeClass() {
+        assertEquals(1, CodingLoopSelector.sizeClass(1));
+        assertEquals(4096, CodingLoopSelector.sizeClass(4096));
+        assertEquals(8192, CodingLoopSelector.sizeClass(4097));
+        assertEquals(Integer.MAX_VALUE, CodingLoopSelector.sizeClass(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testChoiceIsRemembered() {
+        CountingCodingLoop counting = new CountingCodingLoop();
+        CodingLoopSelector selector = new CodingLoopSelector(new CodingLoop [] { counting });
+        assertSame(counting, selector.getCodingLoop(5, 3, 1000));
+        int callCount = counting.callCount;
+        assertTrue(0 < callCount);
+
+        // Same size class: no calibration.
+        assertSame(counting, selector.getCodingLoop(5, 3, 1024));
+        assertEquals(callCount, counting.callCount);
+
+        // New size class: calibrates again.
+        selector.getCodingLoop(5, 3, 1025);
+        assertTrue(callCount < counting.callCount);
+    }
+
+    @Test
+    public void testChoicesAreSaved() throws IOException {
+        File file = File.createTempFile("coding-loops", ".properties");
+        assertTrue(file.delete());
+        try {
+            CodingLoop [] candidates = new CodingLoop [] {
+                    new InputOutputByteTableCodingLoop(), new OutputInputByteTableCodingLoop() };
+            CodingLoop chosen = new CodingLoopSelector(candidates, file).getCodingLoop(4, 2, 4096);
+            assertTrue(file.exists());
+
+            // A new selector loads the choice instead of calibrating.
+            CountingCodingLoop counting = new CountingCodingLoop();
+            CodingLoop [] reloaded = new CodingLoop [] { candidates[0], candidates[1], counting };
+            CodingLoopSelector selector = new CodingLoopSelector(reloaded, file);
+            assertSame(chosen, selector.getCodingLoop(4, 2, 4096));
+            assertEquals(0, counting.callCount);
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testCreateTuned() {
+        ReedSolomon codec = ReedSolomon.createTuned(5, 3, 1000);
+        byte [] [] shards = new byte [8] [1000];
+        for (int i = 0; i < 5; i++) {
+            shards[i][i] = (byte) (i + 1);
+        }
+        codec.encodeParity(shards, 0, 1000);
+        assertTrue(codec.isParityCorrect(shards, 0, 1000));
+        assertSame(codec.getCodingLoop(), ReedSolomon.createTuned(5, 3, 1000).getCodingLoop());
+    }
+
+    /**
+     * A coding loop that counts how many times it has been used.
+     */
+    private static class CountingCodingLoop extends InputOutputByteTableCodingLoop {
+
+        int callCount = 0;
+
+        @Override
+        public void codeSomeShards(byte[][] matrixRows,
+                                   byte[][] inputs, int inputCount,
+                                   byte[][] outputs, int outputCount,
+                                   int offset, int byteCount) {
+            callCount += 1;
+            super.codeSomeShards(matrixRows, inputs, inputCount, outputs, outputCount, offset, byteCount);
+        }
+    }
+}
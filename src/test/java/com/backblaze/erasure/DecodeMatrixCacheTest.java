@@ -0,0 +1,62 @@
+/**
+ * Unit tests for DecodeMatrixCache
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class DecodeMatrixCacheTest {
+
+    @Test
+    public void testHitsAndMisses() {
+        DecodeMatrixCache cache = new DecodeMatrixCache(4);
+        byte [] [] rows = new byte [] [] { { 1, 2 } };
+        assertNull(cache.get(bits(0, 1)));
+        cache.put(bits(0, 1), rows);
+        assertSame(rows, cache.get(bits(0, 1)));
+        assertNull(cache.get(bits(0, 2)));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        DecodeMatrixCache cache = new DecodeMatrixCache(2);
+        byte [] [] rowsA = new byte [1] [1];
+        byte [] [] rowsB = new byte [1] [1];
+        byte [] [] rowsC = new byte [1] [1];
+        cache.put(bits(0), rowsA);
+        cache.put(bits(1), rowsB);
+        assertSame(rowsA, cache.get(bits(0)));
+        cache.put(bits(2), rowsC);
+        assertEquals(2, cache.size());
+        assertSame(rowsA, cache.get(bits(0)));
+        assertNull(cache.get(bits(1)));
+        assertSame(rowsC, cache.get(bits(2)));
+    }
+
+    @Test
+    public void testZeroSizeCachesNothing() {
+        DecodeMatrixCache cache = new DecodeMatrixCache(0);
+        cache.put(bits(0), new byte [1] [1]);
+        assertEquals(0, cache.size());
+        assertNull(cache.get(bits(0)));
+    }
+
+    private static BitSet bits(int ... indices) {
+        BitSet result = new BitSet();
+        for (int i : indices) {
+            result.set(i);
+        }
+        return result;
+    }
+}
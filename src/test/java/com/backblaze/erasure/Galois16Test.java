@@ -0,0 +1,85 @@
+/**
+ * Unit tests for Galois16
+ *
+ * Copyright 2015, Backblaze, Inc.
+ */
+package com.backblaze.erasure;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the field properties of Galois16.  The field is too big to
+ * check every combination, so this uses random samples.
+ */
+public class Galois16Test {
+
+    private static final int SAMPLE_COUNT = 100000;
+
+    @Test
+    public void testMultiplyMatchesCarrylessMultiply() {
+        Random random = new Random(0);
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            int a = random.nextInt(Galois16.FIELD_SIZE);
+            int b = random.nextInt(Galois16.FIELD_SIZE);
+            assertEquals(slowMultiply(a, b), Galois16.multiply(a, b));
+        }
+    }
+
+    @Test
+    public void testInverse() {
+        Random random = new Random(1);
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            int a = random.nextInt(Galois16.FIELD_SIZE);
+            int b = 1 + random.nextInt(Galois16.FIELD_SIZE - 1);
+            assertEquals(a, Galois16.multiply(Galois16.divide(a, b), b));
+        }
+        assertEquals(1, Galois16.multiply(12345, Galois16.divide(1, 12345)));
+    }
+
+    @Test
+    public void testExp() {
+        for (int a = 0; a < 300; a++) {
+            int power = 1;
+            for (int n = 0; n < 20; n++) {
+                assertEquals(power, Galois16.exp(a, n));
+                power = Galois16.multiply(power, a);
+            }
+        }
+    }
+
+    @Test
+    public void testSplitTable() {
+        Random random = new Random(2);
+        for (int i = 0; i < 100; i++) {
+            int a = random.nextInt(Galois16.FIELD_SIZE);
+            char [] table = Galois16.splitTable(a);
+            for (int j = 0; j < 1000; j++) {
+                int b = random.nextInt(Galois16.FIELD_SIZE);
+                assertEquals(Galois16.multiply(a, b), table[256 + (b >>> 8)] ^ table[b & 0xFF]);
+            }
+        }
+    }
+
+    /**
+     * Multiplies as polynomials over GF(2), reducing by the generating
+     * polynomial as it goes.
+     */
+    private static int slowMultiply(int a, int b) {
+        int result = 0;
+        while (b != 0) {
+            if ((b & 1) != 0) {
+                result ^= a;
+            }
+            b >>>= 1;
+            a <<= 1;
+            if ((a & Galois16.FIELD_SIZE) != 0) {
+                a ^= Galois16.GENERATING_POLYNOMIAL;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * Unit tests for LocalReconstructionCode
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LocalReconstructionCodeTest {
+
+    private static final int SHARD_SIZE = 100;
+
+    @Test
+    public void testGroups() {
+        LocalReconstructionCode code = new LocalReconstructionCode(7, 2, 1);
+        assertEquals(10, code.getTotalShardCount());
+        int [] expected = { 0, 0, 0, 0, 1, 1, 1, 0, 1, -1 };
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], code.getGroup(i));
+        }
+    }
+
+    /**
+     * One lost shard in a group is rebuilt from the rest of the group.
+     */
+    @Test
+    public void testLocalRepair() {
+        LocalReconstructionCode code = new LocalReconstructionCode(12, 2, 2);
+        boolean [] shardPresent = allPresent(code);
+        assertEquals(0, code.planRepair(shardPresent).length);
+
+        shardPresent[4] = false;
+        assertArrayEquals(new int [] { 0, 1, 2, 3, 5, 12 }, code.planRepair(shardPresent));
+
+        // One in each group.
+        shardPresent[13] = false;
+        assertArrayEquals(new int [] { 0, 1, 2, 3, 5, 6, 7, 8, 9, 10, 11, 12 }, code.planRepair(shardPresent));
+        checkDecode(code, shardPresent);
+
+        // A lost global parity needs all of the data.
+        shardPresent = allPresent(code);
+        shardPresent[15] = false;
+        assertArrayEquals(new int [] { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11 }, code.planRepair(shardPresent));
+        checkDecode(code, shardPresent);
+    }
+
+    /**
+     * Any globalParityCount + 1 lost shards can be rebuilt, and the
+     * larger sets that planRepair accepts are rebuilt correctly.
+     */
+    @Test
+    public void testAllLossPatterns() {
+        LocalReconstructionCode code = new LocalReconstructionCode(6, 2, 2);
+        int totalShardCount = code.getTotalShardCount();
+        for (int lost = 0; lost < (1 << totalShardCount); lost++) {
+            int lostCount = Integer.bitCount(lost);
+            if (4 < lostCount) {
+                continue;
+            }
+            boolean [] shardPresent = new boolean [totalShardCount];
+            for (int i = 0; i < totalShardCount; i++) {
+                shardPresent[i] = (lost & (1 << i)) == 0;
+            }
+            int [] plan = code.planRepair(shardPresent);
+            if (lostCount <= 3) {
+                assertNotNull(plan);
+            }
+            if (plan != null) {
+                checkDecode(code, shardPresent);
+            }
+            else {
+                try {
+                    code.decodeMissing(new byte [totalShardCount] [SHARD_SIZE], shardPresent, 0, SHARD_SIZE);
+                    fail("expected an exception");
+                }
+                catch (IllegalArgumentException e) {
+                    // expected
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testNotEnoughShards() {
+        LocalReconstructionCode code = new LocalReconstructionCode(4, 2, 1);
+        boolean [] shardPresent = allPresent(code);
+        shardPresent[0] = false;
+        shardPresent[1] = false;
+        shardPresent[4] = false;
+        assertNull(code.planRepair(shardPresent));
+    }
+
+    /**
+     * Encodes random data, wipes the missing shards, decodes, and checks
+     * that everything is back, and that only the planned shards were
+     * needed.
+     */
+    private static void checkDecode(LocalReconstructionCode code, boolean [] shardPresent) {
+        int totalShardCount = code.getTotalShardCount();
+        Random random = new Random(totalShardCount);
+        byte [] [] expected = new byte [totalShardCount] [SHARD_SIZE];
+        for (int i = 0; i < code.getDataShardCount(); i++) {
+            random.nextBytes(expected[i]);
+        }
+        code.encodeParity(expected, 0, SHARD_SIZE);
+
+        // Shards that aren't in the plan hold garbage.
+        int [] plan = code.planRepair(shardPresent);
+        boolean [] planned = new boolean [totalShardCount];
+        for (int i : plan) {
+            assertTrue(shardPresent[i]);
+            planned[i] = true;
+        }
+        byte [] [] shards = new byte [totalShardCount] [SHARD_SIZE];
+        for (int i = 0; i < totalShardCount; i++) {
+            if (planned[i]) {
+                System.arraycopy(expected[i], 0, shards[i], 0, SHARD_SIZE);
+            }
+            else {
+                random.nextBytes(shards[i]);
+            }
+        }
+
+        code.decodeMissing(shards, shardPresent, 0, SHARD_SIZE);
+        for (int i = 0; i < totalShardCount; i++) {
+            if (!shardPresent[i]) {
+                assertArrayEquals(expected[i], shards[i]);
+            }
+        }
+    }
+
+    private static boolean [] allPresent(LocalReconstructionCode code) {
+        boolean [] result = new boolean [code.getTotalShardCount()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = true;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * Unit tests for MappedFileEncoder and MappedFileDecoder
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import static com.backblaze.erasure.ShardTestUtil.DATA_COUNT;
+import static com.backblaze.erasure.ShardTestUtil.PARITY_COUNT;
+import static com.backblaze.erasure.ShardTestUtil.deleteAll;
+import static com.backblaze.erasure.ShardTestUtil.randomBytes;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests encoding and decoding files with MappedFileEncoder and
+ * MappedFileDecoder.
+ */
+public class MappedFileEncoderTest {
+
+    private static final int WINDOW_SIZE = 1000;
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        File dir = Files.createTempDirectory("mapped").toFile();
+        try {
+            for (int length : new int [] { 0, 1, 3999, 4000, 4001, 12345 }) {
+                byte [] data = randomBytes(length, length);
+                File [] shardFiles = encode(dir, data);
+
+                long shardLength = MappedFileEncoder.shardLength(length, DATA_COUNT);
+                for (File shardFile : shardFiles) {
+                    assertEquals(ShardFileHeader.SIZE + shardLength, shardFile.length());
+                }
+                assertArrayEquals(data, decode(dir, shardFiles));
+            }
+        }
+        finally {
+            deleteAll(dir);
+        }
+    }
+
+    @Test
+    public void testMissingShards() throws IOException {
+        File dir = Files.createTempDirectory("mapped").toFile();
+        try {
+            byte [] data = randomBytes(12345, 1);
+            File [] shardFiles = encode(dir, data);
+            long shardLength = MappedFileEncoder.shardLength(data.length, DATA_COUNT);
+
+            // Every pair of missing shards, including the last data
+            // shard, which has padding.
+            for (int a = 0; a < shardFiles.length; a++) {
+                for (int b = a + 1; b < shardFiles.length; b++) {
+                    File [] subset = shardFiles.clone();
+                    subset[a] = null;
+                    subset[b] = null;
+                    assertArrayEquals(data, decode(dir, subset));
+                }
+            }
+
+            // A truncated shard and a shard with a bad header count as
+            // missing.
+            RandomAccessFile file = new RandomAccessFile(shardFiles[1], "rw");
+            file.setLength(ShardFileHeader.SIZE + shardLength - 1);
+            file.close();
+            file = new RandomAccessFile(shardFiles[3], "rw");
+            file.writeInt(0);
+            file.close();
+            assertArrayEquals(data, decode(dir, shardFiles));
+        }
+        finally {
+            deleteAll(dir);
+        }
+    }
+
+    /**
+     * A shard left over from an earlier encode to the same names is
+     * outvoted by the others, even when it's shard 0.
+     */
+    @Test
+    public void testStaleShard() throws IOException {
+        File dir = Files.createTempDirectory("mapped").toFile();
+        try {
+            File [] shardFiles = encode(dir, randomBytes(5000, 4));
+            File stale = new File(dir, "stale");
+            Files.copy(shardFiles[0].toPath(), stale.toPath());
+            byte [] data = randomBytes(12345, 5);
+            encode(dir, data);
+            Files.copy(stale.toPath(), shardFiles[0].toPath(), StandardCopyOption.REPLACE_EXISTING);
+            assertArrayEquals(data, decode(dir, shardFiles));
+
+            File outputFile = new File(dir, "output");
+            new ParallelFileDecoder(ReedSolomon.create(DATA_COUNT, PARITY_COUNT)).decode(shardFiles, outputFile);
+            assertArrayEquals(data, Files.readAllBytes(outputFile.toPath()));
+        }
+        finally {
+            deleteAll(dir);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testTooManyMissing() throws IOException {
+        File dir = Files.createTempDirectory("mapped").toFile();
+        try {
+            File [] shardFiles = encode(dir, randomBytes(5000, 2));
+            shardFiles[0] = null;
+            shardFiles[2] = null;
+            shardFiles[5] = null;
+            decode(dir, shardFiles);
+        }
+        finally {
+            deleteAll(dir);
+        }
+    }
+
+    @Test
+    public void testHeader() throws IOException {
+        File dir = Files.createTempDirectory("mapped").toFile();
+        try {
+            File [] shardFiles = encode(dir, randomBytes(1001, 3));
+            shardFiles[0] = null;
+            ShardFileHeader header = MappedFileDecoder.readAnyHeader(shardFiles);
+            assertEquals(DATA_COUNT, header.getDataShardCount());
+            assertEquals(PARITY_COUNT, header.getParityShardCount());
+            assertEquals(1, header.getShardIndex());
+            assertEquals(1001, header.getFileLength());
+            assertEquals(251, header.getShardLength());
+        }
+        finally {
+            deleteAll(dir);
+        }
+    }
+
+    private static File [] encode(File dir, byte [] data) throws IOException {
+        File inputFile = new File(dir, "input");
+        Files.write(inputFile.toPath(), data);
+        File [] shardFiles = new File [DATA_COUNT + PARITY_COUNT];
+        for (int i = 0; i < shardFiles.length; i++) {
+            shardFiles[i] = MappedFileEncoder.shardFile(inputFile, i);
+        }
+        new MappedFileEncoder(ReedSolomon.create(DATA_COUNT, PARITY_COUNT), WINDOW_SIZE).encode(inputFile, shardFiles);
+        return shardFiles;
+    }
+
+    private static byte [] decode(File dir, File [] shardFiles) throws IOException {
+        File outputFile = new File(dir, "output");
+        new MappedFileDecoder(ReedSolomon.create(DATA_COUNT, PARITY_COUNT), WINDOW_SIZE).decode(shardFiles, outputFile);
+        return Files.readAllBytes(outputFile.toPath());
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Unit tests for the MatrixGenerator implementations
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MatrixGeneratorTest {
+
+    private static final MatrixGenerator [] GENERATORS = new MatrixGenerator [] {
+            new VandermondeMatrixGenerator(),
+            new CauchyMatrixGenerator(),
+            new CauchyMatrixGenerator(true)
+    };
+
+    @Test
+    public void testEverySubsetIsInvertible() {
+        final int DATA_COUNT = 5;
+        final int TOTAL_COUNT = 9;
+        for (MatrixGenerator generator : GENERATORS) {
+            Matrix matrix = generator.buildMatrix(DATA_COUNT, TOTAL_COUNT);
+            assertEquals(Matrix.identity(DATA_COUNT), matrix.submatrix(0, 0, DATA_COUNT, DATA_COUNT));
+            for (int present = 0; present < (1 << TOTAL_COUNT); present++) {
+                if (Integer.bitCount(present) != DATA_COUNT) {
+                    continue;
+                }
+                Matrix subMatrix = new Matrix(DATA_COUNT, DATA_COUNT);
+                int subRow = 0;
+                for (int r = 0; r < TOTAL_COUNT; r++) {
+                    if ((present & (1 << r)) != 0) {
+                        for (int c = 0; c < DATA_COUNT; c++) {
+                            subMatrix.set(subRow, c, matrix.get(r, c));
+                        }
+                        subRow += 1;
+                    }
+                }
+                // Throws if the submatrix is singular.
+                subMatrix.invert();
+            }
+        }
+    }
+
+    @Test
+    public void testMinimizeXors() {
+        final int DATA_COUNT = 10;
+        final int TOTAL_COUNT = 14;
+        Matrix plain = new CauchyMatrixGenerator(false).buildMatrix(DATA_COUNT, TOTAL_COUNT);
+        Matrix light = new CauchyMatrixGenerator(true).buildMatrix(DATA_COUNT, TOTAL_COUNT);
+        assertTrue(CauchyMatrixGenerator.parityWeight(light, DATA_COUNT)
+                < CauchyMatrixGenerator.parityWeight(plain, DATA_COUNT));
+        // The first parity row is all ones, which is the lightest there is.
+        for (int c = 0; c < DATA_COUNT; c++) {
+            assertEquals(1, light.get(DATA_COUNT, c));
+        }
+        assertEquals(8, CauchyMatrixGenerator.bitMatrixWeight((byte) 1));
+    }
+
+    @Test
+    public void testCauchyCodec() {
+        final int DATA_COUNT = 6;
+        final int PARITY_COUNT = 3;
+        final int TOTAL_COUNT = DATA_COUNT + PARITY_COUNT;
+        final int SHARD_SIZE = 100;
+        final Random random = new Random(0);
+
+        ReedSolomon codec = new ReedSolomon(DATA_COUNT, PARITY_COUNT,
+                new InputOutputByteTableCodingLoop(), new CauchyMatrixGenerator(true));
+        byte [] [] shards = new byte [TOTAL_COUNT] [SHARD_SIZE];
+        for (int i = 0; i < DATA_COUNT; i++) {
+            random.nextBytes(shards[i]);
+        }
+        codec.encodeParity(shards, 0, SHARD_SIZE);
+        assertTrue(codec.isParityCorrect(shards, 0, SHARD_SIZE));
+
+        boolean [] shardPresent = new boolean [TOTAL_COUNT];
+        Arrays.fill(shardPresent, true);
+        shardPresent[0] = false;
+        shardPresent[4] = false;
+        shardPresent[7] = false;
+        byte [] [] testShards = new byte [TOTAL_COUNT] [];
+        for (int i = 0; i < TOTAL_COUNT; i++) {
+            testShards[i] = shardPresent[i] ? shards[i].clone() : new byte [SHARD_SIZE];
+        }
+        codec.decodeMissing(testShards, shardPresent, 0, SHARD_SIZE);
+        for (int i = 0; i < TOTAL_COUNT; i++) {
+            assertArrayEquals(shards[i], testShards[i]);
+        }
+    }
+}
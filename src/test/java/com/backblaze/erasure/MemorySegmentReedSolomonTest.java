@@ -0,0 +1,76 @@
+/**
+ * Unit tests for MemorySegmentReedSolomon
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import org.junit.Test;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MemorySegmentReedSolomonTest {
+
+    /**
+     * Checks that shards in native memory, coded starting at an odd
+     * offset, get the same results as byte arrays.
+     */
+    @Test
+    public void testMatchesByteArrays() {
+        final int DATA_COUNT = 5;
+        final int PARITY_COUNT = 3;
+        final int TOTAL_COUNT = DATA_COUNT + PARITY_COUNT;
+        final int SHARD_SIZE = 1003;
+        final int OFFSET = 5;
+        final int BYTE_COUNT = SHARD_SIZE - OFFSET;
+        final Random random = new Random(0);
+
+        ReedSolomon codec = ReedSolomon.create(DATA_COUNT, PARITY_COUNT);
+        byte [] [] expectedShards = new byte [TOTAL_COUNT] [SHARD_SIZE];
+        for (int i = 0; i < DATA_COUNT; i++) {
+            random.nextBytes(expectedShards[i]);
+        }
+        codec.encodeParity(expectedShards, OFFSET, BYTE_COUNT);
+
+        MemorySegmentReedSolomon segmentCodec = new MemorySegmentReedSolomon(codec);
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment [] shards = new MemorySegment [TOTAL_COUNT];
+            for (int i = 0; i < TOTAL_COUNT; i++) {
+                shards[i] = arena.allocate(SHARD_SIZE);
+                if (i < DATA_COUNT) {
+                    MemorySegment.copy(MemorySegment.ofArray(expectedShards[i]), 0, shards[i], 0, SHARD_SIZE);
+                }
+            }
+
+            segmentCodec.encodeParity(shards, OFFSET, BYTE_COUNT);
+            checkSegments(expectedShards, shards);
+            assertTrue(segmentCodec.isParityCorrect(shards, OFFSET, BYTE_COUNT));
+            shards[TOTAL_COUNT - 1].set(ValueLayout.JAVA_BYTE, SHARD_SIZE - 1, (byte) (expectedShards[TOTAL_COUNT - 1][SHARD_SIZE - 1] + 1));
+            assertFalse(segmentCodec.isParityCorrect(shards, OFFSET, BYTE_COUNT));
+            shards[TOTAL_COUNT - 1].set(ValueLayout.JAVA_BYTE, SHARD_SIZE - 1, expectedShards[TOTAL_COUNT - 1][SHARD_SIZE - 1]);
+
+            boolean [] shardPresent = new boolean [] { false, true, true, false, true, true, false, true };
+            for (int i = 0; i < TOTAL_COUNT; i++) {
+                if (!shardPresent[i]) {
+                    shards[i].asSlice(OFFSET).fill((byte) 0);
+                }
+            }
+            segmentCodec.decodeMissing(shards, shardPresent, OFFSET, BYTE_COUNT);
+            checkSegments(expectedShards, shards);
+        }
+    }
+
+    private void checkSegments(byte [] [] expectedShards, MemorySegment [] actualShards) {
+        for (int i = 0; i < expectedShards.length; i++) {
+            assertArrayEquals(expectedShards[i], actualShards[i].toArray(ValueLayout.JAVA_BYTE));
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Unit tests for ParallelFileEncoder and ParallelFileDecoder
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.backblaze.erasure.ShardTestUtil.DATA_COUNT;
+import static com.backblaze.erasure.ShardTestUtil.PARITY_COUNT;
+import static com.backblaze.erasure.ShardTestUtil.TOTAL_COUNT;
+import static com.backblaze.erasure.ShardTestUtil.deleteAll;
+import static com.backblaze.erasure.ShardTestUtil.randomBytes;
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Tests encoding and decoding files with ParallelFileEncoder and
+ * ParallelFileDecoder.
+ */
+public class ParallelFileEncoderTest {
+
+    private static final int BUFFER_SIZE = 1000;
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        File dir = Files.createTempDirectory("parallel").toFile();
+        ExecutorService executor = Executors.newFixedThreadPool(TOTAL_COUNT);
+        try {
+            ReedSolomon codec = ReedSolomon.create(DATA_COUNT, PARITY_COUNT);
+            ParallelFileEncoder encoder = new ParallelFileEncoder(codec, executor, BUFFER_SIZE);
+            ParallelFileDecoder decoder = new ParallelFileDecoder(codec, executor, BUFFER_SIZE);
+            for (int length : new int [] { 0, 1, 3999, 4000, 4001, 8000, 12345 }) {
+                byte [] data = randomBytes(length, length);
+                File inputFile = new File(dir, "input");
+                Files.write(inputFile.toPath(), data);
+                File [] shardFiles = shardFiles(inputFile);
+                encoder.encode(inputFile, shardFiles);
+
+                // The files are the same as MappedFileEncoder writes.
+                File [] mappedFiles = new File [TOTAL_COUNT];
+                for (int i = 0; i < TOTAL_COUNT; i++) {
+                    mappedFiles[i] = new File(dir, "mapped." + i);
+                }
+                new MappedFileEncoder(codec, BUFFER_SIZE).encode(inputFile, mappedFiles);
+                for (int i = 0; i < TOTAL_COUNT; i++) {
+                    assertArrayEquals(Files.readAllBytes(mappedFiles[i].toPath()),
+                            Files.readAllBytes(shardFiles[i].toPath()));
+                }
+
+                File outputFile = new File(dir, "output");
+                decoder.decode(shardFiles, outputFile);
+                assertArrayEquals(data, Files.readAllBytes(outputFile.toPath()));
+
+                // Every pair of missing shards.
+                for (int a = 0; a < TOTAL_COUNT; a++) {
+                    for (int b = a + 1; b < TOTAL_COUNT; b++) {
+                        File [] subset = shardFiles.clone();
+                        subset[a] = null;
+                        subset[b] = null;
+                        decoder.decode(subset, outputFile);
+                        assertArrayEquals(data, Files.readAllBytes(outputFile.toPath()));
+                    }
+                }
+            }
+        }
+        finally {
+            executor.shutdown();
+            deleteAll(dir);
+        }
+    }
+
+    @Test
+    public void testDefaultExecutor() throws IOException {
+        File dir = Files.createTempDirectory("parallel").toFile();
+        try {
+            byte [] data = randomBytes(100000, 1);
+            File inputFile = new File(dir, "input");
+            Files.write(inputFile.toPath(), data);
+            File [] shardFiles = shardFiles(inputFile);
+            ReedSolomon codec = ReedSolomon.create(DATA_COUNT, PARITY_COUNT);
+            new ParallelFileEncoder(codec).encode(inputFile, shardFiles);
+            shardFiles[2] = null;
+            File outputFile = new File(dir, "output");
+            new ParallelFileDecoder(codec).decode(shardFiles, outputFile);
+            assertArrayEquals(data, Files.readAllBytes(outputFile.toPath()));
+        }
+        finally {
+            deleteAll(dir);
+        }
+    }
+
+    private static File [] shardFiles(File inputFile) {
+        File [] result = new File [TOTAL_COUNT];
+        for (int i = 0; i < TOTAL_COUNT; i++) {
+            result[i] = MappedFileEncoder.shardFile(inputFile, i);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * Unit tests for PiggybackedReedSolomon
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class PiggybackedReedSolomonTest {
+
+    private static final int OFFSET = 3;
+    private static final int BYTE_COUNT = 200;
+
+    @Test
+    public void testGroups() {
+        PiggybackedReedSolomon codec = new PiggybackedReedSolomon(ReedSolomon.create(10, 4));
+        int [] expected = { 1, 1, 1, 1, 2, 2, 2, 3, 3, 3 };
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], codec.getPiggybackParity(i));
+        }
+        assertEquals(-1, new PiggybackedReedSolomon(ReedSolomon.create(4, 1)).getPiggybackParity(2));
+    }
+
+    /**
+     * Every set of up to parityShardCount lost shards is rebuilt.
+     */
+    @Test
+    public void testAllLossPatterns() {
+        int [] [] layouts = { { 4, 2 }, { 5, 3 }, { 3, 1 } };
+        for (int [] layout : layouts) {
+            PiggybackedReedSolomon codec = new PiggybackedReedSolomon(ReedSolomon.create(layout[0], layout[1]));
+            int totalShardCount = layout[0] + layout[1];
+            byte [] [] expected = encodeRandom(codec);
+            for (int lost = 1; lost < (1 << totalShardCount); lost++) {
+                if (layout[1] < Integer.bitCount(lost)) {
+                    continue;
+                }
+                boolean [] shardPresent = new boolean [totalShardCount];
+                byte [] [] shards = new byte [totalShardCount] [];
+                for (int i = 0; i < totalShardCount; i++) {
+                    shardPresent[i] = (lost & (1 << i)) == 0;
+                    shards[i] = expected[i].clone();
+                    if (!shardPresent[i]) {
+                        Arrays.fill(shards[i], OFFSET, OFFSET + BYTE_COUNT, (byte) 0);
+                    }
+                }
+                codec.decodeMissing(shards, shardPresent, OFFSET, BYTE_COUNT);
+                for (int i = 0; i < totalShardCount; i++) {
+                    assertArrayEquals(expected[i], shards[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Each shard is rebuilt from just the substripes in its plan, and a
+     * data shard's plan reads less than plain Reed-Solomon.
+     */
+    @Test
+    public void testRepair() {
+        int [] [] layouts = { { 10, 4 }, { 6, 3 }, { 4, 1 } };
+        for (int [] layout : layouts) {
+            int dataShardCount = layout[0];
+            PiggybackedReedSolomon codec = new PiggybackedReedSolomon(ReedSolomon.create(dataShardCount, layout[1]));
+            int totalShardCount = dataShardCount + layout[1];
+            byte [] [] expected = encodeRandom(codec);
+            Random random = new Random(1);
+
+            for (int lost = 0; lost < totalShardCount; lost++) {
+                int [] [] plan = codec.planRepair(lost);
+                int substripesRead = plan[0].length + plan[1].length;
+                if (lost < dataShardCount && 1 < layout[1]) {
+                    int j = codec.getPiggybackParity(lost);
+                    int groupSize = 0;
+                    for (int i = 0; i < dataShardCount; i++) {
+                        if (codec.getPiggybackParity(i) == j) {
+                            groupSize += 1;
+                        }
+                    }
+                    assertEquals(dataShardCount + groupSize, substripesRead);
+                }
+                else {
+                    assertEquals(2 * dataShardCount, substripesRead);
+                }
+
+                // Only the planned substripes hold the right data.
+                byte [] [] shards = new byte [totalShardCount] [OFFSET + BYTE_COUNT];
+                for (byte [] shard : shards) {
+                    random.nextBytes(shard);
+                }
+                for (int substripe = 0; substripe < 2; substripe++) {
+                    int [] range = PiggybackedReedSolomon.getSubstripeRange(substripe, OFFSET, BYTE_COUNT);
+                    for (int i : plan[substripe]) {
+                        assertFalse(i == lost);
+                        System.arraycopy(expected[i], range[0], shards[i], range[0], range[1]);
+                    }
+                }
+                codec.repair(lost, shards, OFFSET, BYTE_COUNT);
+                assertArrayEquals(
+                        Arrays.copyOfRange(expected[lost], OFFSET, OFFSET + BYTE_COUNT),
+                        Arrays.copyOfRange(shards[lost], OFFSET, OFFSET + BYTE_COUNT));
+            }
+        }
+    }
+
+    /**
+     * Encodes random data shards, and returns all of the shards.
+     */
+    private static byte [] [] encodeRandom(PiggybackedReedSolomon codec) {
+        int totalShardCount = codec.getCodec().getTotalShardCount();
+        Random random = new Random(totalShardCount);
+        byte [] [] shards = new byte [totalShardCount] [OFFSET + BYTE_COUNT];
+        for (int i = 0; i < codec.getCodec().getDataShardCount(); i++) {
+            random.nextBytes(shards[i]);
+        }
+        codec.encodeParity(shards, OFFSET, BYTE_COUNT);
+        return shards;
+    }
+}
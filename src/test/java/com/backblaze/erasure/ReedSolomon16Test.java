@@ -0,0 +1,105 @@
+/**
+ * Unit tests for ReedSolomon16
+ *
+ * Copyright 2015, Backblaze, Inc.
+ */
+
+package com.backblaze.erasure;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReedSolomon16Test {
+
+    @Test
+    public void testWideStripe() {
+        final int DATA_COUNT = 300;
+        final int PARITY_COUNT = 20;
+        final int TOTAL_COUNT = DATA_COUNT + PARITY_COUNT;
+        final int SHARD_SIZE = 64;
+        final Random random = new Random(0);
+
+        ReedSolomon16 codec = ReedSolomon16.create(DATA_COUNT, PARITY_COUNT);
+        byte [] [] shards = new byte [TOTAL_COUNT] [SHARD_SIZE];
+        for (int i = 0; i < DATA_COUNT; i++) {
+            random.nextBytes(shards[i]);
+        }
+        codec.encodeParity(shards, 0, SHARD_SIZE);
+        assertTrue(codec.isParityCorrect(shards, 0, SHARD_SIZE));
+
+        // Lose a mix of data and parity shards, as many as there are
+        // parity shards.
+        for (int trial = 0; trial < 3; trial++) {
+            byte [] [] testShards = new byte [TOTAL_COUNT] [];
+            boolean [] shardPresent = new boolean [TOTAL_COUNT];
+            Arrays.fill(shardPresent, true);
+            for (int lost = 0; lost < PARITY_COUNT; ) {
+                int index = random.nextInt(TOTAL_COUNT);
+                if (shardPresent[index]) {
+                    shardPresent[index] = false;
+                    lost += 1;
+                }
+            }
+            for (int i = 0; i < TOTAL_COUNT; i++) {
+                testShards[i] = shardPresent[i] ? shards[i].clone() : new byte [SHARD_SIZE];
+            }
+            codec.decodeMissing(testShards, shardPresent, 0, SHARD_SIZE);
+            for (int i = 0; i < TOTAL_COUNT; i++) {
+                assertArrayEquals(shards[i], testShards[i]);
+            }
+
+            // The same shards missing again use the cached tables.
+            long hits = codec.getDecodeMatrixCache().getHitCount();
+            for (int i = 0; i < TOTAL_COUNT; i++) {
+                if (!shardPresent[i]) {
+                    Arrays.fill(testShards[i], (byte) 0);
+                }
+            }
+            codec.decodeMissing(testShards, shardPresent, 0, SHARD_SIZE);
+            assertEquals(hits + 1, codec.getDecodeMatrixCache().getHitCount());
+            for (int i = 0; i < TOTAL_COUNT; i++) {
+                assertArrayEquals(shards[i], testShards[i]);
+            }
+        }
+
+        // Any change in a data shard is caught.
+        shards[7][10] ^= 1;
+        assertFalse(codec.isParityCorrect(shards, 0, SHARD_SIZE));
+        assertTrue(codec.isParityCorrect(shards, 12, SHARD_SIZE - 12));
+    }
+
+    @Test
+    public void testOffsetMustBeEven() {
+        ReedSolomon16 codec = ReedSolomon16.create(4, 2);
+        byte [] [] shards = new byte [6] [10];
+        try {
+            codec.encodeParity(shards, 1, 4);
+            fail("expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testTooFewShards() {
+        ReedSolomon16 codec = ReedSolomon16.create(4, 2);
+        byte [] [] shards = new byte [6] [10];
+        boolean [] shardPresent = new boolean [] { true, false, false, false, true, true };
+        try {
+            codec.decodeMissing(shards, shardPresent, 0, 10);
+            fail("expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
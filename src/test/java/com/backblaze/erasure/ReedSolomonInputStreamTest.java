@@ -0,0 +1,170 @@
+/**
+ * Unit tests for ReedSolomonInputStream
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+import static com.backblaze.erasure.ShardTestUtil.DATA_COUNT;
+import static com.backblaze.erasure.ShardTestUtil.PARITY_COUNT;
+import static com.backblaze.erasure.ShardTestUtil.TOTAL_COUNT;
+import static com.backblaze.erasure.ShardTestUtil.randomBytes;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the ReedSolomonInputStream class.
+ */
+public class ReedSolomonInputStreamTest {
+
+    private static final int STRIPE_SIZE = 100;
+
+    @Test
+    public void testAllShardsPresent() throws IOException {
+        for (int length : new int [] { 0, 1, 399, 400, 401, 1234 }) {
+            byte [] data = randomBytes(length, length);
+            byte [] [] shards = encode(data);
+            assertArrayEquals(data, readAll(newStream(shards, data.length, inputs(shards)), 37));
+        }
+    }
+
+    @Test
+    public void testMissingShards() throws IOException {
+        byte [] data = randomBytes(2345, 1);
+        byte [] [] shards = encode(data);
+
+        InputStream [] inputs = inputs(shards);
+        inputs[1] = null;
+        inputs[DATA_COUNT] = null;
+        ReedSolomonInputStream in = newStream(shards, data.length, inputs);
+        assertArrayEquals(data, readAll(in, 1000));
+        assertEquals(2, in.getFailedShardCount());
+
+        // Read a byte at a time.
+        inputs = inputs(shards);
+        inputs[0] = null;
+        in = newStream(shards, data.length, inputs);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int b = in.read(); b != -1; b = in.read()) {
+            out.write(b);
+        }
+        assertArrayEquals(data, out.toByteArray());
+    }
+
+    @Test
+    public void testShardsFailingPartWay() throws IOException {
+        byte [] data = randomBytes(5000, 2);
+        byte [] [] shards = encode(data);
+
+        // One shard ends early, in the middle of the second stripe,
+        // and another throws in the third stripe.
+        InputStream [] inputs = inputs(shards);
+        inputs[2] = new ByteArrayInputStream(Arrays.copyOf(shards[2], 150));
+        inputs[3] = new FailingInputStream(shards[3], 250);
+        ReedSolomonInputStream in = newStream(shards, data.length, inputs);
+        assertArrayEquals(data, readAll(in, 77));
+        assertEquals(2, in.getFailedShardCount());
+    }
+
+    @Test
+    public void testChannels() throws IOException {
+        byte [] data = randomBytes(999, 3);
+        byte [] [] shards = encode(data);
+        ReadableByteChannel [] channels = new ReadableByteChannel [TOTAL_COUNT];
+        for (int i = 1; i < TOTAL_COUNT; i++) {
+            channels[i] = Channels.newChannel(new ByteArrayInputStream(shards[i]));
+        }
+        InputStream in = new ReedSolomonInputStream(
+                ReedSolomon.create(DATA_COUNT, PARITY_COUNT), STRIPE_SIZE, data.length, channels);
+        assertArrayEquals(data, readAll(in, 4096));
+    }
+
+    @Test(expected = IOException.class)
+    public void testTooManyMissing() throws IOException {
+        byte [] data = randomBytes(1000, 4);
+        byte [] [] shards = encode(data);
+        InputStream [] inputs = inputs(shards);
+        inputs[0] = null;
+        inputs[1] = null;
+        inputs[2] = new FailingInputStream(shards[2], 100);
+        readAll(newStream(shards, data.length, inputs), 1000);
+    }
+
+    private static ReedSolomonInputStream newStream(byte [] [] shards, long length, InputStream [] inputs) {
+        return new ReedSolomonInputStream(ReedSolomon.create(DATA_COUNT, PARITY_COUNT), STRIPE_SIZE, length, inputs);
+    }
+
+    private static byte [] [] encode(byte [] data) throws IOException {
+        ByteArrayOutputStream [] outputs = new ByteArrayOutputStream [TOTAL_COUNT];
+        for (int i = 0; i < TOTAL_COUNT; i++) {
+            outputs[i] = new ByteArrayOutputStream();
+        }
+        ReedSolomonOutputStream out = new ReedSolomonOutputStream(
+                ReedSolomon.create(DATA_COUNT, PARITY_COUNT), STRIPE_SIZE, outputs);
+        out.write(data);
+        out.close();
+        byte [] [] result = new byte [TOTAL_COUNT] [];
+        for (int i = 0; i < TOTAL_COUNT; i++) {
+            result[i] = outputs[i].toByteArray();
+        }
+        return result;
+    }
+
+    private static InputStream [] inputs(byte [] [] shards) {
+        InputStream [] result = new InputStream [shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            result[i] = new ByteArrayInputStream(shards[i]);
+        }
+        return result;
+    }
+
+    private static byte [] readAll(InputStream in, int bufferSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte [] buffer = new byte [bufferSize];
+        for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+            out.write(buffer, 0, n);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the first bytes of a shard, and then throws.
+     */
+    private static class FailingInputStream extends InputStream {
+        private final InputStream in;
+
+        FailingInputStream(byte [] shard, int goodCount) {
+            in = new ByteArrayInputStream(Arrays.copyOf(shard, goodCount));
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b == -1) {
+                throw new IOException("disk failed");
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte [] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n == -1) {
+                throw new IOException("disk failed");
+            }
+            return n;
+        }
+    }
+}
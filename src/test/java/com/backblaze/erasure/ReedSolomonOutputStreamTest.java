@@ -0,0 +1,132 @@
+/**
+ * Unit tests for ReedSolomonOutputStream
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import static com.backblaze.erasure.ShardTestUtil.DATA_COUNT;
+import static com.backblaze.erasure.ShardTestUtil.PARITY_COUNT;
+import static com.backblaze.erasure.ShardTestUtil.randomBytes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the ReedSolomonOutputStream class.
+ */
+public class ReedSolomonOutputStreamTest {
+
+    private static final int STRIPE_SIZE = 100;
+
+    @Test
+    public void testLengths() throws IOException {
+        int [] lengths = { 0, 1, 399, 400, 401, 799, 800, 1234 };
+        for (int length : lengths) {
+            ByteArrayOutputStream [] outputs = write(randomBytes(length, length), 7);
+            int expected = (length / (DATA_COUNT * STRIPE_SIZE)) * STRIPE_SIZE
+                    + ((length % (DATA_COUNT * STRIPE_SIZE) == 0) ? 0
+                       : ReedSolomonOutputStream.lastStripeShardSize(length, DATA_COUNT, STRIPE_SIZE));
+            for (ByteArrayOutputStream output : outputs) {
+                assertEquals(expected, output.size());
+            }
+        }
+        assertEquals(0, ReedSolomonOutputStream.lastStripeShardSize(0, DATA_COUNT, STRIPE_SIZE));
+        assertEquals(1, ReedSolomonOutputStream.lastStripeShardSize(401, DATA_COUNT, STRIPE_SIZE));
+        assertEquals(STRIPE_SIZE, ReedSolomonOutputStream.lastStripeShardSize(800, DATA_COUNT, STRIPE_SIZE));
+        assertEquals(9, ReedSolomonOutputStream.lastStripeShardSize(434, DATA_COUNT, STRIPE_SIZE));
+    }
+
+    @Test
+    public void testLayoutAndParity() throws IOException {
+        ReedSolomon codec = ReedSolomon.create(DATA_COUNT, PARITY_COUNT);
+        for (int length : new int [] { 1, 57, 400, 1000, 1234 }) {
+            byte [] data = randomBytes(length, length + 1);
+            ByteArrayOutputStream [] outputs = write(data, 13);
+
+            // Check each stripe, full or not.
+            byte [] [] shardBytes = new byte [outputs.length] [];
+            for (int i = 0; i < outputs.length; i++) {
+                shardBytes[i] = outputs[i].toByteArray();
+            }
+            int dataPosition = 0;
+            int shardPosition = 0;
+            while (dataPosition < length) {
+                int remaining = length - dataPosition;
+                int shardSize = (DATA_COUNT * STRIPE_SIZE <= remaining) ? STRIPE_SIZE
+                        : ReedSolomonOutputStream.lastStripeShardSize(remaining, DATA_COUNT, STRIPE_SIZE);
+                byte [] [] stripe = new byte [outputs.length] [shardSize];
+                for (int i = 0; i < outputs.length; i++) {
+                    System.arraycopy(shardBytes[i], shardPosition, stripe[i], 0, shardSize);
+                }
+                assertTrue(codec.isParityCorrect(stripe, 0, shardSize));
+                for (int i = 0; i < DATA_COUNT * shardSize; i++) {
+                    byte expected = (dataPosition + i < length) ? data[dataPosition + i] : 0;
+                    assertEquals(expected, stripe[i / shardSize][i % shardSize]);
+                }
+                dataPosition += DATA_COUNT * shardSize;
+                shardPosition += shardSize;
+            }
+        }
+    }
+
+    @Test
+    public void testChannels() throws IOException {
+        byte [] data = randomBytes(555, 3);
+        ByteArrayOutputStream [] expected = write(data, 555);
+
+        ByteArrayOutputStream [] outputs = new ByteArrayOutputStream [DATA_COUNT + PARITY_COUNT];
+        WritableByteChannel [] channels = new WritableByteChannel [outputs.length];
+        for (int i = 0; i < outputs.length; i++) {
+            outputs[i] = new ByteArrayOutputStream();
+            channels[i] = Channels.newChannel(outputs[i]);
+        }
+        OutputStream out = new ReedSolomonOutputStream(ReedSolomon.create(DATA_COUNT, PARITY_COUNT), STRIPE_SIZE, channels);
+        for (byte b : data) {
+            out.write(b);
+        }
+        out.close();
+        for (int i = 0; i < outputs.length; i++) {
+            assertEquals(expected[i].toString("ISO-8859-1"), outputs[i].toString("ISO-8859-1"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testWriteAfterClose() throws IOException {
+        ReedSolomonOutputStream out = new ReedSolomonOutputStream(
+                ReedSolomon.create(DATA_COUNT, PARITY_COUNT), STRIPE_SIZE, newOutputs());
+        out.close();
+        out.write(1);
+    }
+
+    /**
+     * Writes the data in chunks of the given size, and returns the shards.
+     */
+    private static ByteArrayOutputStream [] write(byte [] data, int chunkSize) throws IOException {
+        ByteArrayOutputStream [] outputs = newOutputs();
+        ReedSolomonOutputStream out = new ReedSolomonOutputStream(
+                ReedSolomon.create(DATA_COUNT, PARITY_COUNT), STRIPE_SIZE, outputs);
+        for (int i = 0; i < data.length; i += chunkSize) {
+            out.write(data, i, Math.min(chunkSize, data.length - i));
+        }
+        out.close();
+        assertEquals(data.length, out.getByteCount());
+        return outputs;
+    }
+
+    private static ByteArrayOutputStream [] newOutputs() {
+        ByteArrayOutputStream [] outputs = new ByteArrayOutputStream [DATA_COUNT + PARITY_COUNT];
+        for (int i = 0; i < outputs.length; i++) {
+            outputs[i] = new ByteArrayOutputStream();
+        }
+        return outputs;
+    }
+}
@@ -8,14 +8,18 @@ package com.backblaze.erasure;
 
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -202,6 +206,491 @@ public class ReedSolomonTest {
         }
     }
 
+    /**
+     * Checks that all of the coding loops produce the same results when
+     * the range being coded doesn't start at zero and isn't a multiple
+     * of eight bytes long.
+     */
+    @Test
+    public void testCodingLoopsWithOffset() {
+        final int DATA_COUNT = 7;
+        final int PARITY_COUNT = 3;
+        final int SHARD_SIZE = 2003;
+        final int OFFSET = 3;
+        final int BYTE_COUNT = 1997;
+        final Random random = new Random(0);
+
+        byte [] [] dataShards = new byte [DATA_COUNT] [SHARD_SIZE];
+        for (byte[] shard : dataShards) {
+            random.nextBytes(shard);
+        }
+
+        byte [] [] expectedShards = null;
+        for (CodingLoop codingLoop : CodingLoop.ALL_CODING_LOOPS) {
+            ReedSolomon codec = new ReedSolomon(DATA_COUNT, PARITY_COUNT, codingLoop);
+            byte [] [] allShards = new byte [DATA_COUNT + PARITY_COUNT] [];
+            for (int i = 0; i < DATA_COUNT; i++) {
+                allShards[i] = dataShards[i];
+            }
+            for (int i = DATA_COUNT; i < DATA_COUNT + PARITY_COUNT; i++) {
+                allShards[i] = new byte [SHARD_SIZE];
+            }
+            codec.encodeParity(allShards, OFFSET, BYTE_COUNT);
+            assertTrue(codec.isParityCorrect(allShards, OFFSET, BYTE_COUNT));
+            assertTrue(codec.isParityCorrect(allShards, OFFSET, BYTE_COUNT, new byte [SHARD_SIZE]));
+            if (expectedShards == null) {
+                expectedShards = allShards;
+            }
+            else {
+                checkShards(expectedShards, allShards);
+            }
+        }
+    }
+
+    /**
+     * Checks that splitting the work across a pool gives the same
+     * answers as doing it all on one thread.
+     */
+    @Test
+    public void testParallelCodingLoop() {
+        final int DATA_COUNT = 10;
+        final int PARITY_COUNT = 4;
+        final int TOTAL_COUNT = DATA_COUNT + PARITY_COUNT;
+        final int SHARD_SIZE = 100003;
+        final Random random = new Random(0);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ReedSolomon serialCodec = new ReedSolomon(DATA_COUNT, PARITY_COUNT, new InputOutputByteTableCodingLoop());
+            ReedSolomon parallelCodec = new ReedSolomon(DATA_COUNT, PARITY_COUNT,
+                    new ParallelCodingLoop(new InputOutputByteTableCodingLoop(), pool, 4096));
+
+            byte [] [] expectedShards = new byte [TOTAL_COUNT] [SHARD_SIZE];
+            byte [] [] actualShards = new byte [TOTAL_COUNT] [SHARD_SIZE];
+            for (int i = 0; i < DATA_COUNT; i++) {
+                random.nextBytes(expectedShards[i]);
+                System.arraycopy(expectedShards[i], 0, actualShards[i], 0, SHARD_SIZE);
+            }
+            serialCodec.encodeParity(expectedShards, 0, SHARD_SIZE);
+            parallelCodec.encodeParity(actualShards, 0, SHARD_SIZE);
+            checkShards(expectedShards, actualShards);
+
+            byte [] tempBuffer = new byte [SHARD_SIZE];
+            assertTrue(parallelCodec.isParityCorrect(actualShards, 0, SHARD_SIZE));
+            assertTrue(parallelCodec.isParityCorrect(actualShards, 0, SHARD_SIZE, tempBuffer));
+            actualShards[TOTAL_COUNT - 1][SHARD_SIZE - 1] += 1;
+            assertFalse(parallelCodec.isParityCorrect(actualShards, 0, SHARD_SIZE));
+            assertFalse(parallelCodec.isParityCorrect(actualShards, 0, SHARD_SIZE, tempBuffer));
+            actualShards[TOTAL_COUNT - 1][SHARD_SIZE - 1] -= 1;
+
+            boolean [] shardPresent = new boolean [TOTAL_COUNT];
+            Arrays.fill(shardPresent, true);
+            for (int missing : new int [] { 0, 3, 9, 12 }) {
+                clearBytes(actualShards[missing]);
+                shardPresent[missing] = false;
+            }
+            parallelCodec.decodeMissing(actualShards, shardPresent, 0, SHARD_SIZE);
+            checkShards(expectedShards, actualShards);
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Checks that TiledCodingLoop gives the same results as the loop it
+     * wraps, with a block size that doesn't divide the shard size.
+     */
+    @Test
+    public void testTiledCodingLoop() {
+        final int DATA_COUNT = 10;
+        final int PARITY_COUNT = 4;
+        final int TOTAL_COUNT = DATA_COUNT + PARITY_COUNT;
+        final int SHARD_SIZE = 10007;
+        final int OFFSET = 3;
+        final Random random = new Random(0);
+
+        ReedSolomon plainCodec = new ReedSolomon(DATA_COUNT, PARITY_COUNT, new InputOutputByteTableCodingLoop());
+        ReedSolomon tiledCodec = new ReedSolomon(DATA_COUNT, PARITY_COUNT,
+                new TiledCodingLoop(new InputOutputByteTableCodingLoop(), 1000));
+
+        byte [] [] expectedShards = new byte [TOTAL_COUNT] [SHARD_SIZE];
+        byte [] [] actualShards = new byte [TOTAL_COUNT] [SHARD_SIZE];
+        for (int i = 0; i < DATA_COUNT; i++) {
+            random.nextBytes(expectedShards[i]);
+            System.arraycopy(expectedShards[i], 0, actualShards[i], 0, SHARD_SIZE);
+        }
+        plainCodec.encodeParity(expectedShards, OFFSET, SHARD_SIZE - OFFSET);
+        tiledCodec.encodeParity(actualShards, OFFSET, SHARD_SIZE - OFFSET);
+        checkShards(expectedShards, actualShards);
+        assertTrue(tiledCodec.isParityCorrect(actualShards, OFFSET, SHARD_SIZE - OFFSET));
+        actualShards[TOTAL_COUNT - 1][SHARD_SIZE - 1] += 1;
+        assertFalse(tiledCodec.isParityCorrect(actualShards, OFFSET, SHARD_SIZE - OFFSET));
+        actualShards[TOTAL_COUNT - 1][SHARD_SIZE - 1] -= 1;
+
+        boolean [] shardPresent = new boolean [TOTAL_COUNT];
+        Arrays.fill(shardPresent, true);
+        for (int missing : new int [] { 1, 5, 10, 13 }) {
+            Arrays.fill(actualShards[missing], OFFSET, SHARD_SIZE, (byte) 0);
+            shardPresent[missing] = false;
+        }
+        tiledCodec.decodeMissing(actualShards, shardPresent, OFFSET, SHARD_SIZE - OFFSET);
+        checkShards(expectedShards, actualShards);
+
+        // The automatic block size fits the cache, and isn't tiny.
+        TiledCodingLoop autoLoop = new TiledCodingLoop(new InputOutputByteTableCodingLoop());
+        assertTrue(autoLoop.getBlockSize(17, 3) * 20 <= Math.max(TiledCodingLoop.CACHE_SIZE, 20 * 1024));
+        assertEquals(2 * 1024 * 1024, TiledCodingLoop.parseSize("2048K", 0));
+        assertEquals(7, TiledCodingLoop.parseSize("bogus", 7));
+    }
+
+    /**
+     * Checks that decoding the same set of missing shards twice reuses
+     * the decoding matrix.
+     */
+    @Test
+    public void testDecodeMatrixIsCached() {
+        final Random random = new Random(0);
+        byte [] [] dataShards = new byte [5] [100];
+        for (byte [] shard : dataShards) {
+            random.nextBytes(shard);
+        }
+        ReedSolomon codec = ReedSolomon.create(5, 3);
+        byte [] [] allShards = new byte [8] [];
+        for (int i = 0; i < 8; i++) {
+            allShards[i] = (i < 5) ? Arrays.copyOf(dataShards[i], 100) : new byte [100];
+        }
+        codec.encodeParity(allShards, 0, 100);
+
+        boolean [] shardPresent = new boolean [] { true, false, true, false, true, true, true, true };
+        for (int pass = 0; pass < 2; pass++) {
+            byte [] [] testShards = new byte [8] [];
+            for (int i = 0; i < 8; i++) {
+                testShards[i] = shardPresent[i] ? Arrays.copyOf(allShards[i], 100) : new byte [100];
+            }
+            codec.decodeMissing(testShards, shardPresent, 0, 100);
+            checkShards(allShards, testShards);
+        }
+        assertEquals(1, codec.getDecodeMatrixCache().getMissCount());
+        assertEquals(1, codec.getDecodeMatrixCache().getHitCount());
+    }
+
+    /**
+     * Checks that encoding, checking, and decoding shards held in
+     * ByteBuffers gives the same answers as byte arrays, for direct and
+     * heap buffers with different positions and byte orders.
+     */
+    @Test
+    public void testByteBufferShards() {
+        final int DATA_COUNT = 6;
+        final int PARITY_COUNT = 3;
+        final int TOTAL_COUNT = DATA_COUNT + PARITY_COUNT;
+        final int SHARD_SIZE = 1001;
+        final Random random = new Random(0);
+
+        byte [] [] expectedShards = new byte [TOTAL_COUNT] [SHARD_SIZE];
+        for (int i = 0; i < DATA_COUNT; i++) {
+            random.nextBytes(expectedShards[i]);
+        }
+        ReedSolomon.create(DATA_COUNT, PARITY_COUNT).encodeParity(expectedShards, 0, SHARD_SIZE);
+
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            ReedSolomon [] codecs = new ReedSolomon [] {
+                    ReedSolomon.create(DATA_COUNT, PARITY_COUNT),
+                    new ReedSolomon(DATA_COUNT, PARITY_COUNT, new InputOutputLongSwarCodingLoop()),
+                    new ReedSolomon(DATA_COUNT, PARITY_COUNT,
+                            new ParallelCodingLoop(new InputOutputByteTableCodingLoop(), pool, 128))
+            };
+            for (ReedSolomon codec : codecs) {
+                // Put each shard at a different position, in alternating
+                // direct and heap buffers with alternating byte orders.
+                ByteBuffer [] buffers = new ByteBuffer [TOTAL_COUNT];
+                for (int i = 0; i < TOTAL_COUNT; i++) {
+                    ByteBuffer buffer = (i % 2 == 0)
+                            ? ByteBuffer.allocateDirect(SHARD_SIZE + i + 5)
+                            : ByteBuffer.allocate(SHARD_SIZE + i + 5);
+                    buffer.order((i % 3 == 0) ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+                    buffer.position(i);
+                    buffer.limit(i + SHARD_SIZE);
+                    if (i < DATA_COUNT) {
+                        buffer.duplicate().put(expectedShards[i]);
+                    }
+                    buffers[i] = buffer;
+                }
+
+                codec.encodeParity(buffers);
+                checkBuffers(expectedShards, buffers);
+                assertTrue(codec.isParityCorrect(buffers));
+                buffers[TOTAL_COUNT - 1].put(buffers[TOTAL_COUNT - 1].position() + 7, (byte) 1);
+                assertFalse(codec.isParityCorrect(buffers));
+                buffers[TOTAL_COUNT - 1].put(buffers[TOTAL_COUNT - 1].position() + 7, expectedShards[TOTAL_COUNT - 1][7]);
+                buffers[0].put(buffers[0].position() + SHARD_SIZE - 1, (byte) (expectedShards[0][SHARD_SIZE - 1] + 1));
+                assertFalse(codec.isParityCorrect(buffers));
+                buffers[0].put(buffers[0].position() + SHARD_SIZE - 1, expectedShards[0][SHARD_SIZE - 1]);
+
+                boolean [] shardPresent = new boolean [TOTAL_COUNT];
+                Arrays.fill(shardPresent, true);
+                for (int missing : new int [] { 1, 4, 7 }) {
+                    ByteBuffer buffer = buffers[missing];
+                    for (int i = buffer.position(); i < buffer.limit(); i++) {
+                        buffer.put(i, (byte) 0);
+                    }
+                    shardPresent[missing] = false;
+                }
+                codec.decodeMissing(buffers, shardPresent);
+                checkBuffers(expectedShards, buffers);
+
+                // Just the missing data shards, with no buffer for the
+                // missing parity shard.
+                ByteBuffer [] partial = buffers.clone();
+                partial[7] = null;
+                for (int missing : new int [] { 1, 4 }) {
+                    ByteBuffer buffer = buffers[missing];
+                    for (int i = buffer.position(); i < buffer.limit(); i++) {
+                        buffer.put(i, (byte) 0);
+                    }
+                }
+                codec.decodeShards(partial, shardPresent, new int [] { 1, 4 });
+                checkBuffers(expectedShards, buffers);
+
+                for (int i = 0; i < TOTAL_COUNT; i++) {
+                    assertEquals(i, buffers[i].position());
+                    assertEquals(i + SHARD_SIZE, buffers[i].limit());
+                }
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    private void checkBuffers(byte [] [] expectedShards, ByteBuffer [] actualShards) {
+        assertEquals(expectedShards.length, actualShards.length);
+        for (int i = 0; i < expectedShards.length; i++) {
+            byte [] actual = new byte [actualShards[i].remaining()];
+            actualShards[i].duplicate().get(actual);
+            assertArrayEquals(expectedShards[i], actual);
+        }
+    }
+
+    /**
+     * Checks that updating parity for a change to one data shard gives
+     * the same parity as encoding the whole stripe again.
+     */
+    @Test
+    public void testUpdateParity() {
+        final int DATA_COUNT = 6;
+        final int PARITY_COUNT = 3;
+        final int SHARD_SIZE = 500;
+        final Random random = new Random(0);
+
+        ReedSolomon codec = ReedSolomon.create(DATA_COUNT, PARITY_COUNT);
+        byte [] [] shards = new byte [DATA_COUNT + PARITY_COUNT] [SHARD_SIZE];
+        for (int i = 0; i < DATA_COUNT; i++) {
+            random.nextBytes(shards[i]);
+        }
+        codec.encodeParity(shards, 0, SHARD_SIZE);
+
+        byte [] [] parityShards = Arrays.copyOfRange(shards, DATA_COUNT, DATA_COUNT + PARITY_COUNT);
+        for (int shardIndex = 0; shardIndex < DATA_COUNT; shardIndex++) {
+            byte [] oldData = Arrays.copyOf(shards[shardIndex], SHARD_SIZE);
+            for (int i = 100; i < 300; i++) {
+                shards[shardIndex][i] = (byte) random.nextInt(256);
+            }
+            codec.updateParity(shardIndex, oldData, shards[shardIndex], parityShards, 100, 200);
+            assertTrue(codec.isParityCorrect(shards, 0, SHARD_SIZE));
+        }
+    }
+
+    /**
+     * Checks that decodeShards() rebuilds the shards asked for, and
+     * doesn't need buffers for the others.
+     */
+    @Test
+    public void testDecodeWantedShards() {
+        final int DATA_COUNT = 5;
+        final int PARITY_COUNT = 3;
+        final int TOTAL_COUNT = DATA_COUNT + PARITY_COUNT;
+        final int SHARD_SIZE = 300;
+        final Random random = new Random(0);
+
+        ReedSolomon codec = ReedSolomon.create(DATA_COUNT, PARITY_COUNT);
+        byte [] [] allShards = new byte [TOTAL_COUNT] [SHARD_SIZE];
+        for (int i = 0; i < DATA_COUNT; i++) {
+            random.nextBytes(allShards[i]);
+        }
+        codec.encodeParity(allShards, 0, SHARD_SIZE);
+        boolean [] shardPresent = new boolean [] { true, false, false, true, true, true, false, true };
+
+        // One data shard, with no buffers for the other missing shards.
+        byte [] [] testShards = new byte [TOTAL_COUNT] [];
+        for (int i = 0; i < TOTAL_COUNT; i++) {
+            if (shardPresent[i]) {
+                testShards[i] = Arrays.copyOf(allShards[i], SHARD_SIZE);
+            }
+        }
+        testShards[2] = new byte [SHARD_SIZE];
+        codec.decodeShards(testShards, shardPresent, new int [] { 2 }, 0, SHARD_SIZE);
+        assertArrayEquals(allShards[2], testShards[2]);
+
+        // One parity shard, which is computed straight from the
+        // shards that are present.
+        testShards[2] = null;
+        testShards[6] = new byte [SHARD_SIZE];
+        codec.decodeShards(testShards, shardPresent, new int [] { 6 }, 0, SHARD_SIZE);
+        assertArrayEquals(allShards[6], testShards[6]);
+        assertNull(testShards[1]);
+        assertNull(testShards[2]);
+
+        // A data shard and a parity shard together.
+        testShards[1] = new byte [SHARD_SIZE];
+        testShards[6] = new byte [SHARD_SIZE];
+        codec.decodeShards(testShards, shardPresent, new int [] { 1, 6 }, 0, SHARD_SIZE);
+        assertArrayEquals(allShards[1], testShards[1]);
+        assertArrayEquals(allShards[6], testShards[6]);
+    }
+
+    /**
+     * Corrupts up to parity / 2 shards in each column, and checks that
+     * locateCorruptShards finds and fixes them, with each kind of
+     * matrix.
+     */
+    @Test
+    public void testLocateCorruptShards() {
+        final int DATA_COUNT = 10;
+        final int PARITY_COUNT = 4;
+        final int TOTAL_COUNT = DATA_COUNT + PARITY_COUNT;
+        final int SHARD_SIZE = 500;
+        final Random random = new Random(0);
+
+        MatrixGenerator [] generators = {
+                new VandermondeMatrixGenerator(), new CauchyMatrixGenerator(false), new CauchyMatrixGenerator(true) };
+        for (MatrixGenerator generator : generators) {
+            ReedSolomon codec = new ReedSolomon(DATA_COUNT, PARITY_COUNT, new InputOutputByteTableCodingLoop(), generator);
+            byte [] [] allShards = new byte [TOTAL_COUNT] [SHARD_SIZE];
+            for (int i = 0; i < DATA_COUNT; i++) {
+                random.nextBytes(allShards[i]);
+            }
+            codec.encodeParity(allShards, 0, SHARD_SIZE);
+            assertEquals(0, codec.locateCorruptShards(allShards, 0, SHARD_SIZE).length);
+
+            // Shards 3 and 12 are bad all the way down; a few columns
+            // have a different pair.
+            byte [] [] testShards = copyShards(allShards);
+            for (int b = 0; b < SHARD_SIZE; b++) {
+                testShards[3][b] ^= (byte) (random.nextInt(255) + 1);
+                testShards[12][b] ^= (byte) (random.nextInt(255) + 1);
+            }
+            testShards[3][100] = allShards[3][100];
+            testShards[12][100] = allShards[12][100];
+            testShards[0][100] ^= 1;
+            testShards[9][100] ^= 2;
+            testShards[3][200] = allShards[3][200];
+            assertFalse(codec.isParityCorrect(testShards, 0, SHARD_SIZE));
+
+            int [] expectedBad = { 0, 3, 9, 12 };
+            assertArrayEquals(expectedBad, codec.locateCorruptShards(testShards, 0, SHARD_SIZE));
+            assertArrayEquals(expectedBad, codec.locateCorruptShards(testShards, 0, SHARD_SIZE, true));
+            checkShards(allShards, testShards);
+
+            // Just part of the range.
+            testShards[5][50] ^= 7;
+            testShards[6][450] ^= 7;
+            assertArrayEquals(new int [] { 6 }, codec.locateCorruptShards(testShards, 400, 100, true));
+            assertArrayEquals(allShards[6], testShards[6]);
+            testShards[5][50] ^= 7;
+
+            // Three bad shards in a column can't be found, and nothing
+            // is changed.
+            testShards[1][10] ^= 1;
+            testShards[2][10] ^= 1;
+            testShards[4][10] ^= 1;
+            byte [] [] before = copyShards(testShards);
+            assertNull(codec.locateCorruptShards(testShards, 0, SHARD_SIZE, true));
+            checkShards(before, testShards);
+        }
+
+        // With one parity shard, nothing can be located.
+        ReedSolomon codec = ReedSolomon.create(3, 1);
+        byte [] [] shards = new byte [4] [10];
+        codec.encodeParity(shards, 0, 10);
+        shards[1][5] = 1;
+        assertNull(codec.locateCorruptShards(shards, 0, 10));
+    }
+
+    /**
+     * With 20 + 12, every column gets a different set of up to six bad
+     * shards, which are all found and fixed.
+     */
+    @Test
+    public void testLocateManyCorruptShards() {
+        final int DATA_COUNT = 20;
+        final int PARITY_COUNT = 12;
+        final int TOTAL_COUNT = DATA_COUNT + PARITY_COUNT;
+        final int SHARD_SIZE = 4096;
+        final Random random = new Random(1);
+
+        MatrixGenerator [] generators = { new VandermondeMatrixGenerator(), new CauchyMatrixGenerator(true) };
+        for (MatrixGenerator generator : generators) {
+            ReedSolomon codec = new ReedSolomon(DATA_COUNT, PARITY_COUNT, new InputOutputByteTableCodingLoop(), generator);
+            byte [] [] allShards = new byte [TOTAL_COUNT] [SHARD_SIZE];
+            for (int i = 0; i < DATA_COUNT; i++) {
+                random.nextBytes(allShards[i]);
+            }
+            codec.encodeParity(allShards, 0, SHARD_SIZE);
+
+            byte [] [] testShards = copyShards(allShards);
+            boolean [] corrupt = new boolean [TOTAL_COUNT];
+            for (int b = 0; b < SHARD_SIZE; b++) {
+                int errorCount = random.nextInt(PARITY_COUNT / 2 + 1);
+                for (int e = 0; e < errorCount; e++) {
+                    int i = random.nextInt(TOTAL_COUNT);
+                    testShards[i][b] = (byte) (allShards[i][b] ^ (random.nextInt(255) + 1));
+                    corrupt[i] = true;
+                }
+            }
+            int corruptCount = 0;
+            for (boolean c : corrupt) {
+                corruptCount += c ? 1 : 0;
+            }
+            assertEquals(corruptCount, codec.locateCorruptShards(testShards, 0, SHARD_SIZE, true).length);
+            checkShards(allShards, testShards);
+        }
+    }
+
+    /**
+     * A matrix that isn't in the form ErrorLocator knows can't be used
+     * to locate errors.
+     */
+    @Test(expected = UnsupportedOperationException.class)
+    public void testLocateUnsupportedMatrix() {
+        // The Cauchy matrix with two data columns swapped is still a
+        // good code, but its points aren't in the expected order.
+        MatrixGenerator swapped = new MatrixGenerator() {
+            @Override
+            public Matrix buildMatrix(int dataShards, int totalShards) {
+                Matrix matrix = new CauchyMatrixGenerator(false).buildMatrix(dataShards, totalShards);
+                for (int r = dataShards; r < totalShards; r++) {
+                    byte first = matrix.get(r, 0);
+                    matrix.set(r, 0, matrix.get(r, 1));
+                    matrix.set(r, 1, first);
+                }
+                return matrix;
+            }
+        };
+        ReedSolomon codec = new ReedSolomon(4, 2, new InputOutputByteTableCodingLoop(), swapped);
+        codec.locateCorruptShards(new byte [6] [10], 0, 10);
+    }
+
+    private byte [] [] copyShards(byte [] [] shards) {
+        byte [] [] result = new byte [shards.length] [];
+        for (int i = 0; i < shards.length; i++) {
+            result[i] = shards[i].clone();
+        }
+        return result;
+    }
+
     /**
      * Given an array of data shards, computes parity and returns an array
      * of the resulting parity shards.
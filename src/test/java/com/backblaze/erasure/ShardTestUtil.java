@@ -0,0 +1,51 @@
+/**
+ * Helpers shared by the stream and file tests.
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import java.io.File;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The small layout and the helpers used by the tests of the streams
+ * and the file encoders and decoders.
+ */
+final class ShardTestUtil {
+
+    /**
+     * A small layout: four data shards and two parity shards.
+     */
+    static final int DATA_COUNT = 4;
+    static final int PARITY_COUNT = 2;
+    static final int TOTAL_COUNT = DATA_COUNT + PARITY_COUNT;
+
+    private ShardTestUtil() {
+    }
+
+    /**
+     * Returns repeatable random bytes.
+     */
+    static byte [] randomBytes(int length, long seed) {
+        byte [] result = new byte [length];
+        new Random(seed).nextBytes(result);
+        return result;
+    }
+
+    /**
+     * Deletes the files in a temporary directory, and the directory.
+     */
+    static void deleteAll(File dir) {
+        File [] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                assertTrue(file.delete());
+            }
+        }
+        assertTrue(dir.delete());
+    }
+}
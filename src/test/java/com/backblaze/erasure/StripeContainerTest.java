@@ -0,0 +1,216 @@
+/**
+ * Unit tests for the stripe container format
+ *
+ * Copyright 2015, Backblaze, Inc.  All rights reserved.
+ */
+
+package com.backblaze.erasure;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import static com.backblaze.erasure.ShardTestUtil.DATA_COUNT;
+import static com.backblaze.erasure.ShardTestUtil.PARITY_COUNT;
+import static com.backblaze.erasure.ShardTestUtil.TOTAL_COUNT;
+import static com.backblaze.erasure.ShardTestUtil.deleteAll;
+import static com.backblaze.erasure.ShardTestUtil.randomBytes;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests StripeContainerOutputStream and StripeContainerInputStream.
+ */
+public class StripeContainerTest {
+
+    private static final int STRIPE_SIZE = 100;
+
+    /**
+     * Where stripe s of a shard starts in its file, when all of the
+     * stripes before it are full.
+     */
+    private static long stripeStart(int stripe) {
+        return StripeContainerHeader.SIZE + (long) stripe * (StripeContainerHeader.CHECKSUM_SIZE + STRIPE_SIZE);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        File dir = Files.createTempDirectory("container").toFile();
+        try {
+            int [] matrixTypes = {
+                    StripeContainerHeader.MATRIX_VANDERMONDE,
+                    StripeContainerHeader.MATRIX_CAUCHY,
+                    StripeContainerHeader.MATRIX_CAUCHY_MIN_XORS
+            };
+            for (int matrixType : matrixTypes) {
+                for (int length : new int [] { 0, 1, 400, 1234 }) {
+                    byte [] data = randomBytes(length, length);
+                    File [] shardFiles = write(dir, data, matrixType);
+                    StripeContainerInputStream in = StripeContainerInputStream.open(shardFiles);
+                    assertEquals(matrixType, in.getHeader().getMatrixType());
+                    assertEquals(length, in.getHeader().getDataLength());
+                    assertArrayEquals(data, readAll(in));
+                    assertEquals(0, in.getCorruptShardStripeCount());
+                }
+            }
+        }
+        finally {
+            deleteAll(dir);
+        }
+    }
+
+    @Test
+    public void testCorruptStripes() throws IOException {
+        File dir = Files.createTempDirectory("container").toFile();
+        try {
+            byte [] data = randomBytes(4000, 1);
+            File [] shardFiles = write(dir, data, StripeContainerHeader.MATRIX_VANDERMONDE);
+
+            // Damage two shards in stripe 0, and three other shards in
+            // later stripes.  No stripe has more than two bad shards.
+            flipByte(shardFiles[0], stripeStart(0) + 10);
+            flipByte(shardFiles[5], stripeStart(0) + 99);
+            flipByte(shardFiles[1], stripeStart(3) + 50);
+            flipByte(shardFiles[2], stripeStart(7));
+            flipByte(shardFiles[3], stripeStart(9) + 1);
+
+            StripeContainerInputStream in = StripeContainerInputStream.open(shardFiles);
+            assertArrayEquals(data, readAll(in));
+            assertEquals(5, in.getCorruptShardStripeCount());
+            assertEquals(0, in.getFailedShardCount());
+        }
+        finally {
+            deleteAll(dir);
+        }
+    }
+
+    /**
+     * A stripe with too many bad shards fails the stream for good,
+     * instead of letting later reads return the next stripe's bytes.
+     */
+    @Test
+    public void testUnrecoverableStripe() throws IOException {
+        File dir = Files.createTempDirectory("container").toFile();
+        try {
+            byte [] data = randomBytes(4000, 4);
+            File [] shardFiles = write(dir, data, StripeContainerHeader.MATRIX_VANDERMONDE);
+            flipByte(shardFiles[0], stripeStart(0) + 1);
+            flipByte(shardFiles[1], stripeStart(0) + 2);
+            flipByte(shardFiles[2], stripeStart(0) + 3);
+
+            StripeContainerInputStream in = StripeContainerInputStream.open(shardFiles);
+            try {
+                byte [] buffer = new byte [400];
+                for (int attempt = 0; attempt < 2; attempt++) {
+                    try {
+                        in.read(buffer);
+                        fail("expected an IOException");
+                    }
+                    catch (IOException e) {
+                        // expected
+                    }
+                }
+                try {
+                    in.available();
+                    fail("expected an IOException");
+                }
+                catch (IOException e) {
+                    // expected
+                }
+            }
+            finally {
+                in.close();
+            }
+        }
+        finally {
+            deleteAll(dir);
+        }
+    }
+
+    @Test
+    public void testBadHeaders() throws IOException {
+        File dir = Files.createTempDirectory("container").toFile();
+        try {
+            byte [] data = randomBytes(1000, 2);
+            File [] shardFiles = write(dir, data, StripeContainerHeader.MATRIX_CAUCHY);
+
+            // A damaged header, and a missing file.
+            flipByte(shardFiles[1], 20);
+            assertTrue(shardFiles[4].delete());
+            StripeContainerInputStream in = StripeContainerInputStream.open(shardFiles);
+            assertArrayEquals(data, readAll(in));
+            assertEquals(2, in.getFailedShardCount());
+        }
+        finally {
+            deleteAll(dir);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnfinished() throws IOException {
+        File dir = Files.createTempDirectory("container").toFile();
+        try {
+            File [] shardFiles = shardFiles(dir);
+            StripeContainerOutputStream out = new StripeContainerOutputStream(
+                    DATA_COUNT, PARITY_COUNT, StripeContainerHeader.MATRIX_VANDERMONDE, STRIPE_SIZE, shardFiles);
+            out.write(randomBytes(1000, 3));
+            out.flush();
+            try {
+                StripeContainerInputStream.open(shardFiles);
+            }
+            finally {
+                out.close();
+            }
+        }
+        finally {
+            deleteAll(dir);
+        }
+    }
+
+    private static File [] write(File dir, byte [] data, int matrixType) throws IOException {
+        File [] shardFiles = shardFiles(dir);
+        StripeContainerOutputStream out = new StripeContainerOutputStream(
+                DATA_COUNT, PARITY_COUNT, matrixType, STRIPE_SIZE, shardFiles);
+        out.write(data);
+        out.close();
+        return shardFiles;
+    }
+
+    private static File [] shardFiles(File dir) {
+        File [] result = new File [TOTAL_COUNT];
+        for (int i = 0; i < TOTAL_COUNT; i++) {
+            result[i] = new File(dir, "shard." + i);
+        }
+        return result;
+    }
+
+    private static void flipByte(File file, long position) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(position);
+            int b = raf.read();
+            raf.seek(position);
+            raf.write(b ^ 0x40);
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    private static byte [] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte [] buffer = new byte [333];
+        for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+            out.write(buffer, 0, n);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+}